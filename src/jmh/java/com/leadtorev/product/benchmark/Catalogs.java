@@ -0,0 +1,74 @@
+package com.leadtorev.product.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.types.ObjectId;
+
+import com.leadtorev.product.entity.Availability;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductAttribute;
+import com.leadtorev.product.entity.Ratings;
+
+/**Generated products with the shape of static/jsondata.json: 1-3 categories out of 20, a size, color and
+ * brand attribute, an availability and 3 ratings. The sizes the benchmarks vary are parameters of the benchmarks.
+ * The generator is seeded, so every run measures the same data.
+ */
+final class Catalogs {
+
+	static final List<String> SIZES = List.of("Small", "Medium", "Large");
+	static final List<String> COLORS = List.of("Red", "Black", "White", "Blue");
+
+	//Number of ratings of every product of jsondata
+	static final int JSONDATA_RATINGS = 3;
+
+	private Catalogs() {
+	}
+
+	static List<Product> products(int count) {
+		Random random = new Random(42);
+		List<Product> products = new ArrayList<Product>(count);
+		for(int i = 0; i < count; i++) {
+			products.add(product(i, JSONDATA_RATINGS, random));
+		}
+		return products;
+	}
+
+	static Product product(int i, int ratings, Random random) {
+		Product product = new Product();
+		product.setId(new ObjectId().toHexString());
+		product.setName("Product " + i);
+		product.setDescription("Description of Product " + i);
+		product.setPrice(1 + random.nextInt(10000) / 100.0);
+		ArrayList<String> categories = new ArrayList<String>();
+		for(int c = 1 + random.nextInt(3); c > 0; c--) {
+			categories.add("Category " + random.nextInt(20));
+		}
+		product.setCategories(categories);
+		ArrayList<ProductAttribute> attributes = new ArrayList<ProductAttribute>();
+		attributes.add(new ProductAttribute("size", SIZES.get(random.nextInt(SIZES.size()))));
+		attributes.add(new ProductAttribute("color", COLORS.get(random.nextInt(COLORS.size()))));
+		attributes.add(new ProductAttribute("brand", "Brand " + (char) ('A' + random.nextInt(26))));
+		product.setAttributes(attributes);
+		Availability availability = new Availability();
+		availability.setInStock(random.nextBoolean());
+		availability.setQuantity(availability.getInStock() ? random.nextInt(200) : 0);
+		product.setAvailability(availability);
+		product.setRatings(ratings(ratings, random));
+		product.updateRatingAggregates();
+		return product;
+	}
+
+	static ArrayList<Ratings> ratings(int count, Random random) {
+		ArrayList<Ratings> ratings = new ArrayList<Ratings>(count);
+		for(int i = 0; i < count; i++) {
+			Ratings rating = new Ratings();
+			rating.setUserId("user" + i);
+			rating.setRating(1 + random.nextInt(5));
+			rating.setComment("Comment " + i);
+			ratings.add(rating);
+		}
+		return ratings;
+	}
+}
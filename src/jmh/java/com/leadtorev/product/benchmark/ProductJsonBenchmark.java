@@ -0,0 +1,63 @@
+package com.leadtorev.product.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leadtorev.product.entity.Product;
+
+/**Jackson serialization and deserialization of one product, with the ObjectMapper configuration of Spring Boot.
+ * The number of ratings goes from the 3 of jsondata to the size of a popular product.
+ * Products written by the API without ratings (ratings are stored in buckets) are measured with ratings=0.
+ * Run with: gradle jmh -Pjmh.includes=ProductJsonBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductJsonBenchmark {
+
+	@Param({"0", "3", "1000", "10000"})
+	public int ratings;
+
+	ObjectMapper objectMapper;
+	Product product;
+	byte[] json;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		product = Catalogs.product(1, ratings, new Random(42));
+		if(ratings == 0) {
+			product.setRatings(null);
+		}
+		json = objectMapper.writeValueAsBytes(product);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		return objectMapper.writeValueAsBytes(product);
+	}
+
+	@Benchmark
+	public Product deserialize() throws IOException {
+		return objectMapper.readValue(json, Product.class);
+	}
+}
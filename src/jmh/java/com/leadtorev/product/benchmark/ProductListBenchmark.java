@@ -0,0 +1,78 @@
+package com.leadtorev.product.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.leadtorev.product.entity.Product;
+
+/**The in-memory list operations that searches used before the filtering moved to MongoDB:
+ * 1.filterProductList - the removed ProductService.filterProductList, a List.contains per product of the second list.
+ * 2.removeDuplicates  - de-duplication of the merged results of several filters by Product.equals/hashCode,
+ *                       like the removed ProductService.removeDuplicates.
+ * The second list holds every other product of the first one, so every lookup of filterProductList finds its product,
+ * on average halfway through the first list.
+ * The products are the size of jsondata (31) and of a page of an unfiltered search over a larger catalog.
+ * Run with: gradle jmh -Pjmh.includes=ProductListBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductListBenchmark {
+
+	@Param({"31", "1000", "10000"})
+	public int products;
+
+	List<Product> catalog;
+	List<Product> everyOther;
+	List<Product> withDuplicates;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		catalog = Catalogs.products(products);
+		everyOther = new ArrayList<Product>();
+		for(int i = 0; i < catalog.size(); i += 2) {
+			everyOther.add(catalog.get(i));
+		}
+		//A product that is in two categories of an OR is found by both filters
+		withDuplicates = new ArrayList<Product>(catalog);
+		withDuplicates.addAll(everyOther);
+	}
+
+	@Benchmark
+	public List<Product> filterProductList() {
+		return filterProductList(new ArrayList<Product>(catalog), everyOther);
+	}
+
+	@Benchmark
+	public List<Product> removeDuplicates() {
+		return new ArrayList<Product>(new LinkedHashSet<Product>(withDuplicates));
+	}
+
+	//Every product of list2 is looked up in list1, so the comparisons grow with the product of the two sizes
+	private static List<Product> filterProductList(List<Product> list1, List<Product> list2) {
+		for(Product p : list2) {
+			if(!list1.contains(p)) {
+				list1.remove(p);
+			}
+		}
+		return list1;
+	}
+}
@@ -0,0 +1,136 @@
+package com.leadtorev.product.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+
+import com.leadtorev.product.config.ProductIndexes;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductAttribute;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.leadtorev.product.service.ProductBitmapIndex;
+import com.leadtorev.product.service.ProductQueryBuilder;
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+/**Compares the ways of answering one page of a multi-criteria search:
+ * 1.bitmapIndex - ProductBitmapIndex, bitmap AND/OR over the postings.
+ * 2.linearScan  - List.contains / containsAll over every product, like the search did before it was moved to MongoDB.
+ * 3.mongo       - the single query built by ProductQueryBuilder. Needs a MongoDB at benchmark.mongodb.uri
+ *                 (default mongodb://localhost:27017/products_benchmark), run it with -Pjmh.includes=mongo.
+ * Run with: gradle jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductSearchBenchmark {
+
+	static final ProductSearchCriteria CRITERIA = new ProductSearchCriteria(null,
+			List.of("Category 3", "Category 7"), List.of(Map.of("size", "Small"), Map.of("color", "Red")));
+	static final List<ProductAttribute> CRITERIA_ATTRIBUTES = ProductAttribute.fromEntries(CRITERIA.getAttributes());
+	static final int PAGE_SIZE = 20;
+
+	@State(Scope.Benchmark)
+	public static class Catalog {
+
+		@Param({"100000"})
+		public int products;
+
+		//The first page, and a page that the linear scan only reaches after most of the catalog
+		@Param({"0", "50"})
+		public int pageNumber;
+
+		List<Product> catalog;
+		ProductBitmapIndex index;
+		Pageable page;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			catalog = Catalogs.products(products);
+			page = PageRequest.of(pageNumber, PAGE_SIZE);
+			index = new ProductBitmapIndex(null, true);
+			for(Product product : catalog) {
+				index.add(product);
+			}
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Mongo {
+
+		MongoClient client;
+		MongoTemplate mongoTemplate;
+		ProductQueryBuilder queryBuilder = new ProductQueryBuilder();
+
+		@Setup(Level.Trial)
+		public void setUp(Catalog catalog) {
+			String uri = System.getProperty("benchmark.mongodb.uri", "mongodb://localhost:27017/products_benchmark");
+			client = MongoClients.create(uri);
+			mongoTemplate = new MongoTemplate(client, new ConnectionString(uri).getDatabase());
+			mongoTemplate.dropCollection(Product.class);
+			for(IndexDefinition index : ProductIndexes.all("name", false)) {
+				mongoTemplate.indexOps(Product.class).ensureIndex(index);
+			}
+			mongoTemplate.insertAll(catalog.catalog);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			client.close();
+		}
+	}
+
+	@Benchmark
+	public List<String> bitmapIndex(Catalog catalog) {
+		return catalog.index.search(CRITERIA, catalog.page);
+	}
+
+	@Benchmark
+	public List<Product> linearScan(Catalog catalog) {
+		List<Product> page = new ArrayList<Product>();
+		long skip = catalog.page.getOffset();
+		for(Product product : catalog.catalog) {
+			boolean anyCategory = false;
+			for(String category : CRITERIA.getCategories()) {
+				if(product.getCategories().contains(category)) {
+					anyCategory = true;
+					break;
+				}
+			}
+			if(anyCategory && product.getAttributes().containsAll(CRITERIA_ATTRIBUTES) && skip-- <= 0) {
+				page.add(product);
+				if(page.size() == PAGE_SIZE) {
+					break;
+				}
+			}
+		}
+		return page;
+	}
+
+	@Benchmark
+	public List<Product> mongo(Catalog catalog, Mongo mongo) {
+		return mongo.mongoTemplate.find(mongo.queryBuilder.build(CRITERIA, catalog.page), Product.class);
+	}
+}
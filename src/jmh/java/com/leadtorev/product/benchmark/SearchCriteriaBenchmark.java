@@ -0,0 +1,91 @@
+package com.leadtorev.product.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.leadtorev.product.service.ProductQueryBuilder;
+import com.leadtorev.product.service.ProductSearchCache;
+
+/**The work a search does with the ProductSearchCriteria before any product is read:
+ * 1.buildQuery      - ProductQueryBuilder, from the criteria to the query document sent to MongoDB.
+ * 2.searchCacheHit  - ProductSearchCache, normalizing the criteria into the cache key and finding the cached page.
+ *                     The categories and attributes are given in another order than when the page was cached.
+ * criteriaValues is the number of categories and of attributes in the criteria; jsondata searches use 2-3.
+ * Run with: gradle jmh -Pjmh.includes=SearchCriteriaBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchCriteriaBenchmark {
+
+	@Param({"2", "10"})
+	public int criteriaValues;
+
+	ProductQueryBuilder queryBuilder;
+	ProductSearchCache searchCache;
+	ProductSearchCriteria criteria;
+	ProductSearchCriteria reordered;
+	Pageable page;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		queryBuilder = new ProductQueryBuilder();
+		searchCache = new ProductSearchCache(1000, Duration.ofHours(1));
+		page = PageRequest.of(0, 20);
+
+		List<String> categories = new ArrayList<String>();
+		List<Map<String, String>> attributes = new ArrayList<Map<String, String>>();
+		for(int i = 0; i < criteriaValues; i++) {
+			categories.add("Category " + i);
+			attributes.add(Map.of("attribute" + i, "Value " + i));
+		}
+		criteria = new ProductSearchCriteria("Product 1", categories, attributes);
+
+		List<String> shuffledCategories = new ArrayList<String>(categories);
+		List<Map<String, String>> shuffledAttributes = new ArrayList<Map<String, String>>(attributes);
+		Collections.shuffle(shuffledCategories, new Random(42));
+		Collections.shuffle(shuffledAttributes, new Random(42));
+		reordered = new ProductSearchCriteria("Product 1", shuffledCategories, shuffledAttributes);
+
+		List<Product> cachedPage = Catalogs.products(20);
+		searchCache.get(criteria, 0, 20, null, () -> cachedPage);
+	}
+
+	@Benchmark
+	public Document buildQuery() {
+		return queryBuilder.build(criteria, page).getQueryObject();
+	}
+
+	@Benchmark
+	public List<?> searchCacheHit() {
+		return searchCache.get(reordered, 0, 20, null, () -> {
+			throw new IllegalStateException("The page should be cached");
+		});
+	}
+}
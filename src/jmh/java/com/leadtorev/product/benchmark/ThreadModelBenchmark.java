@@ -0,0 +1,106 @@
+package com.leadtorev.product.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**Compares the time to serve a burst of concurrent requests that block on the database:
+ * 1.platformThreads - a fixed pool of platform threads, like the default Tomcat pool (200 threads).
+ * 2.virtualThreads  - a virtual thread per request, like the virtual profile.
+ * Every request takes one of the connections of a pool, waits latencyMillis for the database and does a little work.
+ * The database is simulated, so the benchmark shows the cost of the thread model alone.
+ * Run with: gradle jmh -Pjmh.includes=ThreadModelBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadModelBenchmark {
+
+	//Concurrent requests of a burst
+	@Param({"10000"})
+	public int requests;
+
+	//Injected latency of a database call
+	@Param({"5", "20"})
+	public int latencyMillis;
+
+	//server.tomcat.threads.max
+	@Param({"200"})
+	public int platformThreads;
+
+	//products.mongodb.max-pool-size of the virtual profile
+	@Param({"500"})
+	public int connections;
+
+	ExecutorService platform;
+	ExecutorService virtual;
+	Semaphore connectionPool;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		platform = Executors.newFixedThreadPool(platformThreads);
+		virtual = Executors.newVirtualThreadPerTaskExecutor();
+		connectionPool = new Semaphore(connections);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		platform.shutdownNow();
+		virtual.shutdownNow();
+	}
+
+	@Benchmark
+	public void platformThreads(Blackhole blackhole) throws InterruptedException, ExecutionException {
+		serve(platform, blackhole);
+	}
+
+	@Benchmark
+	public void virtualThreads(Blackhole blackhole) throws InterruptedException, ExecutionException {
+		serve(virtual, blackhole);
+	}
+
+	private void serve(ExecutorService executor, Blackhole blackhole) throws InterruptedException, ExecutionException {
+		List<Callable<Long>> burst = new ArrayList<Callable<Long>>(requests);
+		for(int i = 0; i < requests; i++) {
+			burst.add(this::request);
+		}
+		for(var response : executor.invokeAll(burst)) {
+			blackhole.consume(response.get());
+		}
+	}
+
+	//One request: a database call on a pooled connection, then mapping the result
+	private long request() throws InterruptedException {
+		connectionPool.acquire();
+		try {
+			Thread.sleep(latencyMillis);
+		} finally {
+			connectionPool.release();
+		}
+		Blackhole.consumeCPU(1000);
+		return System.nanoTime();
+	}
+}
@@ -0,0 +1,113 @@
+package com.leadtorev.product.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.springframework.core.io.ClassPathResource;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**Writes a json file of products for /products/import-json, scaled up from static/jsondata.json.
+ * The categories, attribute values and rating comments are the ones of jsondata, so searches match about as
+ * many products per category as in jsondata. Each product has 2 categories, a size, color and brand attribute and
+ * ratingsPerProduct ratings from user0, user1 and so on, which update-rates changes.
+ * The generator is seeded, so every run imports the same catalog.
+ */
+final class CatalogGenerator {
+
+	final List<String> categories = new ArrayList<String>();
+	final Map<String, List<String>> attributeValues = new TreeMap<String, List<String>>();
+	final List<String> comments = new ArrayList<String>();
+
+	CatalogGenerator(ObjectMapper objectMapper) throws IOException {
+		List<Map<String, Object>> jsondata;
+		try (InputStream inputStream = new ClassPathResource("static/jsondata.json").getInputStream()) {
+			jsondata = objectMapper.readValue(inputStream, new TypeReference<List<Map<String, Object>>>() {});
+		}
+		TreeSet<String> categorySet = new TreeSet<String>();
+		Map<String, TreeSet<String>> valueSets = new TreeMap<String, TreeSet<String>>();
+		TreeSet<String> commentSet = new TreeSet<String>();
+		for(Map<String, Object> product : jsondata) {
+			for(Object category : (List<?>) product.get("categories")) {
+				categorySet.add((String) category);
+			}
+			for(Object attribute : (List<?>) product.get("attributes")) {
+				for(Map.Entry<?, ?> entry : ((Map<?, ?>) attribute).entrySet()) {
+					valueSets.computeIfAbsent((String) entry.getKey(), key -> new TreeSet<String>()).add((String) entry.getValue());
+				}
+			}
+			for(Object rating : (List<?>) product.get("ratings")) {
+				commentSet.add((String) ((Map<?, ?>) rating).get("comment"));
+			}
+		}
+		categories.addAll(categorySet);
+		valueSets.forEach((key, values) -> attributeValues.put(key, new ArrayList<String>(values)));
+		comments.addAll(commentSet);
+	}
+
+	//Write the products to a temporary file, streamed so the catalog can be larger than the memory
+	Path write(ObjectMapper objectMapper, int count, int ratingsPerProduct) throws IOException {
+		Path file = Files.createTempFile("loadtest-products-", ".json");
+		Random random = new Random(42);
+		try (OutputStream outputStream = Files.newOutputStream(file);
+				JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+			generator.writeStartArray();
+			for(int i = 1; i <= count; i++) {
+				generator.writeStartObject();
+				generator.writeStringField("name", "Product " + i);
+				generator.writeStringField("description", "Description of Product " + i);
+				generator.writeNumberField("price", 1 + random.nextInt(50000) / 100.0);
+				generator.writeArrayFieldStart("categories");
+				for(String category : randomCategories(random)) {
+					generator.writeString(category);
+				}
+				generator.writeEndArray();
+				generator.writeArrayFieldStart("attributes");
+				for(Map.Entry<String, List<String>> attribute : attributeValues.entrySet()) {
+					generator.writeStartObject();
+					generator.writeStringField(attribute.getKey(), pick(attribute.getValue(), random));
+					generator.writeEndObject();
+				}
+				generator.writeEndArray();
+				boolean inStock = random.nextInt(10) > 0;
+				generator.writeObjectFieldStart("availability");
+				generator.writeBooleanField("inStock", inStock);
+				generator.writeNumberField("quantity", inStock ? random.nextInt(200) : 0);
+				generator.writeEndObject();
+				generator.writeArrayFieldStart("ratings");
+				for(int r = 0; r < ratingsPerProduct; r++) {
+					generator.writeStartObject();
+					generator.writeStringField("userId", "user" + r);
+					generator.writeNumberField("rating", 1 + random.nextInt(5));
+					generator.writeStringField("comment", pick(comments, random));
+					generator.writeEndObject();
+				}
+				generator.writeEndArray();
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+		}
+		return file;
+	}
+
+	List<String> randomCategories(Random random) {
+		String first = pick(categories, random);
+		String second = pick(categories, random);
+		return first.equals(second) ? List.of(first) : List.of(first, second);
+	}
+
+	static <T> T pick(List<T> values, Random random) {
+		return values.get(random.nextInt(values.size()));
+	}
+}
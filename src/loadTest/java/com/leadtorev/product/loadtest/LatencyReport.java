@@ -0,0 +1,112 @@
+package com.leadtorev.product.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**Latencies and errors of the recorded part of a run, per operation and in total.
+ * Latencies are recorded in microseconds in HdrHistograms with 3 significant digits, so the percentiles are
+ * exact to 0.1% up to the 60 second request timeout, without keeping every sample.
+ * A request is an error when it fails or its status is not 2xx.
+ */
+final class LatencyReport {
+
+	private static final long MAX_MICROS = TimeUnit.SECONDS.toMicros(60);
+
+	private final Map<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private final Map<String, LongAdder> errors = new ConcurrentHashMap<String, LongAdder>();
+	private final Histogram total = histogram();
+	private final LongAdder totalErrors = new LongAdder();
+
+	private static Histogram histogram() {
+		return new ConcurrentHistogram(MAX_MICROS, 3);
+	}
+
+	void record(String operation, long nanos, boolean error) {
+		long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 1), MAX_MICROS);
+		histograms.computeIfAbsent(operation, name -> histogram()).recordValue(micros);
+		total.recordValue(micros);
+		if(error) {
+			errors.computeIfAbsent(operation, name -> new LongAdder()).increment();
+			totalErrors.increment();
+		}
+	}
+
+	/*The report as a json document with sorted keys, so two reports can be compared with a plain diff.
+	 * Latencies are in milliseconds.
+	 */
+	Map<String, Object> toMap(LoadTestConfig config, Instant startedAt, Duration elapsed) {
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("label", config.label);
+		report.put("startedAt", startedAt.toString());
+		report.put("config", config.toMap());
+		report.put("total", summary(total, totalErrors.sum(), elapsed));
+		Map<String, Object> operations = new TreeMap<String, Object>();
+		histograms.forEach((operation, histogram) -> operations.put(operation,
+				summary(histogram, errors.getOrDefault(operation, new LongAdder()).sum(), elapsed)));
+		report.put("operations", operations);
+		return report;
+	}
+
+	private static Map<String, Object> summary(Histogram histogram, long errors, Duration elapsed) {
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("count", histogram.getTotalCount());
+		summary.put("errors", errors);
+		summary.put("throughputPerSecond", round(histogram.getTotalCount() * 1000.0 / Math.max(elapsed.toMillis(), 1)));
+		summary.put("p50", millis(histogram.getValueAtPercentile(50)));
+		summary.put("p95", millis(histogram.getValueAtPercentile(95)));
+		summary.put("p99", millis(histogram.getValueAtPercentile(99)));
+		summary.put("p999", millis(histogram.getValueAtPercentile(99.9)));
+		summary.put("max", millis(histogram.getMaxValue()));
+		summary.put("mean", round(histogram.getMean() / 1000));
+		return summary;
+	}
+
+	private static double millis(long micros) {
+		return round(micros / 1000.0);
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+	void write(Map<String, Object> report, String path, ObjectMapper objectMapper) throws IOException {
+		File file = new File(path);
+		if(file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		objectMapper.copy()
+				.enable(SerializationFeature.INDENT_OUTPUT)
+				.enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+				.writeValue(file, report);
+	}
+
+	//One line per operation, for the console
+	@SuppressWarnings("unchecked")
+	static String table(Map<String, Object> report) {
+		StringBuilder table = new StringBuilder(String.format("%-18s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+				"operation", "count", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "p999 ms", "max ms"));
+		Map<String, Object> rows = new LinkedHashMap<String, Object>((Map<String, Object>) report.get("operations"));
+		rows.put("total", report.get("total"));
+		rows.forEach((operation, value) -> {
+			Map<String, Object> row = (Map<String, Object>) value;
+			table.append(String.format("%-18s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", operation,
+					row.get("count"), row.get("errors"), row.get("throughputPerSecond"), row.get("p50"),
+					row.get("p95"), row.get("p99"), row.get("p999"), row.get("max")));
+		});
+		return table.toString();
+	}
+}
@@ -0,0 +1,160 @@
+package com.leadtorev.product.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leadtorev.product.ProductAppApisApplication;
+import com.leadtorev.product.config.ProductIndexes;
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+/**End-to-end load test of the product endpoints against a MongoDB, run with ./gradlew loadTest.
+ * 1.Drops the products and ratings of the load test database and seeds it with a generated catalog
+ *   through /products/import-json, so the import path is the one used in production.
+ * 2.Starts the application on a random port with the given profiles, unless loadtest.base-url is set.
+ * 3.Runs loadtest.concurrency clients in a closed loop: every client sends its next request when the previous one
+ *   is answered, picking the operation at random by the weights of loadtest.mix.
+ *   The warmup is not recorded, so the JIT, the connection pools and the caches are warm when recording starts.
+ * 4.Writes the throughput and the p50/p95/p99/p999 latencies of every operation to loadtest.report.
+ * In a closed loop a slow server also slows down the clients, so the latencies are those seen by
+ * loadtest.concurrency users and not those of a fixed arrival rate.
+ */
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		LoadTestConfig config = new LoadTestConfig();
+		ObjectMapper objectMapper = new ObjectMapper();
+		CatalogGenerator catalog = new CatalogGenerator(objectMapper);
+
+		if(config.seed) {
+			try (MongoClient mongoClient = MongoClients.create(config.mongodbUri)) {
+				String database = new ConnectionString(config.mongodbUri).getDatabase();
+				mongoClient.getDatabase(database).getCollection(ProductIndexes.COLLECTION).drop();
+				mongoClient.getDatabase(database).getCollection(ProductIndexes.RATINGS_COLLECTION).drop();
+			}
+		}
+
+		ConfigurableApplicationContext application = null;
+		String baseUrl = config.baseUrl;
+		if(baseUrl == null) {
+			application = new SpringApplicationBuilder(ProductAppApisApplication.class)
+					.profiles(config.profiles.isBlank() ? new String[0] : config.profiles.split(","))
+					.run("--server.port=0", "--spring.data.mongodb.uri=" + config.mongodbUri);
+			baseUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+		}
+
+		try {
+			Workload workload = new Workload(baseUrl, objectMapper, catalog, config.ratingsPerProduct);
+			if(config.seed) {
+				Path file = catalog.write(objectMapper, config.products, config.ratingsPerProduct);
+				try {
+					long start = System.nanoTime();
+					int status = workload.importCatalog(file);
+					if(status != 200) {
+						throw new IllegalStateException("Seeding the catalog failed with status " + status);
+					}
+					System.out.printf("Seeded %d products in %d ms%n", config.products,
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				} finally {
+					Files.deleteIfExists(file);
+				}
+			}
+			workload.loadIds();
+
+			Map<String, Workload.Operation> operations = workload.operations();
+			for(String operation : config.mix.keySet()) {
+				if(!operations.containsKey(operation)) {
+					throw new IllegalArgumentException("Unknown operation " + operation + " in loadtest.mix, use one of "
+							+ operations.keySet());
+				}
+			}
+
+			System.out.printf("Warming up for %s with %d clients on %d products%n", config.warmup, config.concurrency,
+					workload.productCount());
+			run(config, operations, config.warmup, null);
+
+			System.out.printf("Recording for %s%n", config.duration);
+			LatencyReport latencies = new LatencyReport();
+			Instant startedAt = Instant.now();
+			Duration elapsed = run(config, operations, config.duration, latencies);
+
+			Map<String, Object> report = latencies.toMap(config, startedAt, elapsed);
+			latencies.write(report, config.report, objectMapper);
+			System.out.print(LatencyReport.table(report));
+			System.out.println("Report written to " + config.report);
+		} finally {
+			if(application != null) {
+				application.close();
+			}
+		}
+	}
+
+	//Run the clients for the given time and record the requests in the report, if there is one
+	private static Duration run(LoadTestConfig config, Map<String, Workload.Operation> operations, Duration duration,
+			LatencyReport report) throws Exception {
+		List<String> names = new ArrayList<String>(config.mix.keySet());
+		int[] cumulativeWeights = new int[names.size()];
+		int totalWeight = 0;
+		for(int i = 0; i < names.size(); i++) {
+			totalWeight += config.mix.get(names.get(i));
+			cumulativeWeights[i] = totalWeight;
+		}
+		int weights = totalWeight;
+
+		ExecutorService clients = Executors.newFixedThreadPool(config.concurrency);
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for(int c = 0; c < config.concurrency; c++) {
+				futures.add(clients.submit(() -> {
+					while(System.nanoTime() < end) {
+						int pick = ThreadLocalRandom.current().nextInt(weights);
+						int index = 0;
+						while(cumulativeWeights[index] <= pick) {
+							index++;
+						}
+						String name = names.get(index);
+						long sent = System.nanoTime();
+						boolean error;
+						try {
+							int status = operations.get(name).call();
+							if(status == Workload.SKIPPED) {
+								continue;
+							}
+							error = status < 200 || status >= 300;
+						} catch(IOException e) {
+							error = true;
+						}
+						if(report != null) {
+							report.record(name, System.nanoTime() - sent, error);
+						}
+					}
+					return null;
+				}));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			clients.shutdownNow();
+		}
+		return Duration.ofNanos(System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,73 @@
+package com.leadtorev.product.loadtest;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**Settings of a load test run, read from -Dloadtest.* system properties.
+ * 1.loadtest.mongodb.uri         - MongoDB that is seeded and used by the application.
+ * 2.loadtest.base-url            - run against an application that is already started, instead of starting one.
+ * 3.loadtest.profiles            - profiles of the started application, e.g. virtual or reactive.
+ * 4.loadtest.seed                - drop and re-seed the products before the run.
+ * 5.loadtest.products, loadtest.ratings-per-product - size of the generated catalog.
+ * 6.loadtest.concurrency         - number of clients sending requests back to back.
+ * 7.loadtest.warmup, loadtest.duration - length of the unrecorded warmup and of the recorded run.
+ * 8.loadtest.mix                 - weight of every operation, e.g. "find-product=50,search=50".
+ * 9.loadtest.report, loadtest.label - the json report and a label written into it, e.g. a commit.
+ */
+final class LoadTestConfig {
+
+	//Weights of the operations, see Workload for what each of them sends
+	static final String DEFAULT_MIX = "hello=1,find-product=25,find-products=5,all-products=10,search=20,"
+			+ "cache-stats=1,ratings=8,add-ratings=8,add-ratings-bulk=2,update-rates=5,add-product=4,"
+			+ "update-product=4,update-products=1,delete-product=4,export=0,import-json=0";
+
+	final String mongodbUri = property("loadtest.mongodb.uri", "mongodb://localhost:27017/products_loadtest");
+	final String baseUrl = property("loadtest.base-url", null);
+	final String profiles = property("loadtest.profiles", "");
+	final boolean seed = Boolean.parseBoolean(property("loadtest.seed", "true"));
+	final int products = Integer.parseInt(property("loadtest.products", "10000"));
+	final int ratingsPerProduct = Integer.parseInt(property("loadtest.ratings-per-product", "3"));
+	final int concurrency = Integer.parseInt(property("loadtest.concurrency", "32"));
+	final Duration warmup = DurationStyle.detectAndParse(property("loadtest.warmup", "10s"));
+	final Duration duration = DurationStyle.detectAndParse(property("loadtest.duration", "60s"));
+	final Map<String, Integer> mix = parseMix(property("loadtest.mix", DEFAULT_MIX));
+	final String report = property("loadtest.report", "build/load-test/report.json");
+	final String label = property("loadtest.label", "");
+
+	private static String property(String name, String defaultValue) {
+		String value = System.getProperty(name);
+		return value == null || value.isBlank() ? defaultValue : value;
+	}
+
+	//Operations with a weight of 0 are not sent
+	static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+		for(String entry : mix.split(",")) {
+			String[] nameAndWeight = entry.trim().split("=");
+			if(nameAndWeight.length != 2) {
+				throw new IllegalArgumentException("Invalid loadtest.mix entry " + entry + ", use name=weight");
+			}
+			int weight = Integer.parseInt(nameAndWeight[1].trim());
+			if(weight > 0) {
+				weights.put(nameAndWeight[0].trim(), weight);
+			}
+		}
+		return weights;
+	}
+
+	Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("baseUrl", baseUrl);
+		map.put("profiles", profiles);
+		map.put("products", products);
+		map.put("ratingsPerProduct", ratingsPerProduct);
+		map.put("concurrency", concurrency);
+		map.put("warmupSeconds", warmup.toSeconds());
+		map.put("durationSeconds", duration.toSeconds());
+		map.put("mix", mix);
+		return map;
+	}
+}
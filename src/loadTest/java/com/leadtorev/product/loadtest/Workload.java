@@ -0,0 +1,283 @@
+package com.leadtorev.product.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**The requests of the load test, one operation per endpoint of ProductController.
+ * An operation sends one request and returns its status code, or SKIPPED when it has nothing to send,
+ * e.g. delete-product before any product was added.
+ * Products are picked at random from the seeded catalog. Products created by add-product are the only ones
+ * deleted, so the catalog keeps its size during the run.
+ */
+final class Workload {
+
+	static final int SKIPPED = -1;
+
+	interface Operation {
+		int call() throws IOException, InterruptedException;
+	}
+
+	private final HttpClient client;
+	private final String products;
+	private final ObjectMapper objectMapper;
+	private final CatalogGenerator catalog;
+	private final int ratingsPerProduct;
+
+	//Ids of the seeded products, and of the products added by the run that are not deleted yet
+	private final List<String> ids = new ArrayList<String>();
+	private final ConcurrentLinkedQueue<String> added = new ConcurrentLinkedQueue<String>();
+
+	//all-products walks through the listing with the cursor of the previous page, and starts over at the end
+	private final AtomicReference<String> nextCursor = new AtomicReference<String>();
+
+	Workload(String baseUrl, ObjectMapper objectMapper, CatalogGenerator catalog, int ratingsPerProduct) {
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(10))
+				.build();
+		this.products = baseUrl + "/products";
+		this.objectMapper = objectMapper;
+		this.catalog = catalog;
+		this.ratingsPerProduct = ratingsPerProduct;
+	}
+
+	Map<String, Operation> operations() {
+		Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+		operations.put("hello", () -> send(get("/hello")));
+		operations.put("find-product", () -> send(get("/find-product/" + randomId())));
+		operations.put("find-products", this::findProducts);
+		operations.put("all-products", this::allProducts);
+		operations.put("search", this::search);
+		operations.put("cache-stats", () -> send(get("/cache-stats")));
+		operations.put("ratings", () -> send(get("/" + randomId() + "/ratings?pageSize=20")));
+		operations.put("add-ratings", this::addRating);
+		operations.put("add-ratings-bulk", this::addRatings);
+		operations.put("update-rates", this::updateRate);
+		operations.put("add-product", this::addProduct);
+		operations.put("update-product", this::updateProduct);
+		operations.put("update-products", this::updateProducts);
+		operations.put("delete-product", this::deleteProduct);
+		operations.put("export", this::export);
+		operations.put("import-json", this::importJson);
+		return operations;
+	}
+
+	//Import the generated catalog, the same request as import-json
+	int importCatalog(Path file) throws IOException, InterruptedException {
+		return send(multipart("/import-json", file));
+	}
+
+	//Read the ids of all the products with one export
+	void loadIds() throws IOException, InterruptedException {
+		HttpResponse<Stream<String>> response = client.send(get("/export"), BodyHandlers.ofLines());
+		if(response.statusCode() != 200) {
+			throw new IOException("Export failed with status " + response.statusCode());
+		}
+		try (Stream<String> lines = response.body()) {
+			for(String line : (Iterable<String>) lines::iterator) {
+				if(!line.isBlank()) {
+					ids.add(objectMapper.readTree(line).get("id").asText());
+				}
+			}
+		}
+		if(ids.isEmpty()) {
+			throw new IOException("There are no products to run the load test on");
+		}
+	}
+
+	int productCount() {
+		return ids.size();
+	}
+
+	private int findProducts() throws IOException, InterruptedException {
+		List<String> page = new ArrayList<String>();
+		for(int i = 0; i < 20; i++) {
+			page.add(randomId());
+		}
+		return send(post("/find-products", page));
+	}
+
+	private int allProducts() throws IOException, InterruptedException {
+		String cursor = nextCursor.get();
+		HttpResponse<Void> response = client.send(get("/all-products?pageSize=50"
+				+ (cursor != null ? "&cursor=" + cursor : "")), BodyHandlers.discarding());
+		nextCursor.compareAndSet(cursor, response.headers().firstValue("X-Next-Cursor").orElse(null));
+		return response.statusCode();
+	}
+
+	private int search() throws IOException, InterruptedException {
+		Random random = ThreadLocalRandom.current();
+		Map<String, Object> criteria = new LinkedHashMap<String, Object>();
+		criteria.put("name", null);
+		criteria.put("categories", catalog.randomCategories(random));
+		Map.Entry<String, List<String>> attribute = CatalogGenerator.pick(
+				new ArrayList<Map.Entry<String, List<String>>>(catalog.attributeValues.entrySet()), random);
+		criteria.put("attributes", List.of(Map.of(attribute.getKey(), CatalogGenerator.pick(attribute.getValue(), random))));
+		return send(request("/search?pageNumber=0&pageSize=20").method("GET", json(criteria)).build());
+	}
+
+	private int addRating() throws IOException, InterruptedException {
+		return send(post("/" + randomId() + "/add-ratings", rating(null)));
+	}
+
+	private int addRatings() throws IOException, InterruptedException {
+		List<Map<String, Object>> ratings = new ArrayList<Map<String, Object>>();
+		for(int i = 0; i < 20; i++) {
+			ratings.add(rating(randomId()));
+		}
+		return send(post("/add-ratings", ratings));
+	}
+
+	private int updateRate() throws IOException, InterruptedException {
+		if(ratingsPerProduct == 0) {
+			return SKIPPED;
+		}
+		int user = ThreadLocalRandom.current().nextInt(ratingsPerProduct);
+		int rating = 1 + ThreadLocalRandom.current().nextInt(5);
+		return send(request("/" + randomId() + "/user" + user + "/update-rates?newRating=" + rating)
+				.PUT(BodyPublishers.noBody()).build());
+	}
+
+	private int addProduct() throws IOException, InterruptedException {
+		String id = UUID.randomUUID().toString();
+		Map<String, Object> product = product(id);
+		product.put("name", "Load test product " + id);
+		product.put("description", "Added by the load test");
+		product.put("categories", catalog.randomCategories(ThreadLocalRandom.current()));
+		int status = send(post("/add-product", product));
+		if(status >= 200 && status < 300) {
+			added.add(id);
+		}
+		return status;
+	}
+
+	private int updateProduct() throws IOException, InterruptedException {
+		Map<String, Object> product = product(null);
+		return send(request("/update-product/" + randomId()).PUT(json(product)).build());
+	}
+
+	private int updateProducts() throws IOException, InterruptedException {
+		List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>();
+		for(String id : distinctRandomIds(20)) {
+			updates.add(product(id));
+		}
+		return send(request("/update-products").PUT(json(updates)).build());
+	}
+
+	private int deleteProduct() throws IOException, InterruptedException {
+		String id = added.poll();
+		if(id == null) {
+			return SKIPPED;
+		}
+		return send(request("/delete-product/" + id).DELETE().build());
+	}
+
+	private int export() throws IOException, InterruptedException {
+		return send(get("/export"));
+	}
+
+	//Import a small file of new products
+	private int importJson() throws IOException, InterruptedException {
+		Path file = catalog.write(objectMapper, 100, ratingsPerProduct);
+		try {
+			return send(multipart("/import-json", file));
+		} finally {
+			file.toFile().delete();
+		}
+	}
+
+	//A partial update that changes the price and the stock
+	private Map<String, Object> product(String id) {
+		Random random = ThreadLocalRandom.current();
+		Map<String, Object> product = new LinkedHashMap<String, Object>();
+		if(id != null) {
+			product.put("id", id);
+		}
+		product.put("price", 1 + random.nextInt(50000) / 100.0);
+		product.put("availability", Map.of("inStock", true, "quantity", random.nextInt(200)));
+		return product;
+	}
+
+	private Map<String, Object> rating(String productId) {
+		Random random = ThreadLocalRandom.current();
+		Map<String, Object> rating = new LinkedHashMap<String, Object>();
+		if(productId != null) {
+			rating.put("productId", productId);
+		}
+		rating.put("userId", "loadtest-" + random.nextInt(1_000_000));
+		rating.put("rating", 1 + random.nextInt(5));
+		rating.put("comment", CatalogGenerator.pick(catalog.comments, random));
+		return rating;
+	}
+
+	private String randomId() {
+		return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+	}
+
+	//update-products accepts a product once per request
+	private List<String> distinctRandomIds(int count) {
+		int start = ThreadLocalRandom.current().nextInt(ids.size());
+		List<String> page = new ArrayList<String>();
+		for(int i = 0; i < Math.min(count, ids.size()); i++) {
+			page.add(ids.get((start + i) % ids.size()));
+		}
+		return page;
+	}
+
+	private HttpRequest.Builder request(String path) {
+		return HttpRequest.newBuilder(URI.create(products + path))
+				.timeout(Duration.ofSeconds(60))
+				.header("Content-Type", "application/json");
+	}
+
+	private HttpRequest get(String path) {
+		return request(path).GET().build();
+	}
+
+	private HttpRequest post(String path, Object body) throws JsonProcessingException {
+		return request(path).POST(json(body)).build();
+	}
+
+	private HttpRequest multipart(String path, Path file) throws IOException {
+		String boundary = "loadtest-" + UUID.randomUUID();
+		String head = "--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"products.json\"\r\n"
+				+ "Content-Type: application/json\r\n\r\n";
+		String tail = "\r\n--" + boundary + "--\r\n";
+		return HttpRequest.newBuilder(URI.create(products + path))
+				.timeout(Duration.ofMinutes(30))
+				.header("Content-Type", "multipart/form-data; boundary=" + boundary)
+				.POST(BodyPublishers.concat(BodyPublishers.ofString(head), BodyPublishers.ofFile(file),
+						BodyPublishers.ofString(tail)))
+				.build();
+	}
+
+	private BodyPublisher json(Object body) throws JsonProcessingException {
+		return BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+	}
+
+	//Send the request, read the whole response and return its status
+	private int send(HttpRequest request) throws IOException, InterruptedException {
+		return client.send(request, BodyHandlers.discarding()).statusCode();
+	}
+}
@@ -0,0 +1,105 @@
+package com.leadtorev.product.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**Number of documents returned or written by every MongoDB command, by command and collection.
+ * The latency of the commands is recorded by Spring Boot as mongodb.driver.commands, with the same tags.
+ * 1.find, aggregate and getMore count the documents of the batch in the reply.
+ * 2.insert, update, delete and count use the n of the reply, findAndModify counts the returned document.
+ * The collection is only in the command that starts, so it is kept by request id until the reply arrives.
+ * Both the servlet and the reactive MongoClient get the listener.
+ */
+@Configuration
+public class MongoCommandMetrics {
+
+	@Bean
+	public MongoClientSettingsBuilderCustomizer documentCountCustomizer(MeterRegistry meterRegistry) {
+		return settings -> settings.addCommandListener(new DocumentCountListener(meterRegistry));
+	}
+
+	static class DocumentCountListener implements CommandListener {
+
+		private final MeterRegistry meterRegistry;
+		private final Map<Integer, String> collections = new ConcurrentHashMap<Integer, String>();
+
+		DocumentCountListener(MeterRegistry meterRegistry) {
+			this.meterRegistry = meterRegistry;
+		}
+
+		@Override
+		public void commandStarted(CommandStartedEvent event) {
+			String collection = collectionOf(event.getCommandName(), event.getCommand());
+			if(collection != null) {
+				collections.put(event.getRequestId(), collection);
+			}
+		}
+
+		@Override
+		public void commandSucceeded(CommandSucceededEvent event) {
+			String collection = collections.remove(event.getRequestId());
+			Long documents = documentCount(event.getCommandName(), event.getResponse());
+			if(collection != null && documents != null) {
+				DistributionSummary.builder("mongodb.driver.commands.documents")
+						.description("Documents returned or written by a command")
+						.baseUnit("documents")
+						.tag("command", event.getCommandName())
+						.tag("collection", collection)
+						.register(meterRegistry)
+						.record(documents);
+			}
+		}
+
+		@Override
+		public void commandFailed(CommandFailedEvent event) {
+			collections.remove(event.getRequestId());
+		}
+	}
+
+	//The collection of a command is the value of its first field, except for getMore
+	static String collectionOf(String commandName, BsonDocument command) {
+		BsonValue collection = command.get(commandName.equals("getMore") ? "collection" : commandName);
+		return collection != null && collection.isString() ? collection.asString().getValue() : null;
+	}
+
+	//Documents in the reply of a command, or null for the commands that do not read or write documents
+	static Long documentCount(String commandName, BsonDocument reply) {
+		switch(commandName) {
+			case "find":
+			case "aggregate":
+				return batchSize(reply, "firstBatch");
+			case "getMore":
+				return batchSize(reply, "nextBatch");
+			case "insert":
+			case "update":
+			case "delete":
+			case "count":
+				return reply.isNumber("n") ? reply.getNumber("n").longValue() : null;
+			case "findAndModify":
+				return reply.isDocument("value") ? 1L : 0L;
+			default:
+				return null;
+		}
+	}
+
+	private static Long batchSize(BsonDocument reply, String batch) {
+		if(!reply.isDocument("cursor") || !reply.getDocument("cursor").isArray(batch)) {
+			return null;
+		}
+		return (long) reply.getDocument("cursor").getArray(batch).size();
+	}
+}
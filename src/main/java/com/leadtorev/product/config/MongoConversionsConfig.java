@@ -0,0 +1,47 @@
+package com.leadtorev.product.config;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+import com.leadtorev.product.entity.ProductAttribute;
+
+/**Conversions between the stored documents and the entities, used by the servlet and the reactive MongoTemplate.
+ * Attributes are read in both forms, so products can be served while AttributeMigration rewrites them:
+ * 1.{k: "size", v: "Small"}, the attribute pattern written by the application.
+ * 2.{size: "Small"}, the form of documents written before it. Only the first entry of such a document is read;
+ *   the migration splits documents with more entries into one attribute per entry.
+ * Attributes are written in the first form by the mapping of ProductAttribute.
+ */
+@Configuration
+public class MongoConversionsConfig {
+
+	@Bean
+	public MongoCustomConversions mongoCustomConversions() {
+		return new MongoCustomConversions(List.of(AttributeReadConverter.INSTANCE));
+	}
+
+	@ReadingConverter
+	enum AttributeReadConverter implements Converter<Document, ProductAttribute> {
+		INSTANCE;
+
+		@Override
+		public ProductAttribute convert(Document source) {
+			if(source.containsKey("k")) {
+				Object value = source.get("v");
+				return new ProductAttribute(source.getString("k"), value == null ? null : value.toString());
+			}
+			if(source.isEmpty()) {
+				return null;
+			}
+			Map.Entry<String, Object> entry = source.entrySet().iterator().next();
+			return new ProductAttribute(entry.getKey(), entry.getValue() == null ? null : entry.getValue().toString());
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.leadtorev.product.config;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**Size of the MongoDB connection pool.
+ * 1.products.mongodb.max-pool-size - most connections open at a time, the driver default is 100.
+ * 2.products.mongodb.max-wait-time - how long a request waits for a free connection before it fails,
+ *   the driver default is 2 minutes.
+ * The pool caps the number of concurrent database calls. With platform threads the Tomcat pool caps them first;
+ * with virtual threads (the virtual profile) every waiting request holds a connection, so the pool is
+ * sized to the concurrency expected instead, and waiting for a connection is bounded.
+ * The pool is only changed when max-pool-size is set, as the virtual profile does. The values then override
+ * a maxPoolSize and waitQueueTimeoutMS given in spring.data.mongodb.uri. Without it the driver defaults and
+ * the uri apply.
+ */
+@Configuration
+public class MongoPoolConfig {
+
+	@Bean
+	@ConditionalOnProperty(name = "products.mongodb.max-pool-size")
+	public MongoClientSettingsBuilderCustomizer connectionPoolCustomizer(
+			@Value("${products.mongodb.max-pool-size}") int maxPoolSize,
+			@Value("${products.mongodb.max-wait-time:#{null}}") Duration maxWaitTime) {
+		return settings -> settings.applyToConnectionPoolSettings(pool -> {
+			pool.maxSize(maxPoolSize);
+			if(maxWaitTime != null) {
+				pool.maxWaitTime(maxWaitTime.toMillis(), TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+}
@@ -0,0 +1,199 @@
+package com.leadtorev.product.config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+
+/**Creates and reconciles the indexes of the "products" collection when the application starts.
+ * 1.Indexes declared in ProductIndexes that are missing are created.
+ * 2.Indexes whose name is declared but whose keys or options differ are dropped and created again.
+ * 3.Obsolete indexes are dropped. Other unknown indexes are only dropped when products.indexes.drop-unknown=true.
+ * 4.When products.indexes.check=true, every query shape is explained afterwards and the application
+ *   fails to start if any of them is a collection scan.
+ */
+@Component
+public class ProductIndexManager {
+
+	private static final Logger log = LoggerFactory.getLogger(ProductIndexManager.class);
+
+	//Index options that change the behaviour of an index. A difference in any of them means the index must be rebuilt.
+	private static final List<String> COMPARED_OPTIONS = List.of("unique", "sparse", "partialFilterExpression",
+			"expireAfterSeconds", "weights", "default_language", "language_override", "collation");
+
+	private final MongoTemplate mongoTemplate;
+	private final ProductIndexVerifier indexVerifier;
+	private final boolean enabled;
+	private final boolean dropUnknown;
+	private final boolean check;
+	private final String naturalKey;
+	private final boolean uniqueNaturalKey;
+
+	public ProductIndexManager(MongoTemplate mongoTemplate, ProductIndexVerifier indexVerifier,
+			@Value("${products.import.natural-key:name}") String naturalKey,
+			@Value("${products.import.unique-natural-key:false}") boolean uniqueNaturalKey,
+			@Value("${products.indexes.enabled:true}") boolean enabled,
+			@Value("${products.indexes.drop-unknown:false}") boolean dropUnknown,
+			@Value("${products.indexes.check:false}") boolean check) {
+		this.mongoTemplate = mongoTemplate;
+		this.indexVerifier = indexVerifier;
+		this.enabled = enabled;
+		this.dropUnknown = dropUnknown;
+		this.check = check;
+		this.naturalKey = naturalKey;
+		this.uniqueNaturalKey = uniqueNaturalKey;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if(!enabled) {
+			return;
+		}
+		try {
+			reconcile();
+		} catch(DataAccessException | MongoException e) {
+			//The application can still serve requests without the indexes, only slower
+			log.warn("Could not reconcile indexes of the {} collections: {}", ProductIndexes.COLLECTION, e.getMessage());
+			if(check) {
+				throw e;
+			}
+			return;
+		}
+
+		if(check) {
+			List<String> collectionScans = indexVerifier.findCollectionScans();
+			if(!collectionScans.isEmpty()) {
+				throw new IllegalStateException("Query shapes without a supporting index: " + collectionScans);
+			}
+		}
+	}
+
+	//Bring the indexes in the database in line with ProductIndexes and return the names of the indexes that were changed
+	public List<String> reconcile() {
+		List<String> changed = reconcile(ProductIndexes.COLLECTION, ProductIndexes.all(naturalKey, uniqueNaturalKey));
+		changed.addAll(reconcile(ProductIndexes.RATINGS_COLLECTION, ProductIndexes.ratingBuckets()));
+		return changed;
+	}
+
+	private List<String> reconcile(String collection, List<IndexDefinition> declared) {
+		IndexOperations indexOps = mongoTemplate.indexOps(collection);
+		List<String> changed = new ArrayList<String>();
+
+		//Existing indexes by name, read from the database as raw documents so that all the options can be compared
+		Map<String, Document> existing = new HashMap<String, Document>();
+		for(Document index : mongoTemplate.getCollection(collection).listIndexes()) {
+			existing.put(index.getString("name"), index);
+		}
+
+		List<String> declaredNames = new ArrayList<String>();
+		for(IndexDefinition definition : declared) {
+			String name = definition.getIndexOptions().getString("name");
+			declaredNames.add(name);
+			Document current = existing.get(name);
+
+			if(current != null && matches(current, definition)) {
+				continue;
+			}
+			if(current != null) {
+				log.info("Rebuilding index {} of {} because its keys or options changed", name, collection);
+				indexOps.dropIndex(name);
+			}
+			try {
+				indexOps.ensureIndex(definition);
+			} catch(DataAccessException | MongoException e) {
+				//e.g. a unique index over duplicate values. The other indexes are still created
+				log.warn("Could not create index {} of {}: {}", name, collection, e.getMessage());
+				continue;
+			}
+			changed.add(name);
+		}
+
+		for(String name : existing.keySet()) {
+			if(name.equals("_id_") || declaredNames.contains(name)) {
+				continue;
+			}
+			if(ProductIndexes.OBSOLETE.contains(name) || dropUnknown) {
+				log.info("Dropping index {} of {} which is not declared in ProductIndexes", name, collection);
+				indexOps.dropIndex(name);
+				changed.add(name);
+			}
+		}
+		return changed;
+	}
+
+	//Compare an index from listIndexes with its declaration. Key order matters for compound indexes.
+	private static boolean matches(Document current, IndexDefinition definition) {
+		Document currentKeys = (Document) current.get("key");
+		Document declaredKeys = definition.getIndexKeys();
+		Document declaredOptions = definition.getIndexOptions();
+		if(currentKeys.containsKey("_fts")) {
+			if(!sameTextFields(current, declaredKeys, declaredOptions)) {
+				return false;
+			}
+		} else {
+			if(!new ArrayList<Object>(currentKeys.keySet()).equals(new ArrayList<Object>(declaredKeys.keySet()))) {
+				return false;
+			}
+			for(String field : declaredKeys.keySet()) {
+				if(!sameValue(currentKeys.get(field), declaredKeys.get(field))) {
+					return false;
+				}
+			}
+		}
+
+		for(String option : COMPARED_OPTIONS) {
+			if(option.equals("weights") && currentKeys.containsKey("_fts")) {
+				continue;
+			}
+			if(!sameValue(current.get(option), declaredOptions.get(option))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*A text index is listed with the keys {_fts: "text", _ftsx: 1}, and its fields are the keys of its weights.
+	 * The declaration only has the weights that are not 1, so the other text fields are compared with weight 1.
+	 */
+	private static boolean sameTextFields(Document current, Document declaredKeys, Document declaredOptions) {
+		Document currentWeights = current.get("weights", new Document());
+		Document declaredWeights = declaredOptions.get("weights", new Document());
+		int textFields = 0;
+		for(String field : declaredKeys.keySet()) {
+			if(!"text".equals(declaredKeys.get(field))) {
+				return false;
+			}
+			textFields++;
+			if(!sameValue(currentWeights.get(field), declaredWeights.getOrDefault(field, 1))) {
+				return false;
+			}
+		}
+		return currentWeights.size() == textFields;
+	}
+
+	//listIndexes can return numbers as Integer, Long or Double, so numbers are compared by value
+	private static boolean sameValue(Object a, Object b) {
+		if(a instanceof Number && b instanceof Number) {
+			return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+		}
+		if((Boolean.FALSE.equals(a) && b == null) || (a == null && Boolean.FALSE.equals(b))) {
+			return true;
+		}
+		return Objects.equals(a, b);
+	}
+}
@@ -0,0 +1,163 @@
+package com.leadtorev.product.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.leadtorev.product.service.ProductCursor;
+import com.leadtorev.product.service.ProductQueryBuilder;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.FindIterable;
+
+/**Runs explain on a sample of every query shape issued by ProductRepository, ProductService and ProductRatingStore
+ * and reports the shapes whose winning plan contains a COLLSCAN stage.
+ * The sample values do not have to exist in the collection; the query planner picks the
+ * same plan for any value of the same shape.
+ */
+@Component
+public class ProductIndexVerifier {
+
+	private final MongoTemplate mongoTemplate;
+	private final ProductQueryBuilder productQueryBuilder;
+	private final String naturalKey;
+
+	public ProductIndexVerifier(MongoTemplate mongoTemplate, ProductQueryBuilder productQueryBuilder,
+			@Value("${products.import.natural-key:name}") String naturalKey) {
+		this.mongoTemplate = mongoTemplate;
+		this.productQueryBuilder = productQueryBuilder;
+		this.naturalKey = naturalKey;
+	}
+
+	//Sample of each query shape by a readable description
+	public Map<String, Query> queryShapes() {
+		Map<String, Query> shapes = new LinkedHashMap<String, Query>();
+		Pageable page = PageRequest.of(1, 10);
+
+		//ProductRepository derived queries
+		shapes.put("findByName", new Query(Criteria.where("name").is("Product 1")).with(page));
+		shapes.put("findByCategories", new Query(Criteria.where("categories").is("Category A")).with(page));
+		shapes.put("findByAttributes", new Query(Criteria.where("attributes")
+				.elemMatch(Criteria.where("k").is("size").and("v").is("Small"))).with(page));
+
+		//ProductService.searchProducts
+		shapes.put("search by name", productQueryBuilder.build(
+				new ProductSearchCriteria("Product 1", null, null), page));
+		shapes.put("search by categories", productQueryBuilder.build(
+				new ProductSearchCriteria(null, List.of("Category A", "Category B"), null), page));
+		shapes.put("search by attributes", productQueryBuilder.build(
+				new ProductSearchCriteria(null, null, List.of(Map.of("size", "Small"), Map.of("color", "Red"))), page));
+		shapes.put("search by all criteria", productQueryBuilder.build(
+				new ProductSearchCriteria("Product 1", List.of("Category A"), List.of(Map.of("size", "Small"))), page));
+		ProductSearchCriteria text = new ProductSearchCriteria(null, List.of("Category A"), null);
+		text.setText("wireless phone");
+		shapes.put("search by text and categories", productQueryBuilder.build(text, page));
+		ProductSearchCriteria prefix = new ProductSearchCriteria(null, null, null);
+		prefix.setPrefix("smart ph");
+		shapes.put("search by prefix", productQueryBuilder.build(prefix, page));
+		ProductSearchCriteria cheapest = new ProductSearchCriteria(null, List.of("Category A"), null);
+		cheapest.setInStock(true);
+		cheapest.setSort("price");
+		cheapest.setTop(10);
+		shapes.put("top cheapest in stock of a category", productQueryBuilder.build(cheapest, page));
+		ProductSearchCriteria priceRange = new ProductSearchCriteria(null, null, null);
+		priceRange.setMinPrice(10.0);
+		priceRange.setMaxPrice(50.0);
+		priceRange.setSort("-averageRating");
+		shapes.put("search by price range best rated first", productQueryBuilder.build(priceRange, page));
+
+		//ProductService.getAllProducts after a cursor
+		ProductCursor byPrice = ProductCursor.start("price").after(sample(19.99, "Product 1"));
+		shapes.put("all-products by price", new Query(byPrice.toCriteria()).with(byPrice.toSort()).limit(51));
+		ProductCursor byName = ProductCursor.start("-name").after(sample(19.99, "Product 1"));
+		shapes.put("all-products by name descending", new Query(byName.toCriteria()).with(byName.toSort()).limit(51));
+		ProductCursor afterNoName = ProductCursor.start("name").after(sample(19.99, null));
+		shapes.put("all-products by name after a product without name",
+				new Query(afterNoName.toCriteria()).with(afterNoName.toSort()).limit(51));
+
+		//ProductImporter delta import, stored hashes of a batch
+		shapes.put("delta import lookup by " + naturalKey,
+				new Query(Criteria.where(naturalKey).in(List.of("Product 1", "Product 2"))));
+		return shapes;
+	}
+
+	//Sample of each query shape of ProductRatingStore on the ratings collection
+	public Map<String, Query> ratingQueryShapes() {
+		Map<String, Query> shapes = new LinkedHashMap<String, Query>();
+		shapes.put("open rating bucket", new Query(Criteria.where("productId").is("p1").and("count").lt(100)));
+		shapes.put("rating bucket counts", new Query(Criteria.where("productId").is("p1")).with(Sort.by("_id")));
+		shapes.put("rating of a user", new Query(Criteria.where("productId").is("p1").and("ratings.userId").is("user1")));
+		return shapes;
+	}
+
+	private static Product sample(double price, String name) {
+		Product product = new Product();
+		product.setId(new ObjectId().toHexString());
+		product.setPrice(price);
+		product.setName(name);
+		return product;
+	}
+
+	//Explain every query shape and return the descriptions of the shapes that scan the whole collection
+	public List<String> findCollectionScans() {
+		List<String> collectionScans = new ArrayList<String>();
+		for(Map.Entry<String, Query> shape : queryShapes().entrySet()) {
+			if(containsStage(explain(ProductIndexes.COLLECTION, shape.getValue()), "COLLSCAN")) {
+				collectionScans.add(shape.getKey());
+			}
+		}
+		for(Map.Entry<String, Query> shape : ratingQueryShapes().entrySet()) {
+			if(containsStage(explain(ProductIndexes.RATINGS_COLLECTION, shape.getValue()), "COLLSCAN")) {
+				collectionScans.add(shape.getKey());
+			}
+		}
+		return collectionScans;
+	}
+
+	//Return the winning plan of the query as chosen by the query planner
+	public Document explain(String collection, Query query) {
+		FindIterable<Document> find = mongoTemplate.getCollection(collection)
+				.find(query.getQueryObject())
+				.sort(query.getSortObject())
+				.skip((int) query.getSkip())
+				.limit(query.getLimit());
+		Document explain = find.explain(ExplainVerbosity.QUERY_PLANNER);
+		Document queryPlanner = (Document) explain.get("queryPlanner");
+		return (Document) queryPlanner.get("winningPlan");
+	}
+
+	//Walk the plan tree (inputStage, inputStages, queryPlan) looking for the given stage
+	static boolean containsStage(Object plan, String stage) {
+		if(plan instanceof Document) {
+			Document document = (Document) plan;
+			if(stage.equals(document.get("stage"))) {
+				return true;
+			}
+			for(Object value : document.values()) {
+				if(containsStage(value, stage)) {
+					return true;
+				}
+			}
+		} else if(plan instanceof List) {
+			for(Object value : (List<?>) plan) {
+				if(containsStage(value, stage)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
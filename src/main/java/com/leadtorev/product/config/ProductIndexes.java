@@ -0,0 +1,102 @@
+package com.leadtorev.product.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition.TextIndexDefinitionBuilder;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**Declares every index of the "products" and "product_ratings" collections in one place.
+ * Each index is named so that ProductIndexManager can compare what is declared here with what
+ * is present in the database and create, rebuild or drop indexes accordingly.
+ * When a new query shape is added to ProductService or ProductRepository, the index that serves it
+ * is added here and a sample of the shape is added to ProductIndexVerifier.
+ */
+public final class ProductIndexes {
+
+	public static final String COLLECTION = "products";
+
+	//Ratings of the products, in buckets of a fixed number of ratings, see ProductRatingStore
+	public static final String RATINGS_COLLECTION = "product_ratings";
+
+	/*Indexes created by earlier versions of the application that are no longer wanted.
+	 * "ratings.userId" was created from @Indexed(unique = true) on Ratings.userId and stops the
+	 * same user from rating two different products.
+	 * "attributes_1__id_1" indexed the attributes as whole {key: value} documents, before the {k, v} pairs.
+	 */
+	public static final List<String> OBSOLETE = List.of("ratings.userId", "attributes_1__id_1");
+
+	private ProductIndexes() {
+	}
+
+	/*naturalKey is the field delta imports match products on (products.import.natural-key) and uniqueNaturalKey
+	 * whether two products may have the same natural key (products.import.unique-natural-key)
+	 */
+	public static List<IndexDefinition> all(String naturalKey, boolean uniqueNaturalKey) {
+		List<IndexDefinition> indexes = new ArrayList<IndexDefinition>(List.of(
+				//findByName, search by name and all-products sorted on name.
+				//_id is included so that pages sorted on the field and _id are served from the index
+				new Index().on("name", Direction.ASC).on("_id", Direction.ASC).named("name_1__id_1"),
+
+				//findByCategories and search by categories ($in). Multikey index on the categories array
+				new Index().on("categories", Direction.ASC).on("_id", Direction.ASC).named("categories_1__id_1"),
+
+				//findByAttributes and search by attributes ($all of $elemMatch on k and v). Multikey index on the
+				//{k, v} pairs, so the bounds of k and v of one $elemMatch are combined on the same pair
+				new Index().on("attributes.k", Direction.ASC).on("attributes.v", Direction.ASC).on("_id", Direction.ASC)
+						.named("attributes.k_1_attributes.v_1__id_1"),
+
+				//all-products sorted on price, read after a cursor on (price, _id), and searches by price range
+				//or sorted on price
+				new Index().on("price", Direction.ASC).on("_id", Direction.ASC).named("price_1__id_1"),
+
+				//searches sorted on averageRating, best rated first is a backward scan
+				new Index().on("averageRating", Direction.ASC).on("_id", Direction.ASC).named("averageRating_1__id_1"),
+
+				//in stock searches sorted on price or by price range: equality, then sort and range on price
+				new Index().on("availability.inStock", Direction.ASC).on("price", Direction.ASC).on("_id", Direction.ASC)
+						.named("availability.inStock_1_price_1__id_1"),
+
+				//the same within categories, e.g. the top 10 cheapest in stock products of a category,
+				//which reads only the first 10 entries of the index
+				new Index().on("categories", Direction.ASC).on("availability.inStock", Direction.ASC)
+						.on("price", Direction.ASC).on("_id", Direction.ASC)
+						.named("categories_1_availability.inStock_1_price_1__id_1"),
+
+				//search by text. A collection can only have one text index, so it covers both fields, with
+				//matches in the name ranked higher. The language is declared so that the index compares
+				//equal to the one listed by the server.
+				new TextIndexDefinitionBuilder().onField("name", 3F).onField("description", 1F)
+						.withDefaultLanguage("english").withLanguageOverride("language")
+						.named("name_text_description_text").build(),
+
+				//search by prefix, an anchored regex on the words of the name. Multikey index on the tokens array
+				new Index().on("nameTokens", Direction.ASC).on("_id", Direction.ASC).named("nameTokens_1__id_1")));
+
+		/*Delta imports look up the stored _id and content hash by natural key. A name key is served by name_1__id_1.
+		 * With a unique index two upserts of the same new key cannot both insert, the server retries the one that
+		 * loses as an update. Products without the key are left out of the index, so they do not collide on null.
+		 */
+		if(uniqueNaturalKey) {
+			indexes.add(new Index().on(naturalKey, Direction.ASC).unique()
+					.partial(PartialIndexFilter.of(Criteria.where(naturalKey).exists(true))).named(naturalKey + "_1"));
+		} else if(!naturalKey.equals("name")) {
+			indexes.add(new Index().on(naturalKey, Direction.ASC).on("_id", Direction.ASC).named(naturalKey + "_1__id_1"));
+		}
+		return indexes;
+	}
+
+	public static List<IndexDefinition> ratingBuckets() {
+		return List.of(
+				//Buckets of a product in insertion order, for the ratings pages and the open bucket of a new rating
+				new Index().on("productId", Direction.ASC).on("_id", Direction.ASC).named("productId_1__id_1"),
+
+				//The bucket with the rating of a user, to change it. Multikey index on the ratings array
+				new Index().on("productId", Direction.ASC).on("ratings.userId", Direction.ASC)
+						.named("productId_1_ratings.userId_1"));
+	}
+}
@@ -0,0 +1,323 @@
+package com.leadtorev.product.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.entity.SlowQuery;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import jakarta.annotation.PreDestroy;
+
+/**Records the MongoDB queries that take longer than products.profiler.slow-threshold, by query shape.
+ * 1.Every find, aggregate, count, distinct, findAndModify, update and delete sent by MongoTemplate or a repository
+ *   is timed by the driver. The command is copied when it starts, without the session and cluster fields, because
+ *   the driver reuses the buffer of the command after the event.
+ * 2.A slow command is added to the statistics of its shape: the command with every value replaced by "?".
+ *   Sort, projection and hint are kept as they are, since they change the plan.
+ * 3.The first slow execution of a shape, and then a sample of products.profiler.explain-sample-rate of them,
+ *   is explained with executionStats on a background thread, for the plan and the keys and documents examined.
+ *   Explains run one at a time and are dropped when too many are waiting, so a slow database is not loaded further.
+ * At most products.profiler.max-shapes shapes are kept; slow executions of other shapes are then only counted.
+ */
+@Component
+@ConditionalOnProperty(name = "products.profiler.enabled", havingValue = "true", matchIfMissing = true)
+public class SlowQueryProfiler implements CommandListener, MongoClientSettingsBuilderCustomizer {
+
+	private static final Logger log = LoggerFactory.getLogger(SlowQueryProfiler.class);
+
+	static final Set<String> PROFILED_COMMANDS = Set.of("find", "aggregate", "count", "distinct", "findAndModify",
+			"update", "delete");
+
+	//Fields of a command that are not part of the query, and that explain does not accept
+	private static final Set<String> SESSION_FIELDS = Set.of("lsid", "txnNumber", "autocommit", "startTransaction",
+			"readConcern", "writeConcern", "apiVersion", "apiStrict", "apiDeprecationErrors", "maxTimeMS", "comment");
+
+	//Fields of a shape that are kept with their values
+	private static final Set<String> PLAN_FIELDS = Set.of("sort", "projection", "fields", "hint", "key", "$sort", "$project");
+
+	//A command that was started, with what is needed to profile it when it turns out to be slow
+	private record Started(String command, String collection, String database, BsonDocument explainable) {
+	}
+
+	private final ObjectProvider<MongoTemplate> mongoTemplate;
+	private final long thresholdNanos;
+	private final double explainSampleRate;
+	private final int maxShapes;
+	private final Map<Integer, Started> started = new ConcurrentHashMap<Integer, Started>();
+	private final Map<String, SlowQuery> shapes = new ConcurrentHashMap<String, SlowQuery>();
+	private final Set<String> explaining = ConcurrentHashMap.newKeySet();
+	private final ThreadPoolExecutor explainExecutor;
+
+	public SlowQueryProfiler(ObjectProvider<MongoTemplate> mongoTemplate,
+			@Value("${products.profiler.slow-threshold:100ms}") Duration threshold,
+			@Value("${products.profiler.explain-sample-rate:0.1}") double explainSampleRate,
+			@Value("${products.profiler.max-shapes:1000}") int maxShapes) {
+		this.mongoTemplate = mongoTemplate;
+		this.thresholdNanos = threshold.toNanos();
+		this.explainSampleRate = explainSampleRate;
+		this.maxShapes = maxShapes;
+		this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(100), runnable -> {
+					Thread thread = new Thread(runnable, "slow-query-explain");
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	@Override
+	public void customize(MongoClientSettings.Builder settings) {
+		settings.addCommandListener(this);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		explainExecutor.shutdownNow();
+	}
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		if(!PROFILED_COMMANDS.contains(event.getCommandName())) {
+			return;
+		}
+		String collection = MongoCommandMetrics.collectionOf(event.getCommandName(), event.getCommand());
+		if(collection != null) {
+			started.put(event.getRequestId(), new Started(event.getCommandName(), collection, event.getDatabaseName(),
+					explainable(event.getCommandName(), event.getCommand())));
+		}
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		Started command = started.remove(event.getRequestId());
+		long elapsed = event.getElapsedTime(TimeUnit.NANOSECONDS);
+		if(command == null || elapsed < thresholdNanos) {
+			return;
+		}
+		String shape = shapeOf(command.explainable()).toJson();
+		String key = command.command() + " " + command.collection() + " " + shape;
+		SlowQuery slowQuery = shapes.get(key);
+		if(slowQuery == null) {
+			if(shapes.size() >= maxShapes) {
+				return;
+			}
+			slowQuery = shapes.computeIfAbsent(key, k -> new SlowQuery(command.command(), command.collection(), shape));
+		}
+		slowQuery.record(elapsed / 1_000_000.0, MongoCommandMetrics.documentCount(command.command(), event.getResponse()));
+
+		boolean sampled = slowQuery.getExplainedAt() == null || ThreadLocalRandom.current().nextDouble() < explainSampleRate;
+		if(sampled && explaining.add(key)) {
+			SlowQuery explained = slowQuery;
+			explainExecutor.execute(() -> {
+				try {
+					explain(command, explained);
+				} catch(RuntimeException e) {
+					log.warn("Explain of slow query {} failed: {}", key, e.getMessage());
+				} finally {
+					explaining.remove(key);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		started.remove(event.getRequestId());
+	}
+
+	//The slowest shapes first, by their slowest execution
+	public List<SlowQuery> top(int count) {
+		List<SlowQuery> slowest = new ArrayList<SlowQuery>();
+		for(SlowQuery slowQuery : shapes.values()) {
+			slowest.add(slowQuery.copy());
+		}
+		slowest.sort(Comparator.comparingDouble(SlowQuery::getMaxMillis).reversed());
+		return slowest.subList(0, Math.min(count, slowest.size()));
+	}
+
+	public void clear() {
+		shapes.clear();
+	}
+
+	private void explain(Started command, SlowQuery slowQuery) {
+		MongoTemplate template = mongoTemplate.getIfAvailable();
+		if(template == null) {
+			return;
+		}
+		Document explain = template.getMongoDatabaseFactory().getMongoDatabase(command.database())
+				.runCommand(new BsonDocument("explain", command.explainable())
+						.append("verbosity", new BsonString("executionStats")));
+		Document executionStats = find(explain, "executionStats");
+		slowQuery.setExplain(planSummary(explain),
+				executionStats != null ? longValue(executionStats.get("totalKeysExamined")) : null,
+				executionStats != null ? longValue(executionStats.get("totalDocsExamined")) : null,
+				executionStats != null ? longValue(executionStats.get("nReturned")) : null);
+	}
+
+	/*A copy of the command that can be sent again inside an explain. Of a batch of updates or deletes only the
+	 * first statement is kept, since explain takes one statement and the statements of a batch have the same shape.
+	 */
+	static BsonDocument explainable(String commandName, BsonDocument command) {
+		BsonDocument copy = new BsonDocument();
+		for(Map.Entry<String, BsonValue> field : command.entrySet()) {
+			String name = field.getKey();
+			if(name.startsWith("$") || SESSION_FIELDS.contains(name)) {
+				continue;
+			}
+			BsonValue value = field.getValue();
+			if((name.equals("updates") || name.equals("deletes")) && value.isArray() && !value.asArray().isEmpty()) {
+				value = new BsonArray(List.of(value.asArray().get(0)));
+			}
+			copy.put(name, copyOf(value));
+		}
+		return copy;
+	}
+
+	private static BsonValue copyOf(BsonValue value) {
+		if(value.isDocument()) {
+			return value.asDocument().clone();
+		}
+		if(value.isArray()) {
+			return value.asArray().clone();
+		}
+		return value;
+	}
+
+	/*The shape of a command: every value is replaced by "?", and an array of values by a single "?", so that
+	 * {price: {$in: [1, 2]}} and {price: {$in: [3]}} have the same shape. Documents in arrays, like the stages
+	 * of a pipeline or the conditions of an $and, keep their own shapes.
+	 */
+	static BsonDocument shapeOf(BsonDocument command) {
+		BsonDocument shape = new BsonDocument();
+		for(Map.Entry<String, BsonValue> field : command.entrySet()) {
+			String name = field.getKey();
+			if(name.equals("batchSize") || name.equals("cursor") || name.equals("singleBatch")) {
+				continue;
+			}
+			shape.put(name, PLAN_FIELDS.contains(name) || name.equals(command.getFirstKey())
+					? field.getValue() : shapeOfValue(field.getValue()));
+		}
+		return shape;
+	}
+
+	private static BsonValue shapeOfValue(BsonValue value) {
+		if(value.isDocument()) {
+			BsonDocument shape = new BsonDocument();
+			for(Map.Entry<String, BsonValue> field : value.asDocument().entrySet()) {
+				shape.put(field.getKey(), PLAN_FIELDS.contains(field.getKey())
+						? field.getValue() : shapeOfValue(field.getValue()));
+			}
+			return shape;
+		}
+		if(value.isArray()) {
+			BsonArray shape = new BsonArray();
+			boolean values = false;
+			for(BsonValue element : value.asArray()) {
+				if(element.isDocument() || element.isArray()) {
+					shape.add(shapeOfValue(element));
+				} else if(!values) {
+					shape.add(new BsonString("?"));
+					values = true;
+				}
+			}
+			return shape.size() == 1 && values ? shape.get(0) : shape;
+		}
+		return new BsonString("?");
+	}
+
+	/*The stages of the winning plan from the last stage to the first, e.g. "LIMIT < FETCH < IXSCAN price_1__id_1".
+	 * Plans of the slot based engine are under winningPlan.queryPlan.
+	 */
+	static String planSummary(Document explain) {
+		Document queryPlanner = find(explain, "queryPlanner");
+		if(queryPlanner == null || !(queryPlanner.get("winningPlan") instanceof Document)) {
+			return null;
+		}
+		Document plan = (Document) queryPlanner.get("winningPlan");
+		if(plan.get("queryPlan") instanceof Document) {
+			plan = (Document) plan.get("queryPlan");
+		}
+		StringBuilder summary = new StringBuilder();
+		appendStages(plan, summary);
+		return summary.toString();
+	}
+
+	private static void appendStages(Document stage, StringBuilder summary) {
+		if(summary.length() > 0) {
+			summary.append(" < ");
+		}
+		summary.append(stage.getString("stage"));
+		if(stage.get("indexName") != null) {
+			summary.append(' ').append(stage.get("indexName"));
+		}
+		if(stage.get("inputStage") instanceof Document) {
+			appendStages((Document) stage.get("inputStage"), summary);
+		} else if(stage.get("inputStages") instanceof List) {
+			summary.append(" < [");
+			int length = summary.length();
+			for(Object input : (List<?>) stage.get("inputStages")) {
+				if(summary.length() > length) {
+					summary.append(", ");
+				}
+				StringBuilder branch = new StringBuilder();
+				appendStages((Document) input, branch);
+				summary.append(branch);
+			}
+			summary.append(']');
+		}
+	}
+
+	//The first document with the given name, searched depth first. Explains of pipelines nest the query under a stage.
+	private static Document find(Object value, String name) {
+		if(value instanceof Document) {
+			Document document = (Document) value;
+			if(document.get(name) instanceof Document) {
+				return (Document) document.get(name);
+			}
+			for(Object child : document.values()) {
+				Document found = find(child, name);
+				if(found != null) {
+					return found;
+				}
+			}
+		} else if(value instanceof List) {
+			for(Object child : (List<?>) value) {
+				Document found = find(child, name);
+				if(found != null) {
+					return found;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Long longValue(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : null;
+	}
+}
@@ -0,0 +1,47 @@
+package com.leadtorev.product.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.leadtorev.product.config.SlowQueryProfiler;
+import com.leadtorev.product.entity.SlowQuery;
+
+//Control class for the diagnostics of the application. It is served by the servlet and the reactive stack.
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+	private final ObjectProvider<SlowQueryProfiler> slowQueryProfiler;
+
+	public AdminController(ObjectProvider<SlowQueryProfiler> slowQueryProfiler) {
+		this.slowQueryProfiler = slowQueryProfiler;
+	}
+
+	//The top query shapes slower than products.profiler.slow-threshold, slowest first
+	@GetMapping("/slow-queries")
+	public ResponseEntity<List<SlowQuery>> slowQueries(@RequestParam(value = "top", defaultValue = "10") int top) {
+		SlowQueryProfiler profiler = slowQueryProfiler.getIfAvailable();
+		if(profiler == null) {//If the profiler is disabled
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(profiler.top(Math.max(top, 0)));
+	}
+
+	//Forget the recorded shapes, e.g. after adding an index
+	@DeleteMapping("/slow-queries")
+	public ResponseEntity<Void> clearSlowQueries() {
+		SlowQueryProfiler profiler = slowQueryProfiler.getIfAvailable();
+		if(profiler == null) {
+			return ResponseEntity.notFound().build();
+		}
+		profiler.clear();
+		return ResponseEntity.noContent().build();
+	}
+}
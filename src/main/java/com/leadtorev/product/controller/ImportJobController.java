@@ -0,0 +1,70 @@
+package com.leadtorev.product.controller;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.leadtorev.product.entity.ImportJob;
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.service.ImportJobService;
+
+//Control class for json imports that run in the background
+@RestController
+@RequestMapping("/products/import-jobs")
+@Profile("!reactive")
+public class ImportJobController {
+
+	@Autowired
+	private ImportJobService importJobService;
+
+	//Submit a json file for import. Responds straight away with the job, the import runs in the background.
+	@PostMapping
+	public ResponseEntity<?> submitJob(@RequestParam("file") MultipartFile file,
+			@RequestParam(value = "mode", defaultValue = "INSERT") ImportMode mode,
+			@RequestParam(value = "deleteMissing", defaultValue = "false") boolean deleteMissing) {
+		if(file.isEmpty()) {//If file is empty
+			return ResponseEntity.badRequest().body("Please upload a file.");
+		}
+		try {
+			ImportJob job = importJobService.submit(file, mode, deleteMissing);
+			return ResponseEntity.accepted()
+					.location(URI.create("/products/import-jobs/" + job.getId()))
+					.body(job);
+		} catch(IOException e) {
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body("Error saving the file: " + e.getMessage());
+		}
+	}
+
+	//Progress of a job: status, committed batches, counts, errors and rows per second
+	@GetMapping("/{jobId}")
+	public ResponseEntity<ImportJob> getJob(@PathVariable String jobId) {
+		return ResponseEntity.of(importJobService.getJob(jobId));
+	}
+
+	//Resume a failed job from its last committed batch
+	@PostMapping("/{jobId}/resume")
+	public ResponseEntity<?> resumeJob(@PathVariable String jobId) {
+		try {
+			Optional<ImportJob> job = importJobService.resume(jobId);
+			if(job.isEmpty()) {
+				return ResponseEntity.notFound().build();
+			}
+			return ResponseEntity.accepted().body(job.get());
+		} catch(IllegalStateException e) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+		}
+	}
+}
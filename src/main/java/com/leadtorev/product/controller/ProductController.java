@@ -1,37 +1,57 @@
 package com.leadtorev.product.controller;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
 import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.ImportResult;
 import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductRating;
 import com.leadtorev.product.entity.ProductSearchCriteria;
 import com.leadtorev.product.entity.Ratings;
 import com.leadtorev.product.repository.ProductRepository;
+import com.leadtorev.product.service.ProductCache;
+import com.leadtorev.product.service.ProductFacets;
+import com.leadtorev.product.service.ProductProjection;
+import com.leadtorev.product.service.ProductSearchCache;
 import com.leadtorev.product.service.ProductService;
+import com.leadtorev.product.service.ProductVersions;
 
 //Control class to create API endpoints and serve up request and response
+//The reactive profile serves these routes with ReactiveProductController instead
 @RestController
 @RequestMapping("/products")
+@Profile("!reactive")
 public class ProductController {
 	
+	private static final String NDJSON = "application/x-ndjson";
 	
 	@Autowired
 	private ProductService productService;
@@ -39,6 +59,15 @@ public class ProductController {
 	@Autowired
 	private ProductRepository productRepository;
 	
+	@Autowired
+	private ProductCache productCache;
+	
+	@Autowired
+	private ProductSearchCache productSearchCache;
+	
+	@Autowired
+	private ProductFacets productFacets;
+	
 	//Testing the rest Server
 	@GetMapping("/hello")
 	public ResponseEntity<String> helloWorld() {
@@ -49,33 +78,136 @@ public class ProductController {
 				.body(message);
 	}
 	
-	//To find all the products
+	//To find all the products, one page at a time
+	//The next page is requested with the cursor returned in the X-Next-Cursor header
 	@GetMapping("/all-products")
-	public ResponseEntity<List<Product>> findAllProducts(
+	public ResponseEntity<?> findAllProducts(
+			@RequestParam(value = "cursor", required = false) String cursor,
 			@RequestParam(value= "pageNumber", required = false) Integer pageNumber,
-			@RequestParam(value = "pageSize", required = false) Integer pageSize
+			@RequestParam(value = "pageSize", required = false) Integer pageSize,
+			@RequestParam(value = "sort", required = false) String sort,
+			@RequestParam(value = "fields", required = false) String fields,
+			@RequestParam(value = "view", required = false) String view
 		){
-		return productService.getAllProducts(pageNumber,pageSize);
+		try {
+			return productService.getAllProducts(cursor, pageNumber, pageSize, sort, ProductProjection.parse(fields, view));
+		} catch(IllegalArgumentException e) {
+			//Invalid cursor, sort field, fields or view
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+	
+	//To export all the products as newline-delimited json, streamed from a database cursor
+	//batchSize is the number of products read from the database and flushed to the client at a time
+	@GetMapping(value = "/export", produces = NDJSON)
+	public ResponseEntity<StreamingResponseBody> exportProducts(
+			@RequestParam(value = "batchSize", defaultValue = "${products.export.batch-size:1000}") int batchSize,
+			@RequestParam(value = "gzip", defaultValue = "false") boolean gzip){
+		
+		StreamingResponseBody body = outputStream -> {
+			if(gzip) {
+				//syncFlush, so every flushed batch reaches the client instead of waiting in the compressor
+				GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream, 64 * 1024, true);
+				productService.exportProducts(gzipStream, batchSize);
+				gzipStream.finish();
+			}
+			else {
+				productService.exportProducts(outputStream, batchSize);
+			}
+		};
+		
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON));
+		if(gzip) {
+			response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+		return response.body(body);
 	}
 	
 	//To find product using productId
+	//The response has the version of the product as ETag; with If-None-Match of that ETag it is 304 without a body
 	@GetMapping("/find-product/{productId}")
 	public ResponseEntity<Product> findProduct(@PathVariable String productId){
 		ResponseEntity<Product> prd = productService.getProduct(productId);
 		return prd;
 	}
 	
+	//To find many products by id in one request, one result per id in the order of the ids
+	@PostMapping("/find-products")
+	public ResponseEntity<?> findProducts(@RequestBody List<String> productIds){
+		try {
+			return ResponseEntity.ok(productService.getProducts(productIds));
+		} catch(IllegalArgumentException e) {
+			//More ids than products.bulk.max-items
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+	
+	//Statistics of the product and search caches: size, hits, misses, hit rate, loads and evictions
+	@GetMapping("/cache-stats")
+	public Map<String, Object> cacheStats(){
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("products", cacheStats(productCache.stats(), productCache.size()));
+		
+		Map<String, Object> searches = cacheStats(productSearchCache.stats(), productSearchCache.size());
+		searches.put("catalogVersion", productSearchCache.getCatalogVersion());
+		body.put("searches", searches);
+		return body;
+	}
+	
+	private static Map<String, Object> cacheStats(CacheStats stats, long size){
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("size", size);
+		body.put("hitCount", stats.hitCount());
+		body.put("missCount", stats.missCount());
+		body.put("hitRate", stats.hitRate());
+		body.put("loadCount", stats.loadCount());
+		body.put("averageLoadPenaltyMillis", stats.averageLoadPenalty() / 1_000_000);
+		body.put("evictionCount", stats.evictionCount());
+		return body;
+	}
+	
 	//To find products according to given criteria
+	//fields and view select the fields of the returned products
 	@GetMapping("/search")
-	public ResponseEntity<List<Product>> searchProducts(@RequestBody ProductSearchCriteria criteria, 
+	public ResponseEntity<?> searchProducts(@RequestBody ProductSearchCriteria criteria, 
 			@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
-			@RequestParam(value = "pageSize",required = false) Integer pageSize){
-		List<Product> searchProducts = productService.searchProducts(criteria,pageNumber, pageSize);
+			@RequestParam(value = "pageSize",required = false) Integer pageSize,
+			@RequestParam(value = "fields", required = false) String fields,
+			@RequestParam(value = "view", required = false) String view){
+		List<?> searchProducts;
+		try {
+			ProductProjection projection = ProductProjection.parse(fields, view);
+			//Unknown sort fields and empty ranges are rejected when the query is built
+			searchProducts = productService.searchProducts(criteria,pageNumber, pageSize, projection);
+		} catch(IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
 		return ResponseEntity.status(HttpStatus.OK)
 				.header("Content-Type", "application/json")
 				.body(searchProducts);
 	}
 	
+	//One page of the products matching the criteria, with their counts per category, attribute value and price range
+	//facets selects the facets and priceBoundaries the lower bounds of the price ranges
+	@GetMapping("/search/facets")
+	public ResponseEntity<?> searchFacets(@RequestBody ProductSearchCriteria criteria, 
+			@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
+			@RequestParam(value = "pageSize",required = false) Integer pageSize,
+			@RequestParam(value = "fields", required = false) String fields,
+			@RequestParam(value = "view", required = false) String view,
+			@RequestParam(value = "facets", required = false) String facets,
+			@RequestParam(value = "priceBoundaries", required = false) String priceBoundaries){
+		try {
+			ProductProjection projection = ProductProjection.parse(fields, view);
+			return ResponseEntity.ok(productFacets.search(criteria, pageNumber, pageSize, projection, facets, priceBoundaries));
+		} catch(IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		} catch(QueryTimeoutException e) {
+			//The search matches too many products to count them within the time budget
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+		}
+	}
+	
 	//Adds a single product document to the collection
 	@PostMapping("/add-product")
 	public ResponseEntity<String> addProduct(@RequestBody Product product){
@@ -87,12 +219,26 @@ public class ProductController {
 	
 
 	//Modify the product document in mongodb
+	//With If-Match the product is only updated if its ETag is one of the given ones, else 412 Precondition Failed
+	//The response has the ETag of the new version
 	@PutMapping("/update-product/{productId}")
-	public ResponseEntity<String> updateProduct(@PathVariable String productId,@RequestBody Product product){
-		String message = productService.updateRecord(productId, product);
-		return ResponseEntity.status(HttpStatus.ACCEPTED)
-				.header("Content-Type", "application/json")
-				.body(message);
+	public ResponseEntity<String> updateProduct(@PathVariable String productId,@RequestBody Product product,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch){
+		try {
+			return productService.updateRecord(productId, product, ProductVersions.parseIfMatch(ifMatch));
+		} catch(OptimisticLockingFailureException e) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(e.getMessage());
+		}
+	}
+	
+	//Modify many product documents in one request, each product with its id and the fields to change
+	@PutMapping("/update-products")
+	public ResponseEntity<?> updateProducts(@RequestBody List<Product> products){
+		try {
+			return ResponseEntity.ok(productService.updateRecords(products));
+		} catch(IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
 	}
 	
 	//Delete product document in mongodb
@@ -123,36 +269,62 @@ public class ProductController {
 		return new ResponseEntity<>(updatedProduct, HttpStatus.OK);
 	}
 	
+	//Add many ratings of any products in one request, one result per rating
+	@PostMapping("/add-ratings")
+	public ResponseEntity<?> rateProducts(@RequestBody List<ProductRating> ratings){
+		try {
+			return ResponseEntity.ok(productService.rateProducts(ratings));
+		} catch(IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+	}
+	
+	//Ratings of a product, one page at a time in the order they were added
+	@GetMapping("/{productId}/ratings")
+	public ResponseEntity<List<Ratings>> getRatings(@PathVariable String productId,
+			@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
+			@RequestParam(value = "pageSize", required = false) Integer pageSize){
+		return ResponseEntity.ok(productService.getRatings(productId, pageNumber, pageSize));
+	}
+	
 	@PutMapping("/{productId}/{userId}/update-rates")
-	public ResponseEntity<Product> updateRate(@PathVariable  String productId,@PathVariable String userId, @RequestParam int newRating){
+	public ResponseEntity<Product> updateRate(@PathVariable  String productId,@PathVariable String userId, @RequestParam int newRating,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch){
 		//calling and setting parameters of the rateProduct method of service class to updated ratings
-		Product updatedProduct = productService.updateRating(productId,userId, newRating);
-		//return updated products rating as response
-		return ResponseEntity.ok(updatedProduct);
+		//With If-Match the rating is only changed if the ETag of the product is one of the given ones
+		Product updatedProduct;
+		try {
+			updatedProduct = productService.updateRating(productId,userId, newRating, ProductVersions.parseIfMatch(ifMatch));
+		} catch(OptimisticLockingFailureException e) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
+		//If there is no product of given id rated by the user
+		if(updatedProduct == null) {
+			return ResponseEntity.notFound().build();
+		}
+		//return updated products rating as response, with the ETag of its new version
+		return ResponseEntity.ok().eTag(ProductVersions.eTag(updatedProduct)).body(updatedProduct);
 	}
 	
 	//import json data from json file containing collection of product documents
+	//The uploaded file is streamed straight into the collection, and the response only contains
+	//the number of imported records, the errors and the throughput.
+	//mode=DELTA only writes new and changed products, deleteMissing=true also deletes the products missing from the file
 	@PostMapping(path = "/import-json")
-	public ResponseEntity<String> importJson(@RequestParam("file") MultipartFile file){
-		try {
-			if(file.isEmpty()) {//If file is empty
-				return ResponseEntity.badRequest().body("Please upload a file.");
-			}
-			
-			//Get the file name
-			String fileName= StringUtils.cleanPath(file.getOriginalFilename());
-			
-			//Save file to a temporary location
-			Path tempLocation = Files.createTempFile("temp-json", ".json");
-			file.transferTo(tempLocation);
-			
+	public ResponseEntity<?> importJson(@RequestParam("file") MultipartFile file,
+			@RequestParam(value = "mode", defaultValue = "INSERT") ImportMode mode,
+			@RequestParam(value = "deleteMissing", defaultValue = "false") boolean deleteMissing){
+		if(file.isEmpty()) {//If file is empty
+			return ResponseEntity.badRequest().body("Please upload a file.");
+		}
+		
+		try (InputStream inputStream = file.getInputStream()) {
 			//Process the file
-			productService.saveEntitiesFromJsonFile(tempLocation.toString());
-			
-			//Delete the temporary file
-			Files.delete(tempLocation);
+			ImportResult result = productService.saveEntitiesFromJsonFile(inputStream, mode, deleteMissing);
 			
-			return ResponseEntity.ok("Data imported Successfully.");
+			//If the file could not be read till the end, respond with bad request and the records imported so far
+			return ResponseEntity.status(result.isComplete() ? HttpStatus.OK : HttpStatus.BAD_REQUEST)
+					.body(result);
 		} catch(IOException e) {
 			//If IOexception occurs return error message response
 			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
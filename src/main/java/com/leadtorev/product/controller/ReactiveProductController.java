@@ -0,0 +1,185 @@
+package com.leadtorev.product.controller;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.leadtorev.product.entity.Ratings;
+import com.leadtorev.product.service.ProductProjection;
+import com.leadtorev.product.service.ReactiveProductService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+//Control class with the routes of ProductController on the non-blocking stack, used by the reactive profile
+@RestController
+@RequestMapping("/products")
+@Profile("reactive")
+public class ReactiveProductController {
+
+	private static final String NDJSON = "application/x-ndjson";
+
+	private final ReactiveProductService reactiveProductService;
+
+	public ReactiveProductController(ReactiveProductService reactiveProductService) {
+		this.reactiveProductService = reactiveProductService;
+	}
+
+	//Testing the rest Server
+	@GetMapping("/hello")
+	public ResponseEntity<String> helloWorld() {
+		return ResponseEntity.ok("hello world!!!");
+	}
+
+	//To find all the products, one page at a time
+	//The next page is requested with the cursor returned in the X-Next-Cursor header
+	@GetMapping(value = "/all-products", produces = MediaType.APPLICATION_JSON_VALUE)
+	public Mono<? extends ResponseEntity<?>> findAllProducts(
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
+			@RequestParam(value = "pageSize", required = false) Integer pageSize,
+			@RequestParam(value = "sort", required = false) String sort,
+			@RequestParam(value = "fields", required = false) String fields,
+			@RequestParam(value = "view", required = false) String view) {
+		try {
+			return reactiveProductService.getAllProducts(cursor, pageNumber, pageSize, sort,
+					ProductProjection.parse(fields, view));
+		} catch(IllegalArgumentException e) {
+			//Invalid cursor, sort field, fields or view
+			return Mono.just(ResponseEntity.badRequest().body(e.getMessage()));
+		}
+	}
+
+	//To stream all the products after the cursor as newline-delimited json, at the pace the client reads them
+	@GetMapping(value = "/all-products", produces = NDJSON)
+	public ResponseEntity<?> streamAllProducts(
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@RequestParam(value = "sort", required = false) String sort,
+			@RequestParam(value = "fields", required = false) String fields,
+			@RequestParam(value = "view", required = false) String view,
+			@RequestParam(value = "batchSize", defaultValue = "${products.export.batch-size:1000}") int batchSize) {
+		try {
+			return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON))
+					.body(reactiveProductService.streamProducts(cursor, sort, ProductProjection.parse(fields, view), batchSize));
+		} catch(IllegalArgumentException e) {
+			return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+		}
+	}
+
+	//To export all the products as newline-delimited json
+	@GetMapping(value = "/export", produces = NDJSON)
+	public Flux<?> exportProducts(
+			@RequestParam(value = "batchSize", defaultValue = "${products.export.batch-size:1000}") int batchSize) {
+		return reactiveProductService.streamProducts(null, null, null, batchSize);
+	}
+
+	//To find product using productId
+	@GetMapping("/find-product/{productId}")
+	public Mono<ResponseEntity<Product>> findProduct(@PathVariable String productId) {
+		return reactiveProductService.getProduct(productId)
+				.map(ResponseEntity::ok)
+				.defaultIfEmpty(ResponseEntity.ok().build());
+	}
+
+	//To find products according to given criteria
+	//fields and view select the fields of the returned products
+	@GetMapping("/search")
+	public ResponseEntity<?> searchProducts(@RequestBody ProductSearchCriteria criteria,
+			@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
+			@RequestParam(value = "pageSize", required = false) Integer pageSize,
+			@RequestParam(value = "fields", required = false) String fields,
+			@RequestParam(value = "view", required = false) String view) {
+		Flux<?> products;
+		try {
+			ProductProjection projection = ProductProjection.parse(fields, view);
+			//Unknown sort fields and empty ranges are rejected when the query is built
+			products = reactiveProductService.searchProducts(criteria, pageNumber, pageSize, projection);
+		} catch(IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(products);
+	}
+
+	//Adds a single product document to the collection
+	@PostMapping("/add-product")
+	public Mono<ResponseEntity<String>> addProduct(@RequestBody Product product) {
+		return reactiveProductService.addProduct(product)
+				.map(message -> ResponseEntity.status(HttpStatus.CREATED).body(message))
+				.defaultIfEmpty(ResponseEntity.badRequest().body("Product could not be added!!"));
+	}
+
+	//Modify the product document in mongodb
+	@PutMapping("/update-product/{productId}")
+	public Mono<ResponseEntity<String>> updateProduct(@PathVariable String productId, @RequestBody Product product) {
+		return reactiveProductService.updateRecord(productId, product)
+				.map(message -> ResponseEntity.status(HttpStatus.ACCEPTED).body(message));
+	}
+
+	//Delete product document in mongodb
+	@DeleteMapping("/delete-product/{productId}")
+	public Mono<ResponseEntity<String>> deleteProduct(@PathVariable String productId) {
+		return reactiveProductService.deleteProduct(productId)
+				.map(deleted -> ResponseEntity.status(HttpStatus.ACCEPTED).body(deleted
+						? "message :The product is deleted successfully!!"
+						: "message :The product could not be deleted"));
+	}
+
+	//Update ratings of products
+	@PostMapping("/{productId}/add-ratings")
+	public Mono<ResponseEntity<Product>> rateProduct(@PathVariable String productId, @RequestBody Ratings rating) {
+		return reactiveProductService.rateProduct(productId, rating)
+				.map(ResponseEntity::ok)
+				.defaultIfEmpty(ResponseEntity.ok().build());
+	}
+
+	//Ratings of a product, one page at a time in the order they were added
+	@GetMapping("/{productId}/ratings")
+	public Mono<List<Ratings>> getRatings(@PathVariable String productId,
+			@RequestParam(value = "pageNumber", required = false) Integer pageNumber,
+			@RequestParam(value = "pageSize", required = false) Integer pageSize) {
+		return reactiveProductService.getRatings(productId, pageNumber, pageSize).collectList();
+	}
+
+	@PutMapping("/{productId}/{userId}/update-rates")
+	public Mono<ResponseEntity<Product>> updateRate(@PathVariable String productId, @PathVariable String userId,
+			@RequestParam int newRating) {
+		//If there is no product of given id rated by the user
+		return reactiveProductService.updateRating(productId, userId, newRating)
+				.map(ResponseEntity::ok)
+				.defaultIfEmpty(ResponseEntity.notFound().build());
+	}
+
+	//import json data from json file containing collection of product documents
+	@PostMapping(path = "/import-json")
+	public Mono<ResponseEntity<?>> importJson(@RequestPart("file") FilePart file,
+			@RequestParam(value = "mode", defaultValue = "INSERT") ImportMode mode,
+			@RequestParam(value = "deleteMissing", defaultValue = "false") boolean deleteMissing) {
+		return reactiveProductService.importProducts(file, mode, deleteMissing)
+				.<ResponseEntity<?>>map(result -> ResponseEntity
+						.status(result.isComplete() ? HttpStatus.OK : HttpStatus.BAD_REQUEST)
+						.body(result))
+				.onErrorResume(IOException.class, e -> Mono.just(ResponseEntity
+						.status(HttpStatus.INTERNAL_SERVER_ERROR)
+						.body("Error importing data: " + e.getMessage())));
+	}
+}
@@ -0,0 +1,67 @@
+package com.leadtorev.product.entity;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**This class is used to return the result of one item of a bulk request, in the order of the request.
+ * 1.OK        - the item was read or written.
+ * 2.NOT_FOUND - there is no product with the id.
+ * 3.INVALID   - the item was not sent to the database, message tells why.
+ * 4.FAILED    - the database rejected the write, message has its error.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkItemResult {
+
+	public enum Status {
+		OK, NOT_FOUND, INVALID, FAILED
+	}
+
+	private final String id;
+	private Status status;
+	private String message;
+	private Product product;
+
+	private BulkItemResult(String id, Status status, String message, Product product) {
+		this.id = id;
+		this.status = status;
+		this.message = message;
+		this.product = product;
+	}
+
+	public static BulkItemResult ok(String id) {
+		return new BulkItemResult(id, Status.OK, null, null);
+	}
+
+	public static BulkItemResult found(String id, Product product) {
+		return new BulkItemResult(id, Status.OK, null, product);
+	}
+
+	public static BulkItemResult notFound(String id) {
+		return new BulkItemResult(id, Status.NOT_FOUND, null, null);
+	}
+
+	public static BulkItemResult invalid(String id, String message) {
+		return new BulkItemResult(id, Status.INVALID, message, null);
+	}
+
+	//Mark an item that was sent to the database as rejected by it
+	public void fail(String message) {
+		this.status = Status.FAILED;
+		this.message = message;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public Product getProduct() {
+		return product;
+	}
+}
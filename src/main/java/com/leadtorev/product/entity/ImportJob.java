@@ -0,0 +1,229 @@
+package com.leadtorev.product.entity;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**Import job entity stored in the "import_jobs" collection.
+ * A job imports one uploaded json file in the background. The file is read in batches of batchSize records
+ * and committedBatches is the number of leading batches that are completely written, which is the
+ * checkpoint an interrupted job resumes from. The counts only include the committed batches.
+ */
+@Document(collection = "import_jobs")
+public class ImportJob {
+
+	/*QUEUED    - submitted and waiting for a free job thread.
+	 * RUNNING   - being imported. A job that is RUNNING when the application starts was interrupted and is resumed.
+	 * COMPLETED - the whole file is imported.
+	 * FAILED    - the import stopped because of an error and can be resumed from its checkpoint.
+	 * INVALID   - the file is not a json array of products. Resuming would fail again, so it cannot be resumed.
+	 */
+	public enum Status {
+		QUEUED, RUNNING, COMPLETED, FAILED, INVALID
+	}
+
+	@Id
+	private String id;
+	private String fileName;
+	private Status status;
+	private ImportMode mode;
+	private boolean deleteMissing;
+	private int batchSize;
+	private int committedBatches;
+	private long received;
+	private long inserted;
+	private long updated;
+	private long unchanged;
+	private long deleted;
+	private long failed;
+	private List<String> errors = new ArrayList<String>();
+	private String message;
+	private Instant submittedAt;
+	private Instant startedAt;
+	private Instant updatedAt;
+	private Instant finishedAt;
+
+	//Time spent importing, added up over all the runs of the job
+	private long activeMillis;
+
+	//Location of the uploaded file, kept until the job is completed so that it can be resumed
+	@JsonIgnore
+	private String spoolPath;
+
+	//Hex encoded first 8 bytes of the ObjectIds given to the imported products, see ImportJobService
+	@JsonIgnore
+	private String idSeed;
+
+	//Add the counts and errors of a committed batch
+	public void addCommitted(long received, long inserted, long updated, long unchanged, long failed, List<String> errors) {
+		this.received += received;
+		this.inserted += inserted;
+		this.updated += updated;
+		this.unchanged += unchanged;
+		this.failed += failed;
+		for(String error : errors) {
+			if(this.errors.size() < ImportResult.MAX_ERRORS) {
+				this.errors.add(error);
+			}
+		}
+		this.committedBatches++;
+	}
+
+	//Number of records read per second while the job was running
+	public double getRowsPerSecond() {
+		return activeMillis > 0 ? received * 1000.0 / activeMillis : 0;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public ImportMode getMode() {
+		return mode;
+	}
+
+	public void setMode(ImportMode mode) {
+		this.mode = mode;
+	}
+
+	public boolean isDeleteMissing() {
+		return deleteMissing;
+	}
+
+	public void setDeleteMissing(boolean deleteMissing) {
+		this.deleteMissing = deleteMissing;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getCommittedBatches() {
+		return committedBatches;
+	}
+
+	public long getReceived() {
+		return received;
+	}
+
+	public long getInserted() {
+		return inserted;
+	}
+
+	public long getUpdated() {
+		return updated;
+	}
+
+	public long getUnchanged() {
+		return unchanged;
+	}
+
+	public long getDeleted() {
+		return deleted;
+	}
+
+	public void setDeleted(long deleted) {
+		this.deleted = deleted;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public Instant getSubmittedAt() {
+		return submittedAt;
+	}
+
+	public void setSubmittedAt(Instant submittedAt) {
+		this.submittedAt = submittedAt;
+	}
+
+	public Instant getStartedAt() {
+		return startedAt;
+	}
+
+	public void setStartedAt(Instant startedAt) {
+		this.startedAt = startedAt;
+	}
+
+	public Instant getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(Instant updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+
+	public Instant getFinishedAt() {
+		return finishedAt;
+	}
+
+	public void setFinishedAt(Instant finishedAt) {
+		this.finishedAt = finishedAt;
+	}
+
+	public long getActiveMillis() {
+		return activeMillis;
+	}
+
+	public void setActiveMillis(long activeMillis) {
+		this.activeMillis = activeMillis;
+	}
+
+	public String getSpoolPath() {
+		return spoolPath;
+	}
+
+	public void setSpoolPath(String spoolPath) {
+		this.spoolPath = spoolPath;
+	}
+
+	public String getIdSeed() {
+		return idSeed;
+	}
+
+	public void setIdSeed(String idSeed) {
+		this.idSeed = idSeed;
+	}
+}
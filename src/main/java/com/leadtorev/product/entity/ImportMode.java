@@ -0,0 +1,11 @@
+package com.leadtorev.product.entity;
+
+/**How an import writes the products of a json file.
+ * INSERT - every record is inserted as a new product.
+ * DELTA  - records are matched with the existing products on the natural key (products.import.natural-key).
+ *          New records are inserted, changed records are updated and records whose content hash
+ *          did not change are not written at all.
+ */
+public enum ImportMode {
+	INSERT, DELTA
+}
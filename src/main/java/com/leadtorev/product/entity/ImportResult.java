@@ -0,0 +1,117 @@
+package com.leadtorev.product.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**This class is used to return the summary of a json import instead of the imported documents.
+ * It holds the counts of read, inserted, updated, unchanged, deleted and failed records,
+ * the first error messages and the throughput.
+ */
+public class ImportResult {
+
+	//Only the first errors are kept so that a feed full of bad records cannot fill the memory
+	public static final int MAX_ERRORS = 100;
+
+	private long received;
+	private long inserted;
+	private long updated;
+	private long unchanged;
+	private long deleted;
+	private long failed;
+	private int batches;
+	private boolean complete = true;
+	private long elapsedMillis;
+	private List<String> errors = new ArrayList<String>();
+
+	//Keep the error message only when there are less than MAX_ERRORS messages
+	public void addError(String message) {
+		if(errors.size() < MAX_ERRORS) {
+			errors.add(message);
+		}
+	}
+
+	public void addReceived(long count) {
+		this.received += count;
+	}
+
+	public void addInserted(long count) {
+		this.inserted += count;
+	}
+
+	public void addUpdated(long count) {
+		this.updated += count;
+	}
+
+	public void addUnchanged(long count) {
+		this.unchanged += count;
+	}
+
+	public void addDeleted(long count) {
+		this.deleted += count;
+	}
+
+	public void addFailed(long count) {
+		this.failed += count;
+	}
+
+	public void addBatch() {
+		this.batches++;
+	}
+
+	//Number of records read per second
+	public double getRowsPerSecond() {
+		return elapsedMillis > 0 ? received * 1000.0 / elapsedMillis : received;
+	}
+
+	public long getReceived() {
+		return received;
+	}
+
+	public long getInserted() {
+		return inserted;
+	}
+
+	//Existing products updated by a delta import
+	public long getUpdated() {
+		return updated;
+	}
+
+	//Records of a delta import that were not written because the product did not change
+	public long getUnchanged() {
+		return unchanged;
+	}
+
+	//Products deleted by a delta import because they were missing from the file
+	public long getDeleted() {
+		return deleted;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public int getBatches() {
+		return batches;
+	}
+
+	//false if the import stopped before the end of the file, e.g. because the json is malformed
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+}
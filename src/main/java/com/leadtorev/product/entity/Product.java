@@ -2,10 +2,16 @@ package com.leadtorev.product.entity;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.TextScore;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 import jakarta.persistence.Entity;
 
@@ -32,10 +38,51 @@ public class Product {
 	private String description;
 	private double price;
 	private ArrayList<String> categories;
-	private ArrayList<Map<String,String>> attributes;
+	//Stored as {k, v} pairs, see ProductAttribute
+	private ArrayList<ProductAttribute> attributes;
 	private Availability availability;
+	
+	/*Ratings are stored in buckets in the product_ratings collection, not in the product document,
+	 * so the product stays small however many ratings it gets. They are only set on products that
+	 * are written with their ratings, like the products of an import or a new product.
+	 */
+	@Transient
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	private List<Ratings> ratings;
 	
+	/*Aggregates of the ratings, kept up to date by every rating write in the same update,
+	 * so reads get the average without the ratings array. They are computed, never taken from a request.
+	 */
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	private int ratingCount;
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	private long ratingSum;
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	private double averageRating;
+	
+	/*Incremented by every write of the product, see ProductVersions. It is the ETag of the product and is
+	 * checked by updates with If-Match. It is not a Spring Data @Version, which would make saving a product
+	 * with the id of an existing product an insert that fails instead of a replacement.
+	 */
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	private long version;
+	
+	//Hash of the content fields, used by delta imports to skip products that did not change
+	@JsonIgnore
+	private String contentHash;
+	
+	/*Lower case words of the name, for prefix (type-ahead) search on any word of the name.
+	 * Set together with the name, see nameTokens(String).
+	 */
+	@JsonIgnore
+	private List<String> nameTokens;
+	
+	//Relevance of the product to a text search, only set on the results of a text search
+	@TextScore
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	private Float score;
+	
 	//Using setter and getter to update and fetch values of product entity
 	public String getId() {
 		return id;
@@ -48,6 +95,7 @@ public class Product {
 	}
 	public void setName(String name) {
 		this.name = name;
+		this.nameTokens = name == null ? null : nameTokens(name);
 	}
 	public String getDescription() {
 		return description;
@@ -67,10 +115,10 @@ public class Product {
 	public void setCategories(ArrayList<String> categories) {
 		this.categories = categories;
 	}
-	public ArrayList<Map<String, String>> getAttributes() {
+	public ArrayList<ProductAttribute> getAttributes() {
 		return attributes;
 	}
-	public void setAttributes(ArrayList<Map<String, String>> attributes) {
+	public void setAttributes(ArrayList<ProductAttribute> attributes) {
 		this.attributes = attributes;
 	}
 	public Availability getAvailability() {
@@ -85,6 +133,73 @@ public class Product {
 	public void setRatings(List<Ratings> ratings) {
 		this.ratings = ratings;
 	}
+	public int getRatingCount() {
+		return ratingCount;
+	}
+	public void setRatingCount(int ratingCount) {
+		this.ratingCount = ratingCount;
+	}
+	public long getRatingSum() {
+		return ratingSum;
+	}
+	public void setRatingSum(long ratingSum) {
+		this.ratingSum = ratingSum;
+	}
+	public double getAverageRating() {
+		return averageRating;
+	}
+	public void setAverageRating(double averageRating) {
+		this.averageRating = averageRating;
+	}
+	
+	//Compute the rating aggregates from the ratings array, for products that are written whole
+	public void updateRatingAggregates() {
+		ratingCount = 0;
+		ratingSum = 0;
+		if(ratings != null) {
+			for(Ratings rating : ratings) {
+				ratingCount++;
+				ratingSum += rating.getRating();
+			}
+		}
+		averageRating = ratingCount > 0 ? (double) ratingSum / ratingCount : 0;
+	}
+	
+	public long getVersion() {
+		return version;
+	}
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
+	public String getContentHash() {
+		return contentHash;
+	}
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+	public List<String> getNameTokens() {
+		return nameTokens;
+	}
+	public Float getScore() {
+		return score;
+	}
+	public void setScore(Float score) {
+		this.score = score;
+	}
+	
+	/*Split a text into lower case words of letters and digits, "Smart-Phone X2" into [smart, phone, x2].
+	 * Used for the stored name tokens and for the prefixes of a search, so both are split the same way.
+	 */
+	public static List<String> nameTokens(String text) {
+		List<String> tokens = new ArrayList<String>();
+		for(String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+			if(!token.isEmpty() && !tokens.contains(token)) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
 	
 	/* Below are the 2 functions used to remove duplicate product enitities
 	 * from the product list. This product list is generated from 
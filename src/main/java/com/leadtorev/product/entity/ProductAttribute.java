@@ -0,0 +1,90 @@
+package com.leadtorev.product.entity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**One attribute of a product, e.g. size Small.
+ * It is stored with the attribute pattern as {k: "size", v: "Small"}, so one compound index on attributes.k and
+ * attributes.v serves a filter on any attribute, and an attribute is matched with $elemMatch on k and v.
+ * In json it keeps the form of the api, an object with one entry: {"size": "Small"}.
+ * Two strings per attribute take much less memory than a HashMap per attribute.
+ */
+public final class ProductAttribute {
+
+	@Field("k")
+	private final String key;
+	@Field("v")
+	private final String value;
+
+	public ProductAttribute(String key, String value) {
+		this.key = key;
+		this.value = value;
+	}
+
+	//Read the api form, an object with exactly one entry
+	@JsonCreator
+	public static ProductAttribute of(Map<String, String> attribute) {
+		if(attribute == null || attribute.size() != 1) {
+			throw new IllegalArgumentException("An attribute must have exactly one key and value, e.g. {\"size\": \"Small\"}");
+		}
+		Map.Entry<String, String> entry = attribute.entrySet().iterator().next();
+		return new ProductAttribute(entry.getKey(), entry.getValue());
+	}
+
+	//Every entry of the given maps as an attribute, for search criteria that may give several entries in one map
+	public static List<ProductAttribute> fromEntries(Collection<Map<String, String>> attributes) {
+		List<ProductAttribute> list = new ArrayList<ProductAttribute>();
+		if(attributes != null) {
+			for(Map<String, String> attribute : attributes) {
+				for(Map.Entry<String, String> entry : attribute.entrySet()) {
+					list.add(new ProductAttribute(entry.getKey(), entry.getValue()));
+				}
+			}
+		}
+		return list;
+	}
+
+	@JsonValue
+	public Map<String, String> toMap() {
+		return Collections.singletonMap(key, value);
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o) {
+			return true;
+		}
+		if(!(o instanceof ProductAttribute)) {
+			return false;
+		}
+		ProductAttribute attribute = (ProductAttribute) o;
+		return Objects.equals(key, attribute.key) && Objects.equals(value, attribute.value);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(key, value);
+	}
+
+	@Override
+	public String toString() {
+		return key + "=" + value;
+	}
+}
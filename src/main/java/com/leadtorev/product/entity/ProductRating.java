@@ -0,0 +1,26 @@
+package com.leadtorev.product.entity;
+
+/**This class is used to send the rating of a product in a bulk rating request.
+ * It is a rating with the id of the rated product.
+ */
+public class ProductRating extends Ratings {
+
+	private String productId;
+
+	public String getProductId() {
+		return productId;
+	}
+
+	public void setProductId(String productId) {
+		this.productId = productId;
+	}
+
+	//The rating as stored in the buckets of the product, without the product id
+	public Ratings toRatings() {
+		Ratings rating = new Ratings();
+		rating.setUserId(getUserId());
+		rating.setRating(getRating());
+		rating.setComment(getComment());
+		return rating;
+	}
+}
@@ -9,6 +9,8 @@ import java.util.Map;
  * The criteria Object will accept the field values for each of the 3 fields
  * and using those values we will filter the records accordingly.
  * It provide getter and setter methods and constructor to handle the criteria object. 
+ * The text and prefix fields, the price and quantity ranges, the in stock filter, the sort and top
+ * are optional and set through their setters.
  */
 
 public class ProductSearchCriteria {
@@ -18,6 +20,30 @@ public class ProductSearchCriteria {
 	private List<String> categories;
 	
 	private List<Map<String, String>> attributes; // Map to represent key-value pairs for attributes
+	
+	//Words to search in the name and description, results are ranked by relevance
+	private String text;
+	
+	//Start of the words of the name, for type-ahead search
+	private String prefix;
+	
+	//Inclusive bounds of the price and of availability.quantity, null for no bound
+	private Double minPrice;
+	
+	private Double maxPrice;
+	
+	private Integer minQuantity;
+	
+	private Integer maxQuantity;
+	
+	//Only products in stock (true) or out of stock (false)
+	private Boolean inStock;
+	
+	//Sort fields, e.g. "price,-averageRating" for cheapest first and then best rated first
+	private String sort;
+	
+	//Only the first top products in sort order, instead of a page
+	private Integer top;
 
 	//Class constructor to initialize the criteria object
 	public ProductSearchCriteria(String name, List<String> categories, List<Map<String, String>> attributes) {
@@ -52,6 +78,87 @@ public class ProductSearchCriteria {
 		this.attributes = attributes;
 	}
 
+	public String getText() {
+		return text;
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public void setPrefix(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public Double getMinPrice() {
+		return minPrice;
+	}
+
+	public void setMinPrice(Double minPrice) {
+		this.minPrice = minPrice;
+	}
+
+	public Double getMaxPrice() {
+		return maxPrice;
+	}
+
+	public void setMaxPrice(Double maxPrice) {
+		this.maxPrice = maxPrice;
+	}
+
+	public Integer getMinQuantity() {
+		return minQuantity;
+	}
+
+	public void setMinQuantity(Integer minQuantity) {
+		this.minQuantity = minQuantity;
+	}
+
+	public Integer getMaxQuantity() {
+		return maxQuantity;
+	}
+
+	public void setMaxQuantity(Integer maxQuantity) {
+		this.maxQuantity = maxQuantity;
+	}
+
+	public Boolean getInStock() {
+		return inStock;
+	}
+
+	public void setInStock(Boolean inStock) {
+		this.inStock = inStock;
+	}
+
+	public String getSort() {
+		return sort;
+	}
+
+	public void setSort(String sort) {
+		this.sort = sort;
+	}
+
+	public Integer getTop() {
+		return top;
+	}
+
+	public void setTop(Integer top) {
+		this.top = top;
+	}
+
+	/*The bitmap index only holds the names, categories and attributes, and returns the products in _id order.
+	 * Searches with any other criteria, a sort or a top are only answered by MongoDB.
+	 */
+	public boolean hasOnlyTermCriteria() {
+		return (text == null || text.isBlank()) && (prefix == null || prefix.isBlank())
+				&& minPrice == null && maxPrice == null && minQuantity == null && maxQuantity == null
+				&& inStock == null && (sort == null || sort.isBlank()) && top == null;
+	}
+
 	
 
 }
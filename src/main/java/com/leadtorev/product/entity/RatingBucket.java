@@ -0,0 +1,66 @@
+package com.leadtorev.product.entity;
+
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**A bucket of ratings of one product, stored in the product_ratings collection.
+ * The ratings of a product are split over buckets of at most products.ratings.bucket-size ratings,
+ * so the product document stays the same size however many ratings it gets.
+ * New ratings are pushed to a bucket of the product that is not full yet, and buckets are read in _id order.
+ */
+@Document(collection = "product_ratings")
+public class RatingBucket {
+
+	@Id
+	private String id;
+	private String productId;
+	
+	//Number of ratings in the bucket, used to find a bucket that is not full
+	private int count;
+	
+	//Moved from the ratings array of the product document by RatingBucketMigration
+	private boolean migrated;
+	private List<Ratings> ratings;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getProductId() {
+		return productId;
+	}
+
+	public void setProductId(String productId) {
+		this.productId = productId;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public boolean isMigrated() {
+		return migrated;
+	}
+
+	public void setMigrated(boolean migrated) {
+		this.migrated = migrated;
+	}
+
+	public List<Ratings> getRatings() {
+		return ratings;
+	}
+
+	public void setRatings(List<Ratings> ratings) {
+		this.ratings = ratings;
+	}
+}
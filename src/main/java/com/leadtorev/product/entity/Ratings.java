@@ -1,7 +1,5 @@
 package com.leadtorev.product.entity;
 
-import org.springframework.data.mongodb.core.index.Indexed;
-
 /**This class is used to handle the ratings field in product entity
  * 
  * @author mayur
@@ -9,12 +7,11 @@ import org.springframework.data.mongodb.core.index.Indexed;
  */
 public class Ratings {
 	
-	/**@Indexed annotation is used to index the field in the entity.
-	 * Index is used improve the speed and efficienct of data
-	 * retrieval operations.Indexes provide rapid access paths to 
-	 * data based on the values of specific columns. 
+	/**Ratings are embedded in the buckets of the product_ratings collection, so userId is not indexed here.
+	 * A unique index on an embedded array field is applied across the whole collection
+	 * and would stop a user from rating more than one product.
+	 * The indexes of the ratings collection are declared in ProductIndexes.
 	 */
-	@Indexed(unique = true)
 	private String userId;
 	private int rating;
 	private String comment;
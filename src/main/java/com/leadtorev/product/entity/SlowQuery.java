@@ -0,0 +1,127 @@
+package com.leadtorev.product.entity;
+
+import java.time.Instant;
+
+/**Statistics of one query shape that ran longer than the slow query threshold, returned by /admin/slow-queries.
+ * The shape is the command with every value replaced by "?", so the same query with other values is counted once.
+ * The plan and the examined counts are taken from the last explain of the shape, which is only run for a sample
+ * of the slow executions. They are null until the first explain has finished.
+ */
+public class SlowQuery {
+
+	private final String command;
+	private final String collection;
+	private final String shape;
+	private long count;
+	private double totalMillis;
+	private double maxMillis;
+	private double lastMillis;
+	private Long lastReturned;
+	private Instant lastSeen;
+	private String plan;
+	private Long keysExamined;
+	private Long docsExamined;
+	private Long explainReturned;
+	private Instant explainedAt;
+
+	public SlowQuery(String command, String collection, String shape) {
+		this.command = command;
+		this.collection = collection;
+		this.shape = shape;
+	}
+
+	//Add one slow execution, returned is the number of documents of the reply, null when it is not known
+	public synchronized void record(double millis, Long returned) {
+		count++;
+		totalMillis += millis;
+		maxMillis = Math.max(maxMillis, millis);
+		lastMillis = millis;
+		lastReturned = returned;
+		lastSeen = Instant.now();
+	}
+
+	public synchronized void setExplain(String plan, Long keysExamined, Long docsExamined, Long explainReturned) {
+		this.plan = plan;
+		this.keysExamined = keysExamined;
+		this.docsExamined = docsExamined;
+		this.explainReturned = explainReturned;
+		this.explainedAt = Instant.now();
+	}
+
+	//A consistent copy, for the response
+	public synchronized SlowQuery copy() {
+		SlowQuery copy = new SlowQuery(command, collection, shape);
+		copy.count = count;
+		copy.totalMillis = totalMillis;
+		copy.maxMillis = maxMillis;
+		copy.lastMillis = lastMillis;
+		copy.lastReturned = lastReturned;
+		copy.lastSeen = lastSeen;
+		copy.plan = plan;
+		copy.keysExamined = keysExamined;
+		copy.docsExamined = docsExamined;
+		copy.explainReturned = explainReturned;
+		copy.explainedAt = explainedAt;
+		return copy;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public String getCollection() {
+		return collection;
+	}
+
+	public String getShape() {
+		return shape;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized double getTotalMillis() {
+		return totalMillis;
+	}
+
+	public synchronized double getMeanMillis() {
+		return count > 0 ? totalMillis / count : 0;
+	}
+
+	public synchronized double getMaxMillis() {
+		return maxMillis;
+	}
+
+	public synchronized double getLastMillis() {
+		return lastMillis;
+	}
+
+	public synchronized Long getLastReturned() {
+		return lastReturned;
+	}
+
+	public synchronized Instant getLastSeen() {
+		return lastSeen;
+	}
+
+	public synchronized String getPlan() {
+		return plan;
+	}
+
+	public synchronized Long getKeysExamined() {
+		return keysExamined;
+	}
+
+	public synchronized Long getDocsExamined() {
+		return docsExamined;
+	}
+
+	public synchronized Long getExplainReturned() {
+		return explainReturned;
+	}
+
+	public synchronized Instant getExplainedAt() {
+		return explainedAt;
+	}
+}
@@ -0,0 +1,16 @@
+package com.leadtorev.product.repository;
+
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.leadtorev.product.entity.ImportJob;
+
+/*Repository class for the "import_jobs" collection, which holds the progress and checkpoint of each import job.*/
+@Repository
+public interface ImportJobRepository extends MongoRepository<ImportJob, String> {
+
+	//Find jobs in the given states, used to resume interrupted jobs when the application starts
+	public List<ImportJob> findByStatusIn(List<ImportJob.Status> statuses);
+}
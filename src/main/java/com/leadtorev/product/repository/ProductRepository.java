@@ -1,11 +1,9 @@
 package com.leadtorev.product.repository;
 
-import java.util.List;
-import java.util.Map;
-
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 import com.leadtorev.product.entity.Product;
 
@@ -21,8 +19,9 @@ public interface ProductRepository  extends MongoRepository<Product, String>{
 	//Filter products using categories field and return the result
 	public Page<Product> findByCategories(String categories, Pageable pageable);
 	
-	//Filter products using attributes field and return the result
-	public Page<Product> findByAttributes(Map<String, String> subAttributes,Pageable pageable );
+	//Filter products using attributes field and return the result. Attributes are stored as {k, v} pairs
+	@Query("{ 'attributes': { $elemMatch: { 'k': ?0, 'v': ?1 } } }")
+	public Page<Product> findByAttributes(String key, String value, Pageable pageable);
 	
 	
 	 
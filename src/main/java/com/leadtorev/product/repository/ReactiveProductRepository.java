@@ -0,0 +1,13 @@
+package com.leadtorev.product.repository;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.leadtorev.product.entity.Product;
+
+/*Non-blocking repository of the "products" collection, used by the reactive profile.
+  It reads and writes the same documents as ProductRepository.*/
+@Repository
+public interface ReactiveProductRepository extends ReactiveMongoRepository<Product, String> {
+
+}
@@ -0,0 +1,124 @@
+package com.leadtorev.product.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.config.ProductIndexes;
+import com.mongodb.MongoException;
+
+/**Rewrites the attributes of the products written before ProductAttribute from {size: "Small"} to {k: "size", v: "Small"}.
+ * Runs when the application starts (products.attributes.migrate-on-startup), while the application serves requests.
+ * 1.The ids of the products that still have an attribute without k are read, and the products are rewritten
+ *   BATCH_SIZE at a time with an update pipeline, so each batch is one short write and the attributes are
+ *   converted by the server without reading the products.
+ * 2.An attribute with several entries becomes one attribute per entry.
+ * 3.Each batch publishes a ProductChangedEvent, so the caches and the bitmap index read the new form.
+ * Until a product is migrated it is still read correctly (see MongoConversionsConfig), but attribute searches,
+ * which match k and v, do not find it. A migration that was stopped continues on the next start.
+ */
+@Component
+public class AttributeMigration {
+
+	private static final Logger log = LoggerFactory.getLogger(AttributeMigration.class);
+
+	static final int BATCH_SIZE = 1000;
+
+	private final MongoTemplate mongoTemplate;
+	private final ApplicationEventPublisher eventPublisher;
+	private final boolean enabled;
+
+	public AttributeMigration(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher,
+			@Value("${products.attributes.migrate-on-startup:true}") boolean enabled) {
+		this.mongoTemplate = mongoTemplate;
+		this.eventPublisher = eventPublisher;
+		this.enabled = enabled;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if(!enabled) {
+			return;
+		}
+		try {
+			long migrated = migrate();
+			if(migrated > 0) {
+				log.info("Rewrote the attributes of {} products as k/v pairs", migrated);
+			}
+		} catch(DataAccessException | MongoException e) {
+			//Products that were not migrated keep the old form and are migrated on the next start
+			log.warn("Could not rewrite the attributes of the products: {}", e.getMessage());
+		}
+	}
+
+	//Returns the number of products that were migrated
+	public long migrate() {
+		Query query = new Query(notMigrated());
+		query.fields().include("_id");
+
+		long migrated = 0;
+		List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+		try (Stream<Document> products = mongoTemplate.stream(query, Document.class, ProductIndexes.COLLECTION)) {
+			for(Document product : (Iterable<Document>) products::iterator) {
+				batch.add(product.get("_id"));
+				if(batch.size() == BATCH_SIZE) {
+					migrated += migrate(batch);
+					batch.clear();
+				}
+			}
+		}
+		if(!batch.isEmpty()) {
+			migrated += migrate(batch);
+		}
+		return migrated;
+	}
+
+	private long migrate(List<Object> ids) {
+		//The filter is repeated, so a product written in the new form since its id was read is left alone
+		Query query = new Query(Criteria.where("_id").in(ids).andOperator(notMigrated()));
+		long modified = mongoTemplate.updateMulti(query, toPairs(), ProductIndexes.COLLECTION).getModifiedCount();
+		Set<String> changed = new HashSet<String>();
+		for(Object id : ids) {
+			changed.add(id.toString());
+		}
+		eventPublisher.publishEvent(ProductChangedEvent.of(changed));
+		return modified;
+	}
+
+	//Products with at least one attribute without k
+	static Criteria notMigrated() {
+		return Criteria.where("attributes").elemMatch(Criteria.where("k").exists(false));
+	}
+
+	/*Replace every attribute without k by the {k, v} pairs of its entries ($objectToArray), and keep the others:
+	 * attributes = $reduce over attributes, concatenating [this] or objectToArray(this).
+	 */
+	static AggregationUpdate toPairs() {
+		Document pairs = new Document("$reduce", new Document("input", "$attributes")
+				.append("initialValue", List.of())
+				.append("in", new Document("$concatArrays", List.of("$$value",
+						new Document("$cond", List.of(
+								new Document("$eq", List.of(new Document("$type", "$$this.k"), "missing")),
+								new Document("$objectToArray", "$$this"),
+								List.of("$$this")))))));
+		AggregationOperation set = context -> new Document("$set", new Document("attributes", pairs));
+		return AggregationUpdate.from(List.of(set));
+	}
+}
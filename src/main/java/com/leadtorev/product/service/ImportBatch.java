@@ -0,0 +1,50 @@
+package com.leadtorev.product.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.leadtorev.product.entity.ImportResult;
+import com.leadtorev.product.entity.Product;
+
+/*One batch of products read from an import file, together with the outcome of reading and writing it.
+ * index is the position of the batch in the file and firstOrdinal the position of its first record,
+ * so the same file read with the same batch size always produces the same batches.
+ */
+class ImportBatch {
+
+	final int index;
+	final long firstOrdinal;
+	final List<Product> products;
+	long received;
+	long inserted;
+	long updated;
+	long unchanged;
+	long failed;
+	final List<String> errors = new ArrayList<String>();
+
+	ImportBatch(int index, long firstOrdinal, int batchSize) {
+		this.index = index;
+		this.firstOrdinal = firstOrdinal;
+		this.products = new ArrayList<Product>(batchSize);
+	}
+
+	void addError(long failedRecords, String message) {
+		failed += failedRecords;
+		if(errors.size() < ImportResult.MAX_ERRORS) {
+			errors.add(message);
+		}
+	}
+
+	//Add the counts and errors of this batch to the result of the whole import
+	void addTo(ImportResult result) {
+		result.addReceived(received);
+		result.addInserted(inserted);
+		result.addUpdated(updated);
+		result.addUnchanged(unchanged);
+		result.addBatch();
+		result.addFailed(failed);
+		for(String error : errors) {
+			result.addError(error);
+		}
+	}
+}
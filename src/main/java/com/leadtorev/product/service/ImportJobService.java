@@ -0,0 +1,362 @@
+package com.leadtorev.product.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Semaphore;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.leadtorev.product.entity.ImportJob;
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.repository.ImportJobRepository;
+
+import jakarta.annotation.PreDestroy;
+
+/**Runs json imports as background jobs.
+ * 1.The uploaded file is saved to the spool directory and the job id is returned straight away.
+ * 2.A job thread reads the file in batches with the same reader as ProductService.saveEntitiesFromJsonFile,
+ *   and a bounded pool of worker threads writes the batches in parallel.
+ * 3.Batches can finish out of order, so the job keeps the finished batches until all the batches before them
+ *   are finished and then saves the number of leading committed batches as the checkpoint.
+ * 4.A resumed job skips the committed batches. Imported products get an ObjectId made of the job's id seed and the
+ *   position of the record in the file, so a batch that was written but not yet checkpointed is not imported twice.
+ */
+@Service
+public class ImportJobService {
+
+	private static final Logger log = LoggerFactory.getLogger(ImportJobService.class);
+
+	private final ImportJobRepository importJobRepository;
+	private final ProductImporter productImporter;
+	private final Path spoolDirectory;
+	private final boolean resumeOnStartup;
+	private final int maxBatchesInFlight;
+
+	//Threads that read the files, one per running job
+	private final ExecutorService jobExecutor;
+
+	//Threads that write the batches of all the jobs
+	private final ExecutorService writeExecutor;
+
+	//Jobs that are queued or running in this application, by id
+	private final Map<String, ImportJob> activeJobs = new ConcurrentHashMap<String, ImportJob>();
+
+	private volatile boolean shuttingDown;
+
+	public ImportJobService(ImportJobRepository importJobRepository, ProductImporter productImporter,
+			@Value("${products.import.spool-dir:${java.io.tmpdir}/product-imports}") String spoolDirectory,
+			@Value("${products.import.workers:4}") int workers,
+			@Value("${products.import.max-concurrent-jobs:2}") int maxConcurrentJobs,
+			@Value("${products.import.resume-on-startup:true}") boolean resumeOnStartup,
+			@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+		this.importJobRepository = importJobRepository;
+		this.productImporter = productImporter;
+		this.spoolDirectory = Paths.get(spoolDirectory);
+		this.resumeOnStartup = resumeOnStartup;
+		//Two batches per worker are enough to keep the workers busy while the next batch is being read
+		this.maxBatchesInFlight = workers * 2;
+		//The pools still cap the number of jobs and writes. Virtual threads only free the platform threads
+		//while a job waits on the file or the database. The threads are daemons, so idle pools do not keep the
+		//application running, and a job stopped with the application is resumed on the next start.
+		ThreadFactory threadFactory = virtualThreads
+				? Thread.ofVirtual().name("product-import-", 0).factory()
+				: Thread.ofPlatform().name("product-import-", 0).daemon(true).factory();
+		this.jobExecutor = Executors.newFixedThreadPool(maxConcurrentJobs, threadFactory);
+		this.writeExecutor = Executors.newFixedThreadPool(workers, threadFactory);
+	}
+
+	//Save the uploaded file and start a job to import it
+	public ImportJob submit(MultipartFile file, ImportMode mode, boolean deleteMissing) throws IOException {
+		Files.createDirectories(spoolDirectory);
+		Path spool = Files.createTempFile(spoolDirectory, "import-", ".json");
+		file.transferTo(spool);
+
+		ImportJob job = new ImportJob();
+		job.setId(UUID.randomUUID().toString());
+		job.setFileName(file.getOriginalFilename() != null ? StringUtils.cleanPath(file.getOriginalFilename()) : null);
+		job.setStatus(ImportJob.Status.QUEUED);
+		job.setMode(mode);
+		job.setDeleteMissing(deleteMissing && mode == ImportMode.DELTA);
+		job.setBatchSize(productImporter.getBatchSize());
+		job.setSpoolPath(spool.toString());
+		job.setIdSeed(newIdSeed());
+		job.setSubmittedAt(Instant.now());
+		job.setUpdatedAt(job.getSubmittedAt());
+		importJobRepository.save(job);
+
+		start(job);
+		return job;
+	}
+
+	//Return the job with its latest progress. A job running in this application is returned from memory.
+	public Optional<ImportJob> getJob(String jobId) {
+		ImportJob active = activeJobs.get(jobId);
+		return active != null ? Optional.of(active) : importJobRepository.findById(jobId);
+	}
+
+	//Resume a failed or interrupted job from its checkpoint
+	public Optional<ImportJob> resume(String jobId) {
+		ImportJob active = activeJobs.get(jobId);
+		if(active != null) {
+			return Optional.of(active);
+		}
+		Optional<ImportJob> found = importJobRepository.findById(jobId);
+		if(found.isEmpty()) {
+			return found;
+		}
+		ImportJob job = found.get();
+		if(job.getStatus() == ImportJob.Status.COMPLETED || job.getStatus() == ImportJob.Status.INVALID) {
+			throw new IllegalStateException("Job " + jobId + " is " + job.getStatus() + " and cannot be resumed");
+		}
+		if(job.getSpoolPath() == null || !Files.exists(Paths.get(job.getSpoolPath()))) {
+			throw new IllegalStateException("The file of job " + jobId + " is no longer available");
+		}
+		job.setStatus(ImportJob.Status.QUEUED);
+		job.setMessage(null);
+		importJobRepository.save(job);
+		start(job);
+		return Optional.of(job);
+	}
+
+	//Resume the jobs that were queued or running when the application stopped
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumeInterruptedJobs() {
+		if(!resumeOnStartup) {
+			return;
+		}
+		try {
+			for(ImportJob job : importJobRepository.findByStatusIn(
+					List.of(ImportJob.Status.QUEUED, ImportJob.Status.RUNNING))) {
+				log.info("Resuming import job {} from batch {}", job.getId(), job.getCommittedBatches());
+				start(job);
+			}
+		} catch(DataAccessException e) {
+			log.warn("Could not resume interrupted import jobs: {}", e.getMessage());
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		//Jobs stopped here stay RUNNING, so they are resumed on the next start
+		shuttingDown = true;
+		jobExecutor.shutdownNow();
+		writeExecutor.shutdownNow();
+	}
+
+	private void start(ImportJob job) {
+		activeJobs.put(job.getId(), job);
+		jobExecutor.execute(() -> run(job));
+	}
+
+	//Run a job and forget it when it stops
+	private void run(ImportJob job) {
+		try {
+			runFromCheckpoint(job);
+		} catch(RuntimeException e) {
+			//The checkpoint could not be saved. The job keeps its last saved state and can be resumed.
+			log.warn("Import job {} stopped: {}", job.getId(), e.getMessage());
+		} finally {
+			activeJobs.remove(job.getId());
+		}
+	}
+
+	//Read the file of the job from its checkpoint and write the remaining batches
+	private void runFromCheckpoint(ImportJob job) {
+		JobRun run = new JobRun(job);
+		synchronized(job) {
+			job.setStatus(ImportJob.Status.RUNNING);
+			if(job.getStartedAt() == null) {
+				job.setStartedAt(Instant.now());
+			}
+			job.setUpdatedAt(Instant.now());
+			importJobRepository.save(job);
+		}
+
+		String error = null;
+		Exception failure = null;
+		try (InputStream inputStream = Files.newInputStream(Paths.get(job.getSpoolPath()))) {
+			error = productImporter.readBatches(inputStream, job.getBatchSize(), job.getCommittedBatches(), run::submit);
+		} catch(IOException | RuntimeException e) {
+			failure = e;
+		}
+		run.awaitWrites();
+		if(failure == null || failure instanceof JobAbortedException) {
+			failure = run.failure;
+		}
+		if(failure == null && error == null && job.isDeleteMissing()) {
+			//The keys are read again from the file, so that a resumed job also knows the keys of the skipped batches
+			try (InputStream inputStream = Files.newInputStream(Paths.get(job.getSpoolPath()))) {
+				job.setDeleted(productImporter.deleteMissing(productImporter.readNaturalKeys(inputStream)));
+			} catch(IOException | RuntimeException e) {
+				failure = e;
+			}
+		}
+		if(failure != null && shuttingDown) {
+			return;
+		}
+
+		synchronized(job) {
+			run.updateActiveTime();
+			if(failure != null) {
+				log.warn("Import job {} failed after batch {}", job.getId(), job.getCommittedBatches(), failure);
+				job.setStatus(ImportJob.Status.FAILED);
+				job.setMessage(failure.getMessage());
+			} else if(error != null) {
+				job.setStatus(ImportJob.Status.INVALID);
+				job.setMessage(error);
+			} else {
+				job.setStatus(ImportJob.Status.COMPLETED);
+			}
+			if(job.getStatus() != ImportJob.Status.FAILED) {
+				job.setFinishedAt(Instant.now());
+				deleteSpool(job);
+			}
+			importJobRepository.save(job);
+		}
+	}
+
+	private static void deleteSpool(ImportJob job) {
+		try {
+			Files.deleteIfExists(Paths.get(job.getSpoolPath()));
+		} catch(IOException e) {
+			log.warn("Could not delete {}: {}", job.getSpoolPath(), e.getMessage());
+		}
+	}
+
+	//First 8 bytes of the ObjectIds of a job: the submit time in seconds, like any ObjectId, and 4 random bytes
+	private static String newIdSeed() {
+		ByteBuffer seed = ByteBuffer.allocate(8);
+		seed.putInt((int) (System.currentTimeMillis() / 1000));
+		byte[] random = new byte[4];
+		new SecureRandom().nextBytes(random);
+		seed.put(random);
+		return HexFormat.of().formatHex(seed.array());
+	}
+
+	//ObjectId of the record at the given position in the file of the job
+	static ObjectId objectId(String idSeed, long ordinal) {
+		return new ObjectId(ByteBuffer.allocate(12)
+				.put(HexFormat.of().parseHex(idSeed))
+				.putInt((int) ordinal)
+				.array());
+	}
+
+	//Thrown from the reader thread to stop reading when a batch could not be written
+	private static class JobAbortedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	//State of one run of a job: the batches being written and the batches finished out of order
+	private class JobRun {
+
+		private final ImportJob job;
+		//True if an earlier run of the job may have written some of the batches after the checkpoint
+		private final boolean resumed;
+		private final Semaphore inFlight = new Semaphore(maxBatchesInFlight);
+		private final Map<Integer, ImportBatch> finished = new TreeMap<Integer, ImportBatch>();
+		private final long activeMillisBefore;
+		private final long runStart = System.currentTimeMillis();
+		private volatile RuntimeException failure;
+
+		JobRun(ImportJob job) {
+			this.job = job;
+			this.resumed = job.getStartedAt() != null;
+			this.activeMillisBefore = job.getActiveMillis();
+		}
+
+		//Called by the reader for every batch. Blocks while maxBatchesInFlight batches are being written.
+		void submit(ImportBatch batch) {
+			if(failure != null) {
+				throw new JobAbortedException();
+			}
+			//Delta imports are matched on the natural key and are idempotent without fixed ids
+			if(mode() == ImportMode.INSERT) {
+				for(int i = 0; i < batch.products.size(); i++) {
+					Product product = batch.products.get(i);
+					if(product.getId() == null) {
+						product.setId(objectId(job.getIdSeed(), batch.firstOrdinal + i).toHexString());
+					}
+				}
+			}
+			inFlight.acquireUninterruptibly();
+			try {
+				writeExecutor.execute(() -> {
+					try {
+						//Products that already exist are only expected when the batch is written again. On the first
+						//run they clash with other products and are reported as errors.
+						productImporter.writeBatch(batch, mode(), resumed);
+						commit(batch);
+					} catch(RuntimeException e) {
+						failure = e;
+					} finally {
+						inFlight.release();
+					}
+				});
+			} catch(RuntimeException e) {
+				inFlight.release();
+				throw e;
+			}
+		}
+
+		//Move the checkpoint past every batch that is finished and has no unfinished batch before it
+		private void commit(ImportBatch batch) {
+			//The products are written, only the counts are kept until the batch is committed
+			batch.products.clear();
+			synchronized(job) {
+				finished.put(batch.index, batch);
+				ImportBatch next;
+				boolean advanced = false;
+				while((next = finished.remove(job.getCommittedBatches())) != null) {
+					job.addCommitted(next.received, next.inserted, next.updated, next.unchanged, next.failed, next.errors);
+					advanced = true;
+				}
+				if(advanced) {
+					updateActiveTime();
+					importJobRepository.save(job);
+				}
+			}
+		}
+
+		//Jobs submitted before delta imports existed have no mode
+		ImportMode mode() {
+			return job.getMode() != null ? job.getMode() : ImportMode.INSERT;
+		}
+
+		//Wait until all the submitted batches are written
+		void awaitWrites() {
+			inFlight.acquireUninterruptibly(maxBatchesInFlight);
+			inFlight.release(maxBatchesInFlight);
+		}
+
+		void updateActiveTime() {
+			job.setActiveMillis(activeMillisBefore + System.currentTimeMillis() - runStart);
+			job.setUpdatedAt(Instant.now());
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.leadtorev.product.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.config.ProductIndexes;
+import com.leadtorev.product.entity.Product;
+import com.mongodb.MongoException;
+
+/**Stores the words of the name (nameTokens) of the products written before prefix search existed.
+ * Runs when the application starts (products.search.backfill-on-startup), while the application serves requests.
+ * The tokens are computed by Product.nameTokens, the same way as for the products written by the application,
+ * and are written BATCH_SIZE products at a time with one unordered bulk write. Until a product has its tokens
+ * it is not found by prefix searches. Products that already have them are not read, so running it again is cheap.
+ */
+@Component
+public class NameTokensBackfill {
+
+	private static final Logger log = LoggerFactory.getLogger(NameTokensBackfill.class);
+
+	static final int BATCH_SIZE = 1000;
+
+	private final MongoTemplate mongoTemplate;
+	private final ApplicationEventPublisher eventPublisher;
+	private final boolean enabled;
+
+	public NameTokensBackfill(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher,
+			@Value("${products.search.backfill-on-startup:true}") boolean enabled) {
+		this.mongoTemplate = mongoTemplate;
+		this.eventPublisher = eventPublisher;
+		this.enabled = enabled;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if(!enabled) {
+			return;
+		}
+		try {
+			long updated = backfill();
+			if(updated > 0) {
+				log.info("Stored the name tokens of {} products", updated);
+			}
+		} catch(DataAccessException | MongoException e) {
+			//The remaining products get their tokens on the next start, or when their name is written
+			log.warn("Could not backfill the name tokens: {}", e.getMessage());
+		}
+	}
+
+	//Returns the number of products that were updated
+	public long backfill() {
+		Query query = new Query(Criteria.where("name").exists(true).and("nameTokens").exists(false));
+		query.fields().include("name");
+
+		long updated = 0;
+		BulkOperations bulkOperations = null;
+		Set<String> batch = new HashSet<String>();
+		try (Stream<Document> products = mongoTemplate.stream(query, Document.class, ProductIndexes.COLLECTION)) {
+			for(Document product : (Iterable<Document>) products::iterator) {
+				if(!(product.get("name") instanceof String)) {
+					continue;
+				}
+				if(bulkOperations == null) {
+					bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, ProductIndexes.COLLECTION);
+				}
+				//The name is part of the filter, so a product renamed since it was read keeps the tokens of its new name
+				String name = product.getString("name");
+				bulkOperations.updateOne(new Query(Criteria.where("_id").is(product.get("_id")).and("name").is(name)
+						.and("nameTokens").exists(false)), new Update().set("nameTokens", Product.nameTokens(name)));
+				batch.add(product.get("_id").toString());
+				if(batch.size() == BATCH_SIZE) {
+					updated += write(bulkOperations, batch);
+					bulkOperations = null;
+				}
+			}
+		}
+		if(!batch.isEmpty()) {
+			updated += write(bulkOperations, batch);
+		}
+		return updated;
+	}
+
+	private long write(BulkOperations bulkOperations, Set<String> batch) {
+		long modified = bulkOperations.execute().getModifiedCount();
+		//The names are not changed, only their tokens, which the term criteria do not match
+		eventPublisher.publishEvent(ProductChangedEvent.of(new HashSet<String>(batch), false));
+		batch.clear();
+		return modified;
+	}
+}
@@ -0,0 +1,441 @@
+package com.leadtorev.product.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductAttribute;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.mongodb.MongoException;
+
+import jakarta.annotation.PreDestroy;
+
+/**In-memory inverted index of the search fields, enabled with products.bitmap-index.enabled.
+ * 1.Every product gets an int ordinal, and every name, category and attribute maps to a compressed
+ *   bitmap (RoaringBitmap) of the ordinals of the products that have it.
+ * 2.A search is evaluated with bitmap operations: the name bitmap, AND the OR of the category bitmaps,
+ *   AND the AND of the attribute bitmaps. Only the ids of the requested page are returned, and the
+ *   products are then read with one _id $in query.
+ * 3.The index is built from the products collection when the application starts, and every
+ *   ProductChangedEvent that changes the terms re-reads the changed products and updates their postings.
+ *   A change of the terms of all the products rebuilds the index on a background thread, searches go to
+ *   the database meanwhile.
+ * 4.A rebuild reads the collection into new postings without the lock, so writes are not blocked by it.
+ *   The products changed meanwhile are recorded, and re-read once the new postings replace the old ones.
+ * Every attribute (k, v) has its own bitmap, and every entry of the attribute criteria is one required attribute.
+ * Ordinals are never reused, so an id keeps its ordinal after it is deleted and inserted again.
+ * Until the index is built, isReady() is false and searches go to the database.
+ */
+@Component
+public class ProductBitmapIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(ProductBitmapIndex.class);
+
+	//MongoDB sorts strings before ObjectIds, and ObjectIds by their bytes, which is the order of their hex strings
+	static final Comparator<String> ID_ORDER = Comparator
+			.comparing((String id) -> ObjectId.isValid(id))
+			.thenComparing(Comparator.naturalOrder());
+
+	//Fields of a product that are indexed
+	private record Terms(String name, Set<String> categories, Set<ProductAttribute> attributes) {
+	}
+
+	private final MongoTemplate mongoTemplate;
+	private final boolean enabled;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	//Rebuilds the index after a change of all the products, so the thread that published the change does not wait
+	private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "product-bitmap-index");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//True while a rebuild is waiting to start. Changes published meanwhile are read by that rebuild.
+	private final AtomicBoolean rebuildQueued = new AtomicBoolean();
+
+	//Guarded by the lock. The ids changed while a rebuild reads the collection, null when no rebuild runs.
+	private Postings postings = new Postings();
+	private Set<String> changedDuringRebuild;
+
+	private volatile boolean ready;
+
+	public ProductBitmapIndex(MongoTemplate mongoTemplate,
+			@Value("${products.bitmap-index.enabled:false}") boolean enabled) {
+		this.mongoTemplate = mongoTemplate;
+		this.enabled = enabled;
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if(!enabled) {
+			return;
+		}
+		try {
+			rebuild();
+		} catch(DataAccessException | MongoException e) {
+			//Searches keep using the database
+			log.error("Could not build the bitmap index of the products", e);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		rebuildExecutor.shutdownNow();
+	}
+
+	/*Build the index from the whole collection. The new postings are built without the lock, and replace the
+	 * old ones under the write lock once the collection is read. The products changed meanwhile are then re-read.
+	 * The products are read in _id order, which the _id index serves, so the ordinals are given in id order
+	 * and pages are read by rank.
+	 * One rebuild runs at a time.
+	 */
+	public synchronized void rebuild() {
+		Query query = indexedFields(new Query()).with(Sort.by("_id"));
+		ready = false;
+		lock.writeLock().lock();
+		try {
+			changedDuringRebuild = new HashSet<String>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		Set<String> changed;
+		try {
+			long start = System.currentTimeMillis();
+			Postings built = new Postings();
+			try (Stream<Product> products = mongoTemplate.stream(query, Product.class)) {
+				products.forEach(built::add);
+			}
+			lock.writeLock().lock();
+			try {
+				postings = built;
+				changed = changedDuringRebuild;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			log.info("Indexed {} products in {} ms", built.live.getCardinality(), System.currentTimeMillis() - start);
+		} finally {
+			lock.writeLock().lock();
+			try {
+				changedDuringRebuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		update(changed);
+		ready = true;
+	}
+
+	//Re-read the changed products, so the index also follows partial updates
+	@EventListener
+	public void onProductChanged(ProductChangedEvent event) {
+		if(!enabled || !event.isTermsChanged()) {
+			return;
+		}
+		if(event.isAllProducts()) {
+			if(rebuildQueued.compareAndSet(false, true)) {
+				rebuildExecutor.execute(this::runQueuedRebuild);
+			}
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			if(changedDuringRebuild != null) {
+				//Re-read by the rebuild once its postings are in place
+				changedDuringRebuild.addAll(event.getIds());
+				return;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		update(event.getIds());
+	}
+
+	//Read the products again and replace their postings. Products that were not found were deleted.
+	private void update(Set<String> changed) {
+		if(changed.isEmpty()) {
+			return;
+		}
+		List<Product> products = mongoTemplate.find(
+				indexedFields(new Query(Criteria.where("id").in(changed))), Product.class);
+
+		lock.writeLock().lock();
+		try {
+			for(String id : changed) {
+				postings.remove(id);
+			}
+			for(Product product : products) {
+				postings.add(product);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void runQueuedRebuild() {
+		rebuildQueued.set(false);
+		try {
+			rebuild();
+		} catch(DataAccessException | MongoException e) {
+			//Searches keep using the database until the next rebuild
+			log.error("Could not rebuild the bitmap index of the products", e);
+		}
+	}
+
+	private static Query indexedFields(Query query) {
+		query.fields().include("name").include("categories").include("attributes");
+		return query;
+	}
+
+	//Add a product, or replace its postings if it is already indexed
+	public void add(Product product) {
+		lock.writeLock().lock();
+		try {
+			postings.add(product);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(String id) {
+		lock.writeLock().lock();
+		try {
+			postings.remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static Terms terms(Product product) {
+		Set<String> productCategories = product.getCategories() == null
+				? Set.of() : new HashSet<String>(product.getCategories());
+		Set<ProductAttribute> productAttributes = product.getAttributes() == null
+				? Set.of() : new HashSet<ProductAttribute>(product.getAttributes());
+		return new Terms(product.getName(), productCategories, productAttributes);
+	}
+
+	//Ids of the requested page of the products that match the criteria, sorted by id
+	public List<String> search(ProductSearchCriteria criteria, Pageable pageable) {
+		lock.readLock().lock();
+		try {
+			return postings.search(criteria, pageable);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	//Read the products of a page in the order of the ids
+	public List<Product> fetch(Collection<String> pageIds) {
+		if(pageIds.isEmpty()) {
+			return List.of();
+		}
+		Map<String, Product> byId = new HashMap<String, Product>();
+		for(Product product : mongoTemplate.find(new Query(Criteria.where("id").in(pageIds)), Product.class)) {
+			byId.put(product.getId(), product);
+		}
+		List<Product> products = new ArrayList<Product>(pageIds.size());
+		for(String id : pageIds) {
+			Product product = byId.get(id);
+			if(product != null) {
+				products.add(product);
+			}
+		}
+		return products;
+	}
+
+	//Read the requested fields of the products of a page in the order of the ids
+	public List<Document> fetch(Collection<String> pageIds, ProductProjection projection) {
+		if(pageIds.isEmpty()) {
+			return List.of();
+		}
+		Query query = projection.applyTo(new Query(Criteria.where("id").in(pageIds)));
+		Map<String, Document> byId = new HashMap<String, Document>();
+		for(Document product : mongoTemplate.query(Product.class).as(Document.class).matching(query).all()) {
+			byId.put(product.get("_id").toString(), product);
+		}
+		List<Document> products = new ArrayList<Document>(pageIds.size());
+		for(String id : pageIds) {
+			Document product = byId.get(id);
+			if(product != null) {
+				products.add(projection.toView(product));
+			}
+		}
+		return products;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return postings.live.getCardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	//The ordinals and postings of the indexed products. Not thread safe, the index guards it with its lock.
+	private static class Postings {
+
+		private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+		private final List<String> ids = new ArrayList<String>();
+		private final List<Terms> terms = new ArrayList<Terms>();
+		private final RoaringBitmap live = new RoaringBitmap();
+		private final Map<String, RoaringBitmap> names = new HashMap<String, RoaringBitmap>();
+		private final Map<String, RoaringBitmap> categories = new HashMap<String, RoaringBitmap>();
+		private final Map<ProductAttribute, RoaringBitmap> attributes = new HashMap<ProductAttribute, RoaringBitmap>();
+
+		//True while every ordinal was given in increasing id order, then a page can be read by rank without sorting
+		private boolean ordinalsInIdOrder = true;
+
+		void add(Product product) {
+			remove(product.getId());
+			int ordinal = ordinal(product.getId());
+			Terms indexed = terms(product);
+			terms.set(ordinal, indexed);
+			live.add(ordinal);
+			if(indexed.name() != null) {
+				names.computeIfAbsent(indexed.name(), key -> new RoaringBitmap()).add(ordinal);
+			}
+			for(String category : indexed.categories()) {
+				categories.computeIfAbsent(category, key -> new RoaringBitmap()).add(ordinal);
+			}
+			for(ProductAttribute attribute : indexed.attributes()) {
+				attributes.computeIfAbsent(attribute, key -> new RoaringBitmap()).add(ordinal);
+			}
+		}
+
+		void remove(String id) {
+			Integer ordinal = ordinals.get(id);
+			if(ordinal == null || terms.get(ordinal) == null) {
+				return;
+			}
+			Terms indexed = terms.get(ordinal);
+			terms.set(ordinal, null);
+			live.remove(ordinal);
+			if(indexed.name() != null) {
+				removePosting(names, indexed.name(), ordinal);
+			}
+			for(String category : indexed.categories()) {
+				removePosting(categories, category, ordinal);
+			}
+			for(ProductAttribute attribute : indexed.attributes()) {
+				removePosting(attributes, attribute, ordinal);
+			}
+		}
+
+		private static <K> void removePosting(Map<K, RoaringBitmap> postings, K key, int ordinal) {
+			RoaringBitmap bitmap = postings.get(key);
+			bitmap.remove(ordinal);
+			if(bitmap.isEmpty()) {
+				postings.remove(key);
+			}
+		}
+
+		private int ordinal(String id) {
+			Integer ordinal = ordinals.get(id);
+			if(ordinal != null) {
+				return ordinal;
+			}
+			if(!ids.isEmpty() && ID_ORDER.compare(id, ids.get(ids.size() - 1)) < 0) {
+				ordinalsInIdOrder = false;
+			}
+			ordinals.put(id, ids.size());
+			ids.add(id);
+			terms.add(null);
+			return ids.size() - 1;
+		}
+
+		/*Ordinals of the products that match the criteria, with the same rules as ProductQueryBuilder.
+		 * The result can be one of the postings and must not be modified.
+		 */
+		private RoaringBitmap evaluate(ProductSearchCriteria criteria) {
+			List<RoaringBitmap> required = new ArrayList<RoaringBitmap>();
+			if(criteria != null) {
+				if(criteria.getName() != null) {
+					required.add(postings(names, criteria.getName()));
+				}
+				if(criteria.getCategories() != null && !criteria.getCategories().isEmpty()) {
+					List<RoaringBitmap> anyCategory = new ArrayList<RoaringBitmap>();
+					for(String category : new LinkedHashSet<String>(criteria.getCategories())) {
+						anyCategory.add(postings(categories, category));
+					}
+					required.add(FastAggregation.or(anyCategory.iterator()));
+				}
+				for(ProductAttribute attribute : ProductAttribute.fromEntries(criteria.getAttributes())) {
+					required.add(postings(attributes, attribute));
+				}
+			}
+			if(required.isEmpty()) {
+				return live;
+			}
+			if(required.size() == 1) {
+				return required.get(0);
+			}
+			return FastAggregation.and(required.iterator());
+		}
+
+		private static <K> RoaringBitmap postings(Map<K, RoaringBitmap> postings, K key) {
+			RoaringBitmap bitmap = postings.get(key);
+			return bitmap == null ? new RoaringBitmap() : bitmap;
+		}
+
+		List<String> search(ProductSearchCriteria criteria, Pageable pageable) {
+			RoaringBitmap matches = evaluate(criteria);
+			long from = pageable.isPaged() ? pageable.getOffset() : 0;
+			long to = pageable.isPaged() ? Math.min(from + pageable.getPageSize(), matches.getLongCardinality())
+					: matches.getLongCardinality();
+			if(from >= to) {
+				return List.of();
+			}
+
+			List<String> page = new ArrayList<String>((int) (to - from));
+			if(ordinalsInIdOrder) {
+				//Ordinal order is id order, so only the ordinals of the page are visited
+				PeekableIntIterator ordinalIterator = matches.getIntIterator();
+				ordinalIterator.advanceIfNeeded(matches.select((int) from));
+				while(page.size() < to - from && ordinalIterator.hasNext()) {
+					page.add(ids.get(ordinalIterator.next()));
+				}
+				return page;
+			}
+			List<String> matchedIds = new ArrayList<String>(matches.getCardinality());
+			matches.forEach((int ordinal) -> matchedIds.add(ids.get(ordinal)));
+			matchedIds.sort(ID_ORDER);
+			return new ArrayList<String>(matchedIds.subList((int) from, (int) to));
+		}
+	}
+}
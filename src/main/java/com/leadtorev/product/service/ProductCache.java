@@ -0,0 +1,105 @@
+package com.leadtorev.product.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.repository.ProductRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**Read-through cache of products by id, so reads of hot products do not leave the JVM.
+ * The cache holds at most products.cache.maximum-size products, evicting the least used ones,
+ * and an entry expires products.cache.expire-after-write after it was loaded.
+ * Entries are invalidated by ProductChangedEvent after every write. A load that runs while a product
+ * is written cannot leave a stale entry behind:
+ * 1.A single product is loaded under the lock of its key. Invalidating the key waits for the running load,
+ *   and the event is only published after the write.
+ * 2.A bulk load reads the missing products outside of the key locks, so it only caches what it read if no
+ *   product was invalidated since the read started. Each product is put under the lock of its key, so an
+ *   invalidation either comes after the put and removes it, or comes before and stops it.
+ * Products that do not exist are not cached.
+ */
+@Component
+public class ProductCache implements MeterBinder {
+
+	private final ProductRepository productRepository;
+	private final Cache<String, Product> cache;
+
+	//Number of invalidations so far, incremented before the entries are invalidated
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public ProductCache(ProductRepository productRepository,
+			@Value("${products.cache.maximum-size:10000}") long maximumSize,
+			@Value("${products.cache.expire-after-write:10m}") Duration expireAfterWrite) {
+		this.productRepository = productRepository;
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.build();
+	}
+
+	//The product with the given id, loaded from the database on a miss
+	public Optional<Product> get(String id) {
+		return Optional.ofNullable(cache.get(id, key -> productRepository.findById(key).orElse(null)));
+	}
+
+	/*The products with the given ids that exist, by id. The ids that are not in the cache are loaded
+	 * together with one _id $in query.
+	 */
+	public Map<String, Product> getAll(Collection<String> ids) {
+		Map<String, Product> products = new HashMap<String, Product>(cache.getAllPresent(ids));
+		List<String> missing = ids.stream().filter(id -> !products.containsKey(id)).distinct().toList();
+		if(missing.isEmpty()) {
+			return products;
+		}
+		long readAfter = invalidations.get();
+		for(Product product : productRepository.findAllById(missing)) {
+			products.put(product.getId(), product);
+			//The read may be older than a write invalidated meanwhile, then the product is only returned
+			cache.asMap().compute(product.getId(),
+					(id, cached) -> cached != null || invalidations.get() != readAfter ? cached : product);
+		}
+		return products;
+	}
+
+	@EventListener
+	public void onProductChanged(ProductChangedEvent event) {
+		invalidations.incrementAndGet();
+		if(event.isAllProducts()) {
+			cache.invalidateAll();
+		} else {
+			cache.invalidateAll(event.getIds());
+		}
+	}
+
+	//Hits, misses, evictions and size of the cache as metrics tagged cache=products
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, cache, "products");
+	}
+
+	//Hits, misses, loads and evictions since the application started
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	public long size() {
+		return cache.estimatedSize();
+	}
+}
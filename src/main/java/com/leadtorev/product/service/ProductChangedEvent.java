@@ -0,0 +1,60 @@
+package com.leadtorev.product.service;
+
+import java.util.Set;
+
+/**Published after products were written to the database, by ProductService and by the importer.
+ * Caches and in-memory indexes listen to it to drop what they hold about the changed products.
+ * The ids are the products that were inserted, changed or deleted by the write. When the changed
+ * products are not known, allProducts is true and everything has to be dropped.
+ * termsChanged is false when the write did not change the name, categories or attributes of the products
+ * (a rating or a quantity), so the indexes of these fields can ignore it.
+ * Listeners run synchronously on the writing thread, after the write.
+ */
+public class ProductChangedEvent {
+
+	private final Set<String> ids;
+	private final boolean allProducts;
+	private final boolean termsChanged;
+
+	private ProductChangedEvent(Set<String> ids, boolean allProducts, boolean termsChanged) {
+		this.ids = ids;
+		this.allProducts = allProducts;
+		this.termsChanged = termsChanged;
+	}
+
+	public static ProductChangedEvent of(String id) {
+		return of(id, true);
+	}
+
+	public static ProductChangedEvent of(String id, boolean termsChanged) {
+		return new ProductChangedEvent(Set.of(id), false, termsChanged);
+	}
+
+	public static ProductChangedEvent of(Set<String> ids) {
+		return of(ids, true);
+	}
+
+	public static ProductChangedEvent of(Set<String> ids, boolean termsChanged) {
+		return new ProductChangedEvent(Set.copyOf(ids), false, termsChanged);
+	}
+
+	public static ProductChangedEvent allProducts() {
+		return allProducts(true);
+	}
+
+	public static ProductChangedEvent allProducts(boolean termsChanged) {
+		return new ProductChangedEvent(Set.of(), true, termsChanged);
+	}
+
+	public Set<String> getIds() {
+		return ids;
+	}
+
+	public boolean isAllProducts() {
+		return allProducts;
+	}
+
+	public boolean isTermsChanged() {
+		return termsChanged;
+	}
+}
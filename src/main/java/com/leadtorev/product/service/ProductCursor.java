@@ -0,0 +1,140 @@
+package com.leadtorev.product.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import com.leadtorev.product.entity.Product;
+
+/**Position in a sorted listing of products, used for keyset (cursor) pagination.
+ * The cursor holds the sort field and direction and the sort value and _id of the last product of a page.
+ * The next page is read with a range condition on (sort value, _id) that an index on {field: 1, _id: 1}
+ * serves directly, so reading page 10,000 costs the same as reading page 1, and no count is needed.
+ * Clients get the cursor as an opaque token and send it back unchanged.
+ */
+public class ProductCursor {
+
+	//Fields a listing can be sorted on. Every one of them has an index ending with _id.
+	public static final List<String> SORT_FIELDS = List.of("_id", "price", "name");
+
+	private final String field;
+	private final Sort.Direction direction;
+	private final Object value;
+	private final Object lastId;
+
+	private ProductCursor(String field, Sort.Direction direction, Object value, Object lastId) {
+		this.field = field;
+		this.direction = direction;
+		this.value = value;
+		this.lastId = lastId;
+	}
+
+	/*Parse a sort parameter like "price" or "-price" (descending) into the start of a listing.
+	 * "id" is accepted for "_id". Null sorts on _id.
+	 */
+	public static ProductCursor start(String sort) {
+		if(sort == null || sort.isBlank()) {
+			return new ProductCursor("_id", Sort.Direction.ASC, null, null);
+		}
+		Sort.Direction direction = sort.startsWith("-") ? Sort.Direction.DESC : Sort.Direction.ASC;
+		String field = sort.startsWith("-") || sort.startsWith("+") ? sort.substring(1) : sort;
+		if(field.equals("id")) {
+			field = "_id";
+		}
+		if(!SORT_FIELDS.contains(field)) {
+			throw new IllegalArgumentException("Cannot sort on " + field + ", use one of " + SORT_FIELDS);
+		}
+		return new ProductCursor(field, direction, null, null);
+	}
+
+	//Decode a token returned by encode
+	public static ProductCursor decode(String token) {
+		try {
+			Document document = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+			ProductCursor start = start((document.getInteger("d") < 0 ? "-" : "") + document.getString("f"));
+			return new ProductCursor(start.field, start.direction, document.get("v"), document.get("i"));
+		} catch(IllegalArgumentException | JsonParseException | ClassCastException | NullPointerException e) {
+			throw new IllegalArgumentException("Invalid cursor", e);
+		}
+	}
+
+	//The cursor that continues after the given product in the same sort order
+	public ProductCursor after(Product product) {
+		Object sortValue;
+		switch(field) {
+			case "price":
+				sortValue = product.getPrice();
+				break;
+			case "name":
+				sortValue = product.getName();
+				break;
+			default:
+				sortValue = null;
+		}
+		//Ids that are ObjectIds are stored as ObjectIds, other ids as strings
+		Object id = ObjectId.isValid(product.getId()) ? new ObjectId(product.getId()) : product.getId();
+		return new ProductCursor(field, direction, sortValue, id);
+	}
+
+	//The cursor that continues after the given product document, read with a projection that includes the sort field
+	public ProductCursor after(Document product) {
+		return new ProductCursor(field, direction, field.equals("_id") ? null : product.get(field), product.get("_id"));
+	}
+
+	public String encode() {
+		Document document = new Document("f", field)
+				.append("d", direction.isAscending() ? 1 : -1)
+				.append("v", value)
+				.append("i", lastId);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(document.toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*Condition for the products after this cursor, or an empty criteria at the start of the listing.
+	 * For a sort on price this is {price: {$gte: v}, $nor: [{price: v, _id: {$lte: id}}]}: the index bounds are a
+	 * single range on price that is read in sort order, and the $nor only removes the products of the previous
+	 * pages that have the same price. An $or of the two cases would need a blocking sort of both branches.
+	 * Products without the field sort before every value, but a range on a value never matches them. After a
+	 * product without the field they are matched by _id, and in a descending listing, where they come last,
+	 * they are added to the range with an $or.
+	 */
+	public Criteria toCriteria() {
+		if(lastId == null) {
+			return new Criteria();
+		}
+		boolean ascending = direction.isAscending();
+		if(field.equals("_id")) {
+			return ascending ? Criteria.where("_id").gt(lastId) : Criteria.where("_id").lt(lastId);
+		}
+		if(value == null) {
+			//The products without the field after this one, then, when ascending, all the products with a value
+			Criteria nextWithout = ascending
+					? Criteria.where(field).is(null).and("_id").gt(lastId)
+					: Criteria.where(field).is(null).and("_id").lt(lastId);
+			return ascending ? new Criteria().orOperator(Criteria.where(field).ne(null), nextWithout) : nextWithout;
+		}
+		Criteria fromValue = ascending ? Criteria.where(field).gte(value) : Criteria.where(field).lte(value);
+		Criteria samePreviousPages = ascending
+				? Criteria.where(field).is(value).and("_id").lte(lastId)
+				: Criteria.where(field).is(value).and("_id").gte(lastId);
+		Criteria afterValue = fromValue.norOperator(samePreviousPages);
+		return ascending ? afterValue : new Criteria().orOperator(afterValue, Criteria.where(field).is(null));
+	}
+
+	//Sort on the field with _id as tie breaker, so the order is total and no product is skipped or repeated
+	public Sort toSort() {
+		if(field.equals("_id")) {
+			return Sort.by(direction, "_id");
+		}
+		return Sort.by(direction, field).and(Sort.by(direction, "_id"));
+	}
+
+	public String getField() {
+		return field;
+	}
+}
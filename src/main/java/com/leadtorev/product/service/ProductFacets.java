@@ -0,0 +1,277 @@
+package com.leadtorev.product.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.config.ProductIndexes;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.mongodb.MongoExecutionTimeoutException;
+
+/**Faceted search: one page of the products that match a ProductSearchCriteria, with the number of matching
+ * products per category, per attribute value and per price range, for the filters of a storefront.
+ * 1.Everything is computed by one aggregation. The criteria are the first $match, built by ProductQueryBuilder,
+ *   so the matching products are found with the same indexes as a search and only they are read.
+ * 2.A single $facet stage then computes the page, the total and every requested facet from those products,
+ *   instead of one query per facet.
+ * 3.The aggregation runs with maxTimeMS (products.facets.max-time). A search that matches too much of a large
+ *   catalog to be counted within that budget fails with a QueryTimeoutException instead of slowing down others.
+ * Facets list at most products.facets.max-values values each, the most frequent first.
+ */
+@Component
+public class ProductFacets {
+
+	//Facets that can be requested
+	public static final List<String> FACETS = List.of("categories", "attributes", "price");
+
+	//Label of the price bucket of the prices below the first boundary
+	static final String OTHER_PRICES = "other";
+
+	private final MongoTemplate mongoTemplate;
+	private final ProductQueryBuilder productQueryBuilder;
+	private final List<String> defaultFacets;
+	private final List<Double> defaultPriceBoundaries;
+	private final int maxValues;
+	private final Duration maxTime;
+
+	@Value("${products.listing.default-page-size:50}")
+	private int defaultPageSize;
+
+	@Value("${products.listing.max-page-size:500}")
+	private int maxPageSize;
+
+	public ProductFacets(MongoTemplate mongoTemplate, ProductQueryBuilder productQueryBuilder,
+			@Value("${products.facets.fields:categories,attributes,price}") String defaultFacets,
+			@Value("${products.facets.price-boundaries:0,25,50,100,250,500,1000}") String defaultPriceBoundaries,
+			@Value("${products.facets.max-values:20}") int maxValues,
+			@Value("${products.facets.max-time:500ms}") Duration maxTime) {
+		this.mongoTemplate = mongoTemplate;
+		this.productQueryBuilder = productQueryBuilder;
+		this.defaultFacets = parseFacets(defaultFacets);
+		this.defaultPriceBoundaries = parseBoundaries(defaultPriceBoundaries);
+		this.maxValues = maxValues;
+		this.maxTime = maxTime;
+	}
+
+	/*The page of products, the total and the requested facets. Null facets or boundaries take the configured ones.
+	 * Throws IllegalArgumentException for unknown facets or invalid boundaries.
+	 */
+	public Map<String, Object> search(ProductSearchCriteria criteria, Integer pageNumber, Integer pageSize,
+			ProductProjection projection, String facets, String priceBoundaries) {
+		List<String> requested = facets == null || facets.isBlank() ? defaultFacets : parseFacets(facets);
+		List<Double> boundaries = priceBoundaries == null || priceBoundaries.isBlank()
+				? defaultPriceBoundaries : parseBoundaries(priceBoundaries);
+		int size = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+		long skip = pageNumber == null || pageNumber < 0 ? 0 : (long) pageNumber * size;
+		//The page is sorted and limited like a search, see ProductQueryBuilder.build
+		Query search = productQueryBuilder.build(criteria, null);
+		if(criteria != null && criteria.getTop() != null) {
+			size = Math.min(criteria.getTop(), maxPageSize);
+			skip = 0;
+		}
+
+		TextCriteria text = productQueryBuilder.textCriteria(criteria);
+		List<AggregationOperation> pipeline = new ArrayList<AggregationOperation>();
+		for(Document stage : pipeline(text, productQueryBuilder.toCriteria(criteria), search.getSortObject(), skip, size,
+				projection, requested, boundaries, maxValues)) {
+			pipeline.add(context -> stage);
+		}
+		Aggregation aggregation = Aggregation.newAggregation(pipeline)
+				.withOptions(AggregationOptions.builder().maxTime(maxTime).build());
+
+		Document result;
+		try {
+			result = mongoTemplate.aggregate(aggregation, ProductIndexes.COLLECTION, Document.class).getUniqueMappedResult();
+		} catch(DataAccessException e) {
+			if(e.getMostSpecificCause() instanceof MongoExecutionTimeoutException) {
+				throw new QueryTimeoutException("The facets could not be computed within " + maxTime.toMillis()
+						+ " ms, narrow the search", e);
+			}
+			throw e;
+		}
+
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		List<Document> totals = result.getList("total", Document.class);
+		body.put("total", totals.isEmpty() ? 0 : ((Number) totals.get(0).get("count")).longValue());
+		List<Document> products = result.getList("results", Document.class);
+		body.put("results", projection != null ? products.stream().map(projection::toView).toList()
+				: products.stream().map(product -> mongoTemplate.getConverter().read(Product.class, product)).toList());
+		body.put("facets", toFacets(result, requested, boundaries));
+		return body;
+	}
+
+	/*The stages of the aggregation. $text has to be in the first $match, so the text criteria and the other
+	 * criteria are two $match stages, which the server merges into one. The text score is added before $facet,
+	 * where it is still known, so the page can be sorted on it like a search.
+	 */
+	static List<Document> pipeline(TextCriteria text, Criteria filters, Document sort, long skip, int size,
+			ProductProjection projection, List<String> facets, List<Double> boundaries, int maxValues) {
+		List<Document> stages = new ArrayList<Document>();
+		if(text != null) {
+			stages.add(new Document("$match", text.getCriteriaObject()));
+			stages.add(new Document("$addFields", new Document("score", new Document("$meta", "textScore"))));
+		}
+		Document match = filters.getCriteriaObject();
+		if(!match.isEmpty()) {
+			stages.add(new Document("$match", match));
+		}
+
+		List<Document> page = new ArrayList<Document>();
+		//The score is a field of the documents here, {$meta: "textScore"} is only known before $facet
+		Document pageSort = new Document();
+		for(Map.Entry<String, Object> key : sort.entrySet()) {
+			pageSort.append(key.getKey(), key.getValue() instanceof Document ? -1 : key.getValue());
+		}
+		page.add(new Document("$sort", pageSort));
+		if(skip > 0) {
+			page.add(new Document("$skip", skip));
+		}
+		page.add(new Document("$limit", size));
+		if(projection != null) {
+			Document fields = projection.applyTo(new Query()).getFieldsObject();
+			if(text != null) {
+				fields.append("score", 1);
+			}
+			page.add(new Document("$project", fields));
+		}
+
+		Document facetStages = new Document("results", page)
+				.append("total", List.of(new Document("$count", "count")));
+		if(facets.contains("categories")) {
+			facetStages.append("categories", List.of(
+					new Document("$unwind", "$categories"),
+					new Document("$group", new Document("_id", "$categories").append("count", new Document("$sum", 1))),
+					new Document("$sort", new Document("count", -1).append("_id", 1)),
+					new Document("$limit", maxValues)));
+		}
+		if(facets.contains("attributes")) {
+			//Values of each attribute, most frequent first, grouped by attribute
+			facetStages.append("attributes", List.of(
+					new Document("$unwind", "$attributes"),
+					new Document("$group", new Document("_id", new Document("k", "$attributes.k").append("v", "$attributes.v"))
+							.append("count", new Document("$sum", 1))),
+					new Document("$sort", new Document("count", -1).append("_id.v", 1)),
+					new Document("$group", new Document("_id", "$_id.k")
+							.append("values", new Document("$push", new Document("value", "$_id.v").append("count", "$count")))),
+					new Document("$project", new Document("values", new Document("$slice", List.of("$values", maxValues)))),
+					new Document("$sort", new Document("_id", 1))));
+		}
+		if(facets.contains("price")) {
+			//The last range has no upper bound, prices below the first boundary are counted as other
+			List<Object> bucketBoundaries = new ArrayList<Object>(boundaries);
+			bucketBoundaries.add(Double.POSITIVE_INFINITY);
+			facetStages.append("price", List.of(new Document("$bucket", new Document("groupBy", "$price")
+					.append("boundaries", bucketBoundaries)
+					.append("default", OTHER_PRICES)
+					.append("output", new Document("count", new Document("$sum", 1))))));
+		}
+		stages.add(new Document("$facet", facetStages));
+		return stages;
+	}
+
+	//The facets in the response form. Price ranges without products are listed with a count of 0.
+	static Map<String, Object> toFacets(Document result, List<String> facets, List<Double> boundaries) {
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		if(facets.contains("categories")) {
+			List<Map<String, Object>> categories = new ArrayList<Map<String, Object>>();
+			for(Document category : result.getList("categories", Document.class)) {
+				categories.add(valueCount(category.get("_id"), category.get("count")));
+			}
+			body.put("categories", categories);
+		}
+		if(facets.contains("attributes")) {
+			Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+			for(Document attribute : result.getList("attributes", Document.class)) {
+				List<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+				for(Document value : attribute.getList("values", Document.class)) {
+					values.add(valueCount(value.get("value"), value.get("count")));
+				}
+				attributes.put(String.valueOf(attribute.get("_id")), values);
+			}
+			body.put("attributes", attributes);
+		}
+		if(facets.contains("price")) {
+			Map<Object, Number> counts = new LinkedHashMap<Object, Number>();
+			for(Document bucket : result.getList("price", Document.class)) {
+				Object id = bucket.get("_id");
+				counts.put(id instanceof Number ? (Object) ((Number) id).doubleValue() : id, (Number) bucket.get("count"));
+			}
+			List<Map<String, Object>> ranges = new ArrayList<Map<String, Object>>();
+			for(int i = 0; i < boundaries.size(); i++) {
+				Map<String, Object> range = new LinkedHashMap<String, Object>();
+				range.put("from", boundaries.get(i));
+				range.put("to", i + 1 < boundaries.size() ? boundaries.get(i + 1) : null);
+				range.put("count", counts.getOrDefault(boundaries.get(i), 0).longValue());
+				ranges.add(range);
+			}
+			if(counts.containsKey(OTHER_PRICES)) {
+				Map<String, Object> other = new LinkedHashMap<String, Object>();
+				other.put("from", null);
+				other.put("to", boundaries.get(0));
+				other.put("count", counts.get(OTHER_PRICES).longValue());
+				ranges.add(0, other);
+			}
+			body.put("price", ranges);
+		}
+		return body;
+	}
+
+	private static Map<String, Object> valueCount(Object value, Object count) {
+		Map<String, Object> entry = new LinkedHashMap<String, Object>();
+		entry.put("value", value);
+		entry.put("count", ((Number) count).longValue());
+		return entry;
+	}
+
+	//A comma separated list of FACETS, e.g. "categories,price"
+	static List<String> parseFacets(String facets) {
+		Set<String> parsed = new LinkedHashSet<String>();
+		for(String facet : facets.split(",")) {
+			String name = facet.trim();
+			if(name.isEmpty()) {
+				continue;
+			}
+			if(!FACETS.contains(name)) {
+				throw new IllegalArgumentException("Unknown facet " + name + ", use any of " + FACETS);
+			}
+			parsed.add(name);
+		}
+		return List.copyOf(parsed);
+	}
+
+	//A comma separated list of increasing prices, e.g. "0,50,100". Each one is the lower bound of a range.
+	static List<Double> parseBoundaries(String boundaries) {
+		List<Double> parsed = new ArrayList<Double>();
+		try {
+			for(String boundary : Arrays.asList(boundaries.split(","))) {
+				double value = Double.parseDouble(boundary.trim());
+				if(!Double.isFinite(value) || (!parsed.isEmpty() && value <= parsed.get(parsed.size() - 1))) {
+					throw new IllegalArgumentException("Price boundaries must be increasing numbers: " + boundaries);
+				}
+				parsed.add(value);
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Price boundaries must be increasing numbers: " + boundaries, e);
+		}
+		return List.copyOf(parsed);
+	}
+}
@@ -0,0 +1,454 @@
+package com.leadtorev.product.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.ImportResult;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.Ratings;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+/**Imports a json array of products from a stream without loading the whole file into memory.
+ * The array is read token by token with the Jackson streaming parser, one product at a time,
+ * and the products are written in fixed-size batches with unordered bulk writes.
+ * Only one batch is held in memory at a time, so the memory used does not depend on the size of the file.
+ *
+ * In DELTA mode the products are matched on the natural key and only new or changed products are written,
+ * see ImportMode. Every imported product stores a hash of its content fields to detect the changes.
+ * Two upserts of the same new key at the same time would both insert it, so without a unique index on the
+ * natural key (products.import.unique-natural-key) the DELTA batches of all the imports of this application are
+ * written one at a time. Imports from more than one instance of the application need the unique index.
+ */
+@Component
+public class ProductImporter {
+
+	//Error code of MongoDB for a duplicate key
+	private static final int DUPLICATE_KEY = 11000;
+
+	//Fields of the product document that come from the import file. They are hashed, and set or unset by a delta import.
+	//Fields maintained by the application, like _id and contentHash, are not part of the content.
+	static final List<String> CONTENT_FIELDS = List.of("name", "description", "price", "categories",
+			"attributes", "availability");
+
+	//The ratings also come from the file and are hashed, but they are stored by ProductRatingStore
+	static final List<String> HASHED_FIELDS = List.of("name", "description", "price", "categories",
+			"attributes", "availability", "ratings");
+
+	//Fields computed from the content, like the words of the name for prefix search, written together with it
+	static final List<String> DERIVED_FIELDS = List.of("nameTokens");
+
+	//Fields computed from the ratings, written together with them
+	static final List<String> RATING_AGGREGATES = List.of("ratingCount", "ratingSum", "averageRating");
+
+	private final MongoTemplate mongoTemplate;
+	private final ObjectMapper objectMapper;
+	private final ApplicationEventPublisher eventPublisher;
+	private final ProductRatingStore productRatingStore;
+	private final ProductMetrics productMetrics;
+	private final int batchSize;
+	private final String naturalKey;
+	private final boolean uniqueNaturalKey;
+
+	//Held while a DELTA batch is looked up and written, when the natural key is not unique
+	private final ReentrantLock deltaLock = new ReentrantLock();
+
+	//Receives every batch read from the file, in the order of the file
+	interface BatchHandler {
+		void handle(ImportBatch batch);
+	}
+
+	public ProductImporter(MongoTemplate mongoTemplate, ObjectMapper objectMapper, ApplicationEventPublisher eventPublisher,
+			ProductRatingStore productRatingStore, ProductMetrics productMetrics,
+			@Value("${products.import.batch-size:1000}") int batchSize,
+			@Value("${products.import.natural-key:name}") String naturalKey,
+			@Value("${products.import.unique-natural-key:false}") boolean uniqueNaturalKey) {
+		this.mongoTemplate = mongoTemplate;
+		this.objectMapper = objectMapper;
+		this.eventPublisher = eventPublisher;
+		this.productRatingStore = productRatingStore;
+		this.productMetrics = productMetrics;
+		this.batchSize = batchSize;
+		this.naturalKey = naturalKey;
+		this.uniqueNaturalKey = uniqueNaturalKey;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	//Read the json array from the stream and write the products batch by batch
+	public ImportResult importProducts(InputStream inputStream, ImportMode mode, boolean deleteMissing) throws IOException {
+		ImportResult result = new ImportResult();
+		long start = System.currentTimeMillis();
+
+		//Natural keys of all the records in the file, only kept when the missing products have to be deleted
+		Set<String> seenKeys = deleteMissing && mode == ImportMode.DELTA ? new HashSet<String>() : null;
+
+		String error = readBatches(inputStream, batchSize, 0, batch -> {
+			if(seenKeys != null) {
+				seenKeys.addAll(naturalKeys(batch));
+			}
+			writeBatch(batch, mode, false);
+			batch.addTo(result);
+		});
+
+		if(error != null) {
+			//Everything read before the error is still written
+			result.addError(error);
+			result.setComplete(false);
+		} else if(seenKeys != null) {
+			//Only a file that was read completely can tell which products are missing
+			result.addDeleted(deleteMissing(seenKeys));
+		}
+		result.setElapsedMillis(System.currentTimeMillis() - start);
+		return result;
+	}
+
+	/*Read the json array and pass it to the handler in batches of batchSize records.
+	 * Batches before firstBatch are skipped without binding their records, which is used to resume an import.
+	 * Returns null when the whole array was read, otherwise the reason why reading stopped.
+	 */
+	String readBatches(InputStream inputStream, int batchSize, int firstBatch, BatchHandler handler) throws IOException {
+		ImportBatch batch = new ImportBatch(0, 0, batchSize);
+		long ordinal = 0;
+		String error = null;
+
+		try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+			if(parser.nextToken() != JsonToken.START_ARRAY) {
+				return "Expected a json array of products";
+			}
+
+			JsonToken token;
+			while((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+				if(batch.index < firstBatch) {
+					parser.skipChildren();
+				} else {
+					//Read one product as a tree first, so that a record with wrong field types can be skipped
+					//without losing the position of the parser in the array
+					JsonNode node = parser.readValueAsTree();
+					try {
+						batch.products.add(objectMapper.treeToValue(node, Product.class));
+					} catch(JsonProcessingException e) {
+						batch.addError(1, "Record " + ordinal + ": " + e.getOriginalMessage());
+					}
+				}
+				batch.received++;
+				ordinal++;
+
+				if(batch.received == batchSize) {
+					if(batch.index >= firstBatch) {
+						handler.handle(batch);
+					}
+					batch = new ImportBatch(batch.index + 1, ordinal, batchSize);
+				}
+			}
+			if(token != JsonToken.END_ARRAY) {
+				error = "Expected a product object after record " + ordinal + " but found " + token;
+			}
+		} catch(JsonProcessingException e) {
+			error = "Malformed json after record " + ordinal + ": " + e.getOriginalMessage();
+		}
+
+		if(batch.received > 0 && batch.index >= firstBatch) {
+			handler.handle(batch);
+		}
+		return error;
+	}
+
+	//Read a whole file and return the natural keys of its records
+	Set<String> readNaturalKeys(InputStream inputStream) throws IOException {
+		Set<String> keys = new HashSet<String>();
+		readBatches(inputStream, batchSize, 0, batch -> keys.addAll(naturalKeys(batch)));
+		return keys;
+	}
+
+	//Write one batch in the given mode
+	void writeBatch(ImportBatch batch, ImportMode mode, boolean ignoreDuplicates) {
+		if(batch.products.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		if(mode == ImportMode.DELTA && uniqueNaturalKey) {
+			upsertChanged(batch);
+		} else if(mode == ImportMode.DELTA) {
+			deltaLock.lock();
+			try {
+				upsertChanged(batch);
+			} finally {
+				deltaLock.unlock();
+			}
+		} else {
+			insert(batch, ignoreDuplicates);
+		}
+		productMetrics.recordImportBatch(mode, batch, System.nanoTime() - start);
+	}
+
+	/*Insert one batch. The bulk write is unordered, so one bad document does not stop the rest of the batch.
+	 * When ignoreDuplicates is true, documents rejected because their _id already exists are counted
+	 * as inserted. This is used when a batch is written again after an import was resumed.
+	 * The ratings of the inserted products are then stored in buckets, replacing the buckets of an earlier attempt.
+	 */
+	private void insert(ImportBatch batch, boolean ignoreDuplicates) {
+		Set<String> ids = new HashSet<String>();
+		for(Product product : batch.products) {
+			//The id is given here rather than by the driver, so the inserted products can be named in the event
+			if(product.getId() == null) {
+				product.setId(new ObjectId().toHexString());
+			}
+			ids.add(product.getId());
+			product.setVersion(1);
+			product.updateRatingAggregates();
+			product.setContentHash(contentHash(withRatings(toDocument(product), product)));
+		}
+		Set<Integer> failed = new HashSet<Integer>();
+		try {
+			mongoTemplate.bulkOps(BulkMode.UNORDERED, Product.class)
+					.insert(batch.products)
+					.execute();
+			batch.inserted += batch.products.size();
+		} catch(BulkOperationException e) {
+			long duplicates = 0;
+			BulkWriteError firstError = null;
+			for(BulkWriteError writeError : e.getErrors()) {
+				if(ignoreDuplicates && writeError.getCode() == DUPLICATE_KEY) {
+					duplicates++;
+					continue;
+				}
+				failed.add(writeError.getIndex());
+				if(firstError == null) {
+					firstError = writeError;
+				}
+			}
+			long failures = e.getErrors().size() - duplicates;
+			batch.inserted += e.getResult().getInsertedCount() + duplicates;
+			if(failures > 0) {
+				batch.addError(failures, "Batch " + batch.index + ": " + failures
+						+ " documents failed, first error: " + firstError.getMessage());
+			}
+		}
+
+		Map<String, List<Ratings>> ratings = new HashMap<String, List<Ratings>>();
+		for(int i = 0; i < batch.products.size(); i++) {
+			Product product = batch.products.get(i);
+			if(!failed.contains(i) && product.getRatings() != null && !product.getRatings().isEmpty()) {
+				ratings.put(product.getId(), product.getRatings());
+			}
+		}
+		productRatingStore.replace(ratings);
+		eventPublisher.publishEvent(ProductChangedEvent.of(ids));
+	}
+
+	/*Upsert the new and changed products of a batch, matched on the natural key.
+	 * The stored hashes of the whole batch are read with one query, and all the writes are sent as one bulk write.
+	 * Updating with $set and $unset keeps the fields that are maintained by the application.
+	 * New products get their _id here, so the ratings of every written product can be replaced by its id.
+	 */
+	private void upsertChanged(ImportBatch batch) {
+		//Content of the batch by natural key. When a key appears twice in the batch the last record wins.
+		Map<Object, Document> documents = new LinkedHashMap<Object, Document>();
+		Map<Object, List<Ratings>> ratingsByKey = new HashMap<Object, List<Ratings>>();
+		for(Product product : batch.products) {
+			product.updateRatingAggregates();
+			Document document = withRatings(toDocument(product), product);
+			Object key = naturalKey(document);
+			if(key == null) {
+				batch.addError(1, "Batch " + batch.index + ": record without " + naturalKey + " skipped");
+				continue;
+			}
+			if(documents.put(key, document) != null) {
+				batch.unchanged++;
+			}
+			ratingsByKey.put(key, product.getRatings() == null ? List.of() : product.getRatings());
+		}
+		if(documents.isEmpty()) {
+			return;
+		}
+
+		Map<Object, Document> stored = storedProducts(documents.keySet());
+
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, Product.class);
+		List<String> writtenIds = new ArrayList<String>();
+		List<Object> writtenKeys = new ArrayList<Object>();
+		for(Map.Entry<Object, Document> entry : documents.entrySet()) {
+			String hash = contentHash(entry.getValue());
+			Document storedProduct = stored.get(entry.getKey());
+			if(storedProduct != null && hash.equals(storedProduct.getString("contentHash"))) {
+				batch.unchanged++;
+				continue;
+			}
+			ObjectId newId = new ObjectId();
+			writtenIds.add(storedProduct != null ? storedProduct.get("_id").toString() : newId.toHexString());
+			writtenKeys.add(entry.getKey());
+			Update update = ProductVersions.increment(new Update().set("contentHash", hash).setOnInsert("_id", newId));
+			for(String field : Stream.concat(CONTENT_FIELDS.stream(), DERIVED_FIELDS.stream()).toList()) {
+				if(entry.getValue().containsKey(field)) {
+					update.set(field, entry.getValue().get(field));
+				} else {
+					update.unset(field);
+				}
+			}
+			for(String field : RATING_AGGREGATES) {
+				update.set(field, entry.getValue().get(field));
+			}
+			bulkOperations.upsert(new Query(Criteria.where(naturalKey).is(entry.getKey())), update);
+		}
+		if(writtenIds.isEmpty()) {
+			return;
+		}
+
+		Set<Integer> failed = new HashSet<Integer>();
+		try {
+			BulkWriteResult result = bulkOperations.execute();
+			batch.inserted += result.getUpserts().size();
+			batch.updated += result.getMatchedCount();
+		} catch(BulkOperationException e) {
+			batch.inserted += e.getResult().getUpserts().size();
+			batch.updated += e.getResult().getMatchedCount();
+			batch.addError(e.getErrors().size(), "Batch " + batch.index + ": " + e.getErrors().size()
+					+ " documents failed, first error: " + e.getErrors().get(0).getMessage());
+			for(BulkWriteError writeError : e.getErrors()) {
+				failed.add(writeError.getIndex());
+			}
+		}
+
+		//The ratings in the file replace the stored ratings of every written product
+		Map<String, List<Ratings>> ratings = new HashMap<String, List<Ratings>>();
+		for(int i = 0; i < writtenIds.size(); i++) {
+			if(!failed.contains(i)) {
+				ratings.put(writtenIds.get(i), ratingsByKey.get(writtenKeys.get(i)));
+			}
+		}
+		productRatingStore.replace(ratings);
+		eventPublisher.publishEvent(ProductChangedEvent.of(new HashSet<String>(writtenIds)));
+	}
+
+	//Read the _id and content hash of the products with the given natural keys, by natural key
+	private Map<Object, Document> storedProducts(Set<Object> keys) {
+		Query query = new Query(Criteria.where(naturalKey).in(keys));
+		query.fields().include(naturalKey).include("contentHash");
+
+		Map<Object, Document> hashes = new HashMap<Object, Document>();
+		for(Document stored : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Product.class))) {
+			hashes.put(naturalKey(stored), stored);
+		}
+		return hashes;
+	}
+
+	//Delete the products whose natural key is not in the given set, in batches of batchSize
+	long deleteMissing(Set<String> seenKeys) {
+		Query query = new Query();
+		query.fields().include(naturalKey);
+
+		long deleted = 0;
+		List<Object> missing = new ArrayList<Object>(batchSize);
+		try (Stream<Document> stored = mongoTemplate.stream(query, Document.class,
+				mongoTemplate.getCollectionName(Product.class))) {
+			for(Document document : (Iterable<Document>) stored::iterator) {
+				Object key = naturalKey(document);
+				if(key != null && !seenKeys.contains(key.toString())) {
+					missing.add(document.get("_id"));
+				}
+				if(missing.size() == batchSize) {
+					deleted += remove(missing);
+				}
+			}
+		}
+		return deleted + remove(missing);
+	}
+
+	private long remove(List<Object> ids) {
+		if(ids.isEmpty()) {
+			return 0;
+		}
+		long removed = mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), Product.class).getDeletedCount();
+		Set<String> removedIds = new HashSet<String>();
+		for(Object id : ids) {
+			removedIds.add(id.toString());
+		}
+		productRatingStore.delete(removedIds);
+		eventPublisher.publishEvent(ProductChangedEvent.of(removedIds));
+		ids.clear();
+		return removed;
+	}
+
+	//Natural keys of the products of a batch, as strings
+	private Set<String> naturalKeys(ImportBatch batch) {
+		Set<String> keys = new HashSet<String>();
+		for(Product product : batch.products) {
+			Object key = naturalKey(toDocument(product));
+			if(key != null) {
+				keys.add(key.toString());
+			}
+		}
+		return keys;
+	}
+
+	//The natural key can be a nested field, e.g. "supplier.sku"
+	private Object naturalKey(Document document) {
+		return document.getEmbedded(Arrays.asList(naturalKey.split("\\.")), Object.class);
+	}
+
+	//The product as it is stored in MongoDB
+	private Document toDocument(Product product) {
+		Document document = new Document();
+		mongoTemplate.getConverter().write(product, document);
+		return document;
+	}
+
+	//The ratings are not part of the product document, they are added for the content hash
+	private Document withRatings(Document document, Product product) {
+		if(product.getRatings() != null) {
+			document.put("ratings", mongoTemplate.getConverter().convertToMongoType(product.getRatings()));
+		}
+		return document;
+	}
+
+	//SHA-256 of the content fields in a fixed order
+	static String contentHash(Document document) {
+		Document content = new Document();
+		for(String field : HASHED_FIELDS) {
+			content.put(field, document.get(field));
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(content.toJson().getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(hash);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.leadtorev.product.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.entity.ImportMode;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**Metrics of the work done by ProductService and ProductImporter, exposed on /actuator/prometheus.
+ * 1.products.search.results    - products in a search page read from the database or the bitmap index (tag source).
+ *   Searches answered by ProductSearchCache are counted by the cache metrics instead.
+ * 2.products.listing.results   - products in a page of /products/all-products.
+ * 3.products.import.records    - records of imports and import jobs by mode and outcome, and products.import.batches
+ *   the time to write one batch.
+ * Meters are created once here, so recording does not look them up in the registry.
+ */
+@Component
+public class ProductMetrics {
+
+	private final MeterRegistry meterRegistry;
+	private final DistributionSummary bitmapSearchResults;
+	private final DistributionSummary mongoSearchResults;
+	private final DistributionSummary listingResults;
+
+	public ProductMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		this.bitmapSearchResults = searchResults("bitmap-index");
+		this.mongoSearchResults = searchResults("mongodb");
+		this.listingResults = DistributionSummary.builder("products.listing.results")
+				.description("Products in a page of the listing")
+				.baseUnit("products")
+				.register(meterRegistry);
+	}
+
+	private DistributionSummary searchResults(String source) {
+		return DistributionSummary.builder("products.search.results")
+				.description("Products in a search page that was not cached")
+				.baseUnit("products")
+				.tag("source", source)
+				.register(meterRegistry);
+	}
+
+	void recordSearch(boolean bitmapIndex, int results) {
+		(bitmapIndex ? bitmapSearchResults : mongoSearchResults).record(results);
+	}
+
+	void recordListing(int results) {
+		listingResults.record(results);
+	}
+
+	//The counters are tagged with the mode, of which there are only a few, so they are looked up when recorded
+	void recordImportBatch(ImportMode mode, ImportBatch batch, long nanos) {
+		Timer.builder("products.import.batches")
+				.description("Time to write one batch of an import")
+				.tag("mode", mode.name())
+				.register(meterRegistry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+		importRecords(mode, "inserted").increment(batch.inserted);
+		importRecords(mode, "updated").increment(batch.updated);
+		importRecords(mode, "unchanged").increment(batch.unchanged);
+		importRecords(mode, "failed").increment(batch.failed);
+	}
+
+	private Counter importRecords(ImportMode mode, String outcome) {
+		return Counter.builder("products.import.records")
+				.description("Records of imported files by outcome")
+				.tag("mode", mode.name())
+				.tag("outcome", outcome)
+				.register(meterRegistry);
+	}
+}
@@ -0,0 +1,112 @@
+package com.leadtorev.product.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**Fields of the products returned by a listing or a search, from the fields and view request parameters.
+ * 1.fields - a comma separated list of product fields, e.g. "name,price".
+ * 2.view   - "summary" for the fields of a list page: id, name, price, availability and averageRating.
+ * The fields are applied as a MongoDB projection, so the other fields are not read from disk, sent by
+ * the database or deserialized. The products are returned as documents with only these fields.
+ */
+public final class ProductProjection {
+
+	//Fields that can be requested. Ratings are not part of the product document.
+	public static final List<String> FIELDS = List.of("id", "name", "description", "price", "categories",
+			"attributes", "availability", "ratingCount", "ratingSum", "averageRating", "version");
+
+	public static final List<String> SUMMARY = List.of("id", "name", "price", "availability", "averageRating");
+
+	private final Set<String> fields;
+
+	private ProductProjection(Set<String> fields) {
+		this.fields = fields;
+	}
+
+	/*Parse the request parameters. Returns null when neither is given, which means whole products.
+	 * When both are given the fields are added to the view.
+	 */
+	public static ProductProjection parse(String fields, String view) {
+		boolean hasFields = fields != null && !fields.isBlank();
+		boolean hasView = view != null && !view.isBlank() && !view.equals("full");
+		if(!hasFields && !hasView) {
+			return null;
+		}
+
+		//Sorted, so the same fields in another order are the same projection
+		Set<String> selected = new TreeSet<String>();
+		if(hasView) {
+			if(!view.equals("summary")) {
+				throw new IllegalArgumentException("Unknown view " + view + ", use summary or full");
+			}
+			selected.addAll(SUMMARY);
+		}
+		if(hasFields) {
+			for(String field : Arrays.asList(fields.split(","))) {
+				String name = field.trim();
+				if(!FIELDS.contains(name)) {
+					throw new IllegalArgumentException("Unknown field " + name + ", use any of " + FIELDS);
+				}
+				selected.add(name);
+			}
+		}
+		return new ProductProjection(selected);
+	}
+
+	public Set<String> getFields() {
+		return fields;
+	}
+
+	//Include the fields in the query, and the fields the service needs itself, like the sort field of a cursor
+	public Query applyTo(Query query, String... alsoRead) {
+		for(String field : fields) {
+			query.fields().include(field.equals("id") ? "_id" : field);
+		}
+		for(String field : alsoRead) {
+			query.fields().include(field);
+		}
+		return query;
+	}
+
+	//The document as returned to the client: _id as id, and only the requested fields
+	public Document toView(Document document) {
+		Document view = new Document();
+		if(fields.contains("id")) {
+			Object id = document.get("_id");
+			view.put("id", id instanceof ObjectId ? ((ObjectId) id).toHexString() : id);
+		}
+		for(String field : fields) {
+			if(field.equals("attributes") && document.get(field) instanceof List) {
+				view.put(field, attributesView((List<?>) document.get(field)));
+			} else if(!field.equals("id") && document.containsKey(field)) {
+				view.put(field, document.get(field));
+			}
+		}
+		//Results of a text search keep their relevance, see ProductQueryBuilder
+		if(document.containsKey("score")) {
+			view.put("score", document.get("score"));
+		}
+		return view;
+	}
+
+	//Stored {k, v} attributes in the json form of ProductAttribute, {k: v}. Attributes not migrated yet are kept.
+	private static List<Object> attributesView(List<?> attributes) {
+		List<Object> view = new ArrayList<Object>(attributes.size());
+		for(Object attribute : attributes) {
+			if(attribute instanceof Document && ((Document) attribute).containsKey("k")) {
+				Document stored = (Document) attribute;
+				view.add(new Document(stored.getString("k"), stored.get("v")));
+			} else {
+				view.add(attribute);
+			}
+		}
+		return view;
+	}
+}
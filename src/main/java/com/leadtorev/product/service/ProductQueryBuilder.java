@@ -0,0 +1,221 @@
+package com.leadtorev.product.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductAttribute;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+
+/**Translates a ProductSearchCriteria into a single MongoDB query.
+ * 1.name       - exact match on the name field.
+ * 2.categories - a product matches if it has at least one of the given categories ($in).
+ * 3.attributes - a product matches only if it has every given attribute: $all of one $elemMatch on k and v
+ *   per attribute, served by the attributes.k/attributes.v index (see ProductAttribute).
+ * 4.text       - $text search of the words in the name and description, served by the text index. The words are
+ *   stemmed and stop words are ignored, and the results are sorted by relevance (text score) instead of _id.
+ * 5.prefix     - type-ahead search: every word of the prefix must start a word of the name. The words before
+ *   the last one must be complete. Served by the multikey index on nameTokens (see Product.nameTokens).
+ * 6.minPrice, maxPrice, minQuantity, maxQuantity - inclusive ranges on price and availability.quantity.
+ * 7.inStock    - equality on availability.inStock.
+ * 8.sort       - fields to sort on, see sortOf. _id is always the last sort key, so the order is total.
+ * 9.top        - only the first products in sort order. The query has a limit and no skip, so the database
+ *   reads the first top entries of an index in sort order, or keeps only top products in a bounded sort.
+ * All the given criteria are combined with AND, so the database does the filtering, de-duplication
+ * and paging and the service never has to merge or filter product lists in memory.
+ */
+@Component
+public class ProductQueryBuilder {
+
+	//Results are always sorted on _id so that paging through a search is stable between calls
+	public static final Sort DEFAULT_SORT = Sort.by(Sort.Direction.ASC, "_id");
+
+	//Fields a search can be sorted on
+	public static final List<String> SORT_FIELDS = List.of("price", "averageRating", "name", "_id");
+
+	//Build the filter part of the query from the criteria object
+	public Criteria toCriteria(ProductSearchCriteria criteria) {
+		List<Criteria> filters = new ArrayList<Criteria>();
+
+		if(criteria != null) {
+			String name = criteria.getName();
+			List<String> categories = criteria.getCategories();
+			List<ProductAttribute> attributes = ProductAttribute.fromEntries(criteria.getAttributes());
+
+			//If name criteria is not null, then the name must be equal
+			if(name != null) {
+				filters.add(Criteria.where("name").is(name));
+			}
+
+			//If categories criteria is not empty, then atleast one category value must be present
+			if(categories != null && !categories.isEmpty()) {
+				filters.add(Criteria.where("categories").in(categories));
+			}
+
+			//If attributes criteria is not empty, then every attribute must be present in the attributes array
+			if(!attributes.isEmpty()) {
+				List<Document> elemMatches = new ArrayList<Document>();
+				for(ProductAttribute attribute : attributes) {
+					elemMatches.add(new Document("$elemMatch",
+							new Document("k", attribute.getKey()).append("v", attribute.getValue())));
+				}
+				filters.add(Criteria.where("attributes").all(elemMatches));
+			}
+
+			//If prefix criteria is not blank, then every word of it must start a word of the name
+			if(criteria.getPrefix() != null && !criteria.getPrefix().isBlank()) {
+				filters.addAll(prefixFilters(criteria.getPrefix()));
+			}
+
+			//If a bound is given, then the price and quantity must be within it
+			Criteria price = range("price", criteria.getMinPrice(), criteria.getMaxPrice());
+			if(price != null) {
+				filters.add(price);
+			}
+			Criteria quantity = range("availability.quantity", criteria.getMinQuantity(), criteria.getMaxQuantity());
+			if(quantity != null) {
+				filters.add(quantity);
+			}
+
+			//If in stock criteria is not null, then the availability must be equal
+			if(criteria.getInStock() != null) {
+				filters.add(Criteria.where("availability.inStock").is(criteria.getInStock()));
+			}
+		}
+
+		if(filters.isEmpty()) {
+			return new Criteria();
+		}
+		if(filters.size() == 1) {
+			return filters.get(0);
+		}
+		return new Criteria().andOperator(filters);
+	}
+
+	//Both bounds are on one field in one condition, so they are one range of the index
+	private static Criteria range(String field, Number min, Number max) {
+		if(min != null && max != null && min.doubleValue() > max.doubleValue()) {
+			throw new IllegalArgumentException("The lower bound of " + field + " is above the upper bound");
+		}
+		if(min == null && max == null) {
+			return null;
+		}
+		Criteria range = Criteria.where(field);
+		if(min != null) {
+			range.gte(min);
+		}
+		if(max != null) {
+			range.lte(max);
+		}
+		return range;
+	}
+
+	/*Parse a sort like "price,-averageRating" (descending average rating) into a Sort, or null when it is blank.
+	 * "id" is accepted for "_id". _id is added as the last key in the direction of the key before it, so a sort
+	 * on one field is served by the {field: 1, _id: 1} index in either direction.
+	 */
+	public static Sort sortOf(String sort) {
+		if(sort == null || sort.isBlank()) {
+			return null;
+		}
+		List<Sort.Order> orders = new ArrayList<Sort.Order>();
+		List<String> fields = new ArrayList<String>();
+		for(String key : sort.split(",")) {
+			String trimmed = key.trim();
+			Sort.Direction direction = trimmed.startsWith("-") ? Sort.Direction.DESC : Sort.Direction.ASC;
+			String field = trimmed.startsWith("-") || trimmed.startsWith("+") ? trimmed.substring(1) : trimmed;
+			if(field.equals("id")) {
+				field = "_id";
+			}
+			if(!SORT_FIELDS.contains(field)) {
+				throw new IllegalArgumentException("Cannot sort on " + field + ", use any of " + SORT_FIELDS);
+			}
+			if(fields.contains(field)) {
+				throw new IllegalArgumentException("Sort on " + field + " is given twice");
+			}
+			fields.add(field);
+			orders.add(new Sort.Order(direction, field));
+		}
+		if(!fields.contains("_id")) {
+			orders.add(new Sort.Order(orders.get(orders.size() - 1).getDirection(), "_id"));
+		}
+		return Sort.by(orders);
+	}
+
+	/*The words of a prefix are split like the names. The words followed by more input are complete and must
+	 * equal a word of the name, the last one only has to start a word. The tokens are only letters and digits,
+	 * so the anchored regex needs no escaping and is read as a range of the index.
+	 */
+	static List<Criteria> prefixFilters(String prefix) {
+		List<String> words = Product.nameTokens(prefix);
+		List<Criteria> filters = new ArrayList<Criteria>();
+		if(words.isEmpty()) {
+			return filters;
+		}
+		//"smart ph" completes "ph", "smart " only matches the complete word
+		boolean lastComplete = !Character.isLetterOrDigit(prefix.charAt(prefix.length() - 1));
+		List<String> complete = lastComplete ? words : words.subList(0, words.size() - 1);
+		if(!complete.isEmpty()) {
+			filters.add(Criteria.where("nameTokens").all(complete));
+		}
+		if(!lastComplete) {
+			filters.add(Criteria.where("nameTokens").regex("^" + words.get(words.size() - 1)));
+		}
+		return filters;
+	}
+
+	//The $text condition of the criteria, or null when there are no words to search
+	public TextCriteria textCriteria(ProductSearchCriteria criteria) {
+		if(criteria == null || criteria.getText() == null || criteria.getText().isBlank()) {
+			return null;
+		}
+		return TextCriteria.forDefaultLanguage().matching(criteria.getText());
+	}
+
+	//Build the complete query. Skip and limit are taken from pageable and applied to the final result.
+	public Query build(ProductSearchCriteria criteria, Pageable pageable) {
+		TextCriteria text = textCriteria(criteria);
+		Sort sort = criteria == null ? null : sortOf(criteria.getSort());
+		Query query;
+		if(text == null) {
+			query = new Query(toCriteria(criteria));
+		} else {
+			//Most relevant first unless a sort is given, with the score in the results.
+			//_id breaks the ties so the pages stay stable.
+			TextQuery textQuery = new TextQuery(text).includeScore();
+			query = sort == null ? textQuery.sortByScore().with(DEFAULT_SORT) : textQuery;
+			Criteria filters = toCriteria(criteria);
+			if(!filters.getCriteriaObject().isEmpty()) {
+				query.addCriteria(filters);
+			}
+		}
+		if(sort != null) {
+			query.with(sort);
+		}
+
+		//A top query is the first page of top products, whatever page was asked for
+		if(criteria != null && criteria.getTop() != null) {
+			if(criteria.getTop() <= 0) {
+				throw new IllegalArgumentException("top must be positive");
+			}
+			query.limit(criteria.getTop());
+		} else if(pageable != null && pageable.isPaged()) {
+			query.with(pageable);
+		}
+
+		//Keep the order deterministic when the caller did not ask for a sort
+		if(!query.isSorted()) {
+			query.with(DEFAULT_SORT);
+		}
+		return query;
+	}
+}
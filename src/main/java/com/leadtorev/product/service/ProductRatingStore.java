@@ -0,0 +1,235 @@
+package com.leadtorev.product.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.config.ProductIndexes;
+import com.leadtorev.product.entity.RatingBucket;
+import com.leadtorev.product.entity.Ratings;
+
+/**Stores the ratings of the products in the product_ratings collection with the bucket pattern.
+ * 1.A new rating is pushed to a bucket of the product with less than bucketSize ratings, or to a new bucket,
+ *   with one upsert.
+ * 2.A rating is changed in place in its bucket with the positional operator.
+ * 3.A page of ratings reads the counts of the buckets of the product first, and then only the buckets
+ *   that hold the page.
+ * The rating aggregates on the product are maintained by ProductService.
+ */
+@Component
+public class ProductRatingStore {
+
+	private final MongoTemplate mongoTemplate;
+	private final int bucketSize;
+
+	public ProductRatingStore(MongoTemplate mongoTemplate, @Value("${products.ratings.bucket-size:100}") int bucketSize) {
+		this.mongoTemplate = mongoTemplate;
+		this.bucketSize = bucketSize;
+	}
+
+	//Append a rating to the open bucket of the product
+	public void add(String productId, Ratings rating) {
+		mongoTemplate.upsert(openBucket(productId, bucketSize), push(rating), RatingBucket.class);
+	}
+
+	/*Append the ratings of many products with one ordered bulk of upserts. The upserts run one after the other,
+	 * so each of them sees the buckets filled by the previous ones.
+	 */
+	public void addAll(Map<String, List<Ratings>> ratingsByProduct) {
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.ORDERED, RatingBucket.class);
+		boolean empty = true;
+		for(Map.Entry<String, List<Ratings>> entry : ratingsByProduct.entrySet()) {
+			Query openBucket = openBucket(entry.getKey(), bucketSize);
+			for(Ratings rating : entry.getValue()) {
+				bulkOperations.upsert(openBucket, push(rating));
+				empty = false;
+			}
+		}
+		if(!empty) {
+			bulkOperations.execute();
+		}
+	}
+
+	//Change the rating of the user and return the rating it had before, or null if the user has not rated the product
+	public Integer edit(String productId, String userId, int rating) {
+		Document previous = mongoTemplate.findAndModify(ratingOf(productId, userId), setRating(rating),
+				FindAndModifyOptions.options().returnNew(false), Document.class, ProductIndexes.RATINGS_COLLECTION);
+		return previous == null ? null : ratingIn(previous);
+	}
+
+	/*Set the rating of the user back to previous if it is still the given rating. Returns false if the rating
+	 * was changed again meanwhile, then that later change is kept.
+	 */
+	public boolean revert(String productId, String userId, int rating, int previous) {
+		Query stillRated = new Query(Criteria.where("productId").is(productId)
+				.and("ratings").elemMatch(Criteria.where("userId").is(userId).and("rating").is(rating)));
+		return mongoTemplate.updateFirst(stillRated, setRating(previous), RatingBucket.class).getMatchedCount() > 0;
+	}
+
+	//One page of the ratings of a product, in the order they were added
+	public List<Ratings> page(String productId, int pageNumber, int pageSize) {
+		List<Document> counts = mongoTemplate.find(bucketCounts(productId), Document.class,
+				ProductIndexes.RATINGS_COLLECTION);
+		Slice slice = Slice.of(counts, pageNumber, pageSize);
+		if(slice.bucketIds().isEmpty()) {
+			return List.of();
+		}
+		return slice.page(mongoTemplate.find(slice.bucketsQuery(), RatingBucket.class), pageSize);
+	}
+
+	//Replace all the ratings of the given products, used when products are written whole
+	public void replace(Map<String, List<Ratings>> ratingsByProduct) {
+		if(ratingsByProduct.isEmpty()) {
+			return;
+		}
+		mongoTemplate.remove(new Query(Criteria.where("productId").in(ratingsByProduct.keySet())), RatingBucket.class);
+
+		List<RatingBucket> buckets = new ArrayList<RatingBucket>();
+		for(Map.Entry<String, List<Ratings>> entry : ratingsByProduct.entrySet()) {
+			buckets.addAll(buckets(entry.getKey(), entry.getValue(), false, bucketSize));
+		}
+		if(!buckets.isEmpty()) {
+			mongoTemplate.insertAll(buckets);
+		}
+	}
+
+	/*Store the ratings moved from the product document. Buckets of an earlier attempt of the migration
+	 * are replaced, the buckets of ratings added since then are kept.
+	 */
+	public void replaceMigrated(String productId, List<Ratings> ratings) {
+		mongoTemplate.remove(new Query(Criteria.where("productId").is(productId).and("migrated").is(true)),
+				RatingBucket.class);
+		List<RatingBucket> buckets = buckets(productId, ratings, true, bucketSize);
+		if(!buckets.isEmpty()) {
+			mongoTemplate.insertAll(buckets);
+		}
+	}
+
+	public void delete(Collection<String> productIds) {
+		if(!productIds.isEmpty()) {
+			mongoTemplate.remove(new Query(Criteria.where("productId").in(productIds)), RatingBucket.class);
+		}
+	}
+
+	//Number and sum of all the ratings of a product, computed by the database
+	public long[] totals(String productId) {
+		Aggregation aggregation = Aggregation.newAggregation(
+				Aggregation.match(Criteria.where("productId").is(productId)),
+				context -> new Document("$group", new Document("_id", null)
+						.append("count", new Document("$sum", "$count"))
+						.append("sum", new Document("$sum", new Document("$sum", "$ratings.rating")))));
+		AggregationResults<Document> results = mongoTemplate.aggregate(aggregation,
+				ProductIndexes.RATINGS_COLLECTION, Document.class);
+		Document totals = results.getUniqueMappedResult();
+		if(totals == null) {
+			return new long[] {0, 0};
+		}
+		return new long[] {((Number) totals.get("count")).longValue(), ((Number) totals.get("sum")).longValue()};
+	}
+
+	/*The queries and updates below are shared with ReactiveProductRatingStore, so both stacks
+	 * store the ratings the same way.
+	 */
+
+	//A bucket of the product that is not full yet
+	static Query openBucket(String productId, int bucketSize) {
+		return new Query(Criteria.where("productId").is(productId).and("count").lt(bucketSize));
+	}
+
+	static Update push(Ratings rating) {
+		return new Update().push("ratings", rating).inc("count", 1);
+	}
+
+	//The bucket with the rating of the user, with only that rating
+	static Query ratingOf(String productId, String userId) {
+		Query query = new Query(Criteria.where("productId").is(productId).and("ratings.userId").is(userId));
+		query.fields().position("ratings", 1);
+		return query;
+	}
+
+	static Update setRating(int rating) {
+		return new Update().set("ratings.$.rating", rating);
+	}
+
+	//The rating in a bucket read with ratingOf
+	static Integer ratingIn(Document bucket) {
+		return bucket.getList("ratings", Document.class).get(0).getInteger("rating");
+	}
+
+	//The number of ratings of every bucket of the product, in _id order
+	static Query bucketCounts(String productId) {
+		Query query = new Query(Criteria.where("productId").is(productId)).with(Sort.by("_id"));
+		query.fields().include("count");
+		return query;
+	}
+
+	static List<RatingBucket> buckets(String productId, List<Ratings> ratings, boolean migrated, int bucketSize) {
+		List<RatingBucket> buckets = new ArrayList<RatingBucket>();
+		if(ratings == null) {
+			return buckets;
+		}
+		for(int from = 0; from < ratings.size(); from += bucketSize) {
+			RatingBucket bucket = new RatingBucket();
+			bucket.setProductId(productId);
+			bucket.setMigrated(migrated);
+			bucket.setRatings(new ArrayList<Ratings>(ratings.subList(from, Math.min(from + bucketSize, ratings.size()))));
+			bucket.setCount(bucket.getRatings().size());
+			buckets.add(bucket);
+		}
+		return buckets;
+	}
+
+	//The buckets that hold a page of ratings, and the position of the page in the first of them
+	record Slice(List<Object> bucketIds, long skipInFirst) {
+
+		static Slice of(List<Document> counts, int pageNumber, int pageSize) {
+			long offset = (long) pageNumber * pageSize;
+			long start = 0;
+			long skipInFirst = 0;
+			List<Object> bucketIds = new ArrayList<Object>();
+			for(Document bucket : counts) {
+				int count = bucket.getInteger("count");
+				if(start + count > offset && start < offset + pageSize) {
+					if(bucketIds.isEmpty()) {
+						skipInFirst = offset - start;
+					}
+					bucketIds.add(bucket.get("_id"));
+				}
+				start += count;
+			}
+			return new Slice(bucketIds, skipInFirst);
+		}
+
+		Query bucketsQuery() {
+			return new Query(Criteria.where("_id").in(bucketIds)).with(Sort.by("_id"));
+		}
+
+		//The ratings of the page from the buckets read with bucketsQuery
+		List<Ratings> page(List<RatingBucket> buckets, int pageSize) {
+			List<Ratings> page = new ArrayList<Ratings>(pageSize);
+			for(RatingBucket bucket : buckets) {
+				List<Ratings> ratings = bucket.getRatings();
+				int from = page.isEmpty() ? (int) Math.min(skipInFirst, ratings.size()) : 0;
+				for(int i = from; i < ratings.size() && page.size() < pageSize; i++) {
+					page.add(ratings.get(i));
+				}
+			}
+			return page;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.leadtorev.product.service;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.leadtorev.product.entity.ProductAttribute;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**Cache of search results by the criteria and page of the search.
+ * 1.The key is a canonical form of the criteria: the categories ($in) and the attributes ($all) are sets,
+ *   so searches that list the same values in another order or repeat a value share one entry.
+ * 2.The key also holds the catalog version, a counter that is incremented by every ProductChangedEvent.
+ *   A search after a write builds a key with the new version and misses, so a cached result is never
+ *   served after the products changed. Results of older versions are never read again and are evicted
+ *   by size and age.
+ * The version is read before the search runs, so a result that raced with a write is stored under the
+ * version from before the write and cannot be served afterwards.
+ */
+@Component
+public class ProductSearchCache implements MeterBinder {
+
+	/*Canonical form of a search. Every entry of the attribute criteria is one required attribute, so a map
+	 * with two entries is the same search as two maps with one entry each.
+	 */
+	record Key(long catalogVersion, String name, Set<String> categories, Set<ProductAttribute> attributes,
+			String text, String prefix, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity,
+			Boolean inStock, String sort, Integer top, Integer pageNumber, Integer pageSize, Set<String> fields) {
+	}
+
+	private final AtomicLong catalogVersion = new AtomicLong();
+	//Products, or documents with the fields of a projection
+	private final Cache<Key, List<?>> cache;
+
+	public ProductSearchCache(@Value("${products.search-cache.maximum-size:1000}") long maximumSize,
+			@Value("${products.search-cache.expire-after-write:1m}") Duration expireAfterWrite) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.build();
+	}
+
+	//The cached result of the search, or the result of running it on a miss. A null projection means whole products.
+	public List<?> get(ProductSearchCriteria criteria, Integer pageNumber, Integer pageSize, ProductProjection projection,
+			Supplier<List<?>> search) {
+		return cache.get(key(catalogVersion.get(), criteria, pageNumber, pageSize, projection),
+				key -> List.copyOf(search.get()));
+	}
+
+	//A search is only paged when both the page number and size are given. ProductService.searchProducts always gives them.
+	static Key key(long version, ProductSearchCriteria criteria, Integer pageNumber, Integer pageSize,
+			ProductProjection projection) {
+		boolean paged = pageNumber != null && pageSize != null;
+
+		Set<String> categories = new HashSet<String>();
+		if(criteria.getCategories() != null) {
+			categories.addAll(criteria.getCategories());
+		}
+
+		Set<ProductAttribute> attributes = new HashSet<ProductAttribute>(ProductAttribute.fromEntries(criteria.getAttributes()));
+
+		return new Key(version, criteria.getName(), categories, attributes, criteria.getText(), criteria.getPrefix(),
+				criteria.getMinPrice(), criteria.getMaxPrice(), criteria.getMinQuantity(), criteria.getMaxQuantity(),
+				criteria.getInStock(), criteria.getSort(), criteria.getTop(),
+				paged ? pageNumber : null, paged ? pageSize : null, projection == null ? null : projection.getFields());
+	}
+
+	//Every write makes the cached results unreachable
+	@EventListener
+	public void onProductChanged(ProductChangedEvent event) {
+		catalogVersion.incrementAndGet();
+	}
+
+	public long getCatalogVersion() {
+		return catalogVersion.get();
+	}
+
+	//Hits, misses, evictions and size of the cache as metrics tagged cache=product-searches
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, cache, "product-searches");
+	}
+
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	public long size() {
+		return cache.estimatedSize();
+	}
+}
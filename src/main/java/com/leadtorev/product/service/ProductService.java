@@ -1,18 +1,29 @@
 package com.leadtorev.product.service;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
@@ -22,128 +33,245 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.leadtorev.product.entity.BulkItemResult;
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.ImportResult;
 import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductRating;
 import com.leadtorev.product.entity.ProductSearchCriteria;
 import com.leadtorev.product.entity.Ratings;
 import com.leadtorev.product.repository.ProductRepository;
 
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.result.UpdateResult;
 
 @Service
 public class ProductService {
 
+	//Response header with the cursor of the next page of a listing
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	
+	//Largest number of documents read from MongoDB at a time by an export
+	public static final int MAX_EXPORT_BATCH_SIZE = 10000;
+
 	private final ProductRepository productRepository;
 	private final MongoTemplate mongoTemplate;
+	private final ProductQueryBuilder productQueryBuilder;
+	private final ProductImporter productImporter;
+	private final ObjectMapper objectMapper;
+	private final ProductCache productCache;
+	private final ProductSearchCache productSearchCache;
+	private final ProductBitmapIndex productBitmapIndex;
+	private final ProductRatingStore productRatingStore;
+	private final ApplicationEventPublisher eventPublisher;
+	private final ProductMetrics productMetrics;
+	
+	@Value("${products.listing.default-page-size:50}")
+	private int defaultPageSize;
+	
+	@Value("${products.listing.max-page-size:500}")
+	private int maxPageSize;
+	
+	//Largest number of items of a bulk request
+	@Value("${products.bulk.max-items:1000}")
+	private int maxBulkItems;
 	
 	/* Creating and instance of ProductRepository and MongoTemplate
 	 * ProductRepository- Provide CRUD operations to be performed on entities stored in database.
 	 * MongoTemplate- Primary implementation of MongoOperations. 
 	 * It simplifies the use of imperative MongoDB usage and helps toavoid common errors. 
-	 * It executes core MongoDB workflow, leaving application code to provide Document andextract results. */
+	 * It executes core MongoDB workflow, leaving application code to provide Document andextract results.
+	 * ProductQueryBuilder- Translates the search criteria into a single MongoDB query.
+	 * ProductImporter- Streams json files of products into the collection in batches.
+	 * ObjectMapper- Writes the products of an export as json.
+	 * ProductCache- Serves the reads of single products from memory.
+	 * ProductSearchCache- Serves repeated searches from memory until the next write.
+	 * ProductBitmapIndex- Optional in-memory index that evaluates the search criteria with bitmaps.
+	 * ProductRatingStore- Stores the ratings of the products in buckets outside of the product documents.
+	 * ApplicationEventPublisher- Tells the caches which products were changed by a write.
+	 * ProductMetrics- Records the sizes of the search and listing pages. */
 	@Autowired
-	public ProductService( ProductRepository productRepository,MongoTemplate mongoTemplate) {
+	public ProductService( ProductRepository productRepository,MongoTemplate mongoTemplate, ProductQueryBuilder productQueryBuilder,
+			ProductImporter productImporter, ObjectMapper objectMapper, ProductCache productCache,
+			ProductSearchCache productSearchCache, ProductBitmapIndex productBitmapIndex,
+			ProductRatingStore productRatingStore, ApplicationEventPublisher eventPublisher, ProductMetrics productMetrics) {
 		this.productRepository = productRepository;
 		this.mongoTemplate = mongoTemplate;
+		this.productQueryBuilder = productQueryBuilder;
+		this.productImporter = productImporter;
+		this.objectMapper = objectMapper;
+		this.productCache = productCache;
+		this.productSearchCache = productSearchCache;
+		this.productBitmapIndex = productBitmapIndex;
+		this.productRatingStore = productRatingStore;
+		this.eventPublisher = eventPublisher;
+		this.productMetrics = productMetrics;
 	}
 	
-	//Save the product entities from json data file
-	 public ResponseEntity<List<Product>> saveEntitiesFromJsonFile(String filePath) throws IOException {
-	        ObjectMapper objectMapper = new ObjectMapper();
-	        
-	        //Storing the product object from file stored in temporary location into List<Product>
-	        List<Product> entities = objectMapper.readValue(new File(filePath),
-	            new TypeReference<List<Product>>() {});
-	        
-	        //Send entities list to database for storing
-	        productRepository.saveAll(entities);
-
-	        return ResponseEntity.ok(productRepository.findAll());
+	//Save the product entities from json data file.
+	//The json array is streamed from the input and written in batches, so only the counts,
+	//errors and throughput of the import are returned instead of the saved documents.
+	//In DELTA mode only new and changed products are written, and with deleteMissing the products
+	//that are not in the file are deleted.
+	 public ImportResult saveEntitiesFromJsonFile(InputStream inputStream, ImportMode mode, boolean deleteMissing) throws IOException {
+	        return productImporter.importProducts(inputStream, mode, deleteMissing);
 	    }
 	 
-	 //Fetch single product document from collection 
+	 //Fetch single product document from the cache, or from collection on a miss
+	 //The version is the ETag, so a client that has this version gets 304 Not Modified
 	 public ResponseEntity<Product> getProduct(String id) {
-		 return ResponseEntity.ok(productRepository.findById(id).orElse(null));
+		 Product product = productCache.get(id).orElse(null);
+		 if(product == null) {
+			 return ResponseEntity.ok(null);
+		 }
+		 return ResponseEntity.ok().eTag(ProductVersions.eTag(product)).body(product);
 	 }
 	 
-	 //Fetch all the products from collection
-	 public ResponseEntity<List<Product>> getAllProducts(Integer pageNumber, Integer pageSize) {
+	 /*Fetch one page of the products from collection.
+	  * With a cursor (or without pageNumber) the page is read with keyset pagination: the products after the
+	  * cursor in sort order, so every page costs the same. pageNumber is still accepted and skips whole pages.
+	  * One more product than the page size is read to know if there is a next page, so no count query is needed.
+	  * The cursor of the next page is returned in the X-Next-Cursor header.
+	  * With a projection only the requested fields are read, and the products are returned as documents.
+	  * The ETag of the page is computed from the fields, sort and cursor of the request and the ids and versions
+	  * of its products.
+	  */
+	 public ResponseEntity<List<?>> getAllProducts(String cursor, Integer pageNumber, Integer pageSize, String sort,
+			 ProductProjection projection) {
 		 
-		//Create pageable object if pageNumber and pageSize are not null, else create unpageable object
-		 Pageable pageable = pageNumber != null && pageSize != null ? PageRequest.of(pageNumber, pageSize) : Pageable.unpaged();
+		 //Page size is capped, so a listing without parameters cannot return the whole collection
+		 int size = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+		 
+		 ProductCursor position = cursor != null ? ProductCursor.decode(cursor) : ProductCursor.start(sort);
+		 
+		 Query query = new Query(position.toCriteria())
+				 .with(position.toSort())
+				 .limit(size + 1);
+		 if(cursor == null && pageNumber != null) {
+			 query.skip((long) pageNumber * size);
+		 }
+		 
+		 ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+		 //Pages of the same products with other fields are other bodies, so they get other ETags
+		 String request = "fields=" + (projection == null ? "" : String.join(",", projection.getFields()))
+				 + "&sort=" + (sort == null ? "" : sort) + "&cursor=" + (cursor == null ? "" : cursor);
+		 if(projection != null) {
+			 //The sort field is read even when it is not requested, for the cursor of the next page
+			 projection.applyTo(query, position.getField(), ProductVersions.FIELD);
+			 List<Document> documents = mongoTemplate.query(Product.class).as(Document.class).matching(query).all();
+			 
+			 if(documents.size() > size) {
+				 documents = documents.subList(0, size);
+				 response.header(NEXT_CURSOR_HEADER, position.after(documents.get(size - 1)).encode());
+			 }
+			 productMetrics.recordListing(documents.size());
+			 response.eTag(ProductVersions.eTag(request, documents.stream()
+					 .map(document -> document.get("_id") + ":" + document.getOrDefault(ProductVersions.FIELD, 0)).toList()));
+			 return response.body(documents.stream().map(projection::toView).toList());
+		 }
 		 
-		 //This is used to return the query request into Page object
-		 Page<Product> pageProduct = this.productRepository.findAll(pageable);
+		 List<Product> productList = mongoTemplate.find(query, Product.class);
 		 
-		 //using getContent() to get list of products in a list
-		 List<Product> productList = pageProduct.getContent();
+		 //If there is one more product than the page size, there is a next page
+		 if(productList.size() > size) {
+			 productList = productList.subList(0, size);
+			 response.header(NEXT_CURSOR_HEADER, position.after(productList.get(size - 1)).encode());
+		 }
+		 productMetrics.recordListing(productList.size());
+		 response.eTag(ProductVersions.eTag(request, productList.stream()
+				 .map(product -> product.getId() + ":" + product.getVersion()).toList()));
 		 
 		 //Return product list of fetched product
-		 return ResponseEntity.ok(productList);
+		 return response.body(productList);
 	 }
 	 
-	 // Implement the search logic based on the provided criteria
-	 public List<Product> searchProducts(ProductSearchCriteria criteria, Integer pageNumber, Integer pageSize){
-		 
-		 //Variables to store the attributes of the criteria object 
-		 String name = criteria.getName();
-		 List<String> categories = criteria.getCategories();
-		 List<Map<String, String>> attributes =criteria.getAttributes();
-		 
-		 //Create pageable object if pageNumber and pageSize are not null, else create unpageable object
-		 Pageable pageable = pageNumber != null && pageSize != null ? PageRequest.of(pageNumber, pageSize) : Pageable.unpaged();
+	 /*Write all the products to the output as newline-delimited json, one product per line.
+	  * The products are read from a MongoDB cursor batchSize documents at a time and written as they arrive,
+	  * so memory use does not grow with the catalog and the first line is sent after the first batch.
+	  * The output is flushed after every batch.
+	  */
+	 public void exportProducts(OutputStream outputStream, int batchSize) throws IOException {
+		 int cursorBatchSize = Math.max(1, Math.min(batchSize, MAX_EXPORT_BATCH_SIZE));
 		 
+		 //Natural order, so the export does not need an index or a sort
+		 Query query = new Query().cursorBatchSize(cursorBatchSize);
 		 
-		 //A list that has Product datatype. It will be used to store filtered product objects from the
-		 //database. After all the criterias are used to filter the data we return the list to ProductController
+		 //Flushing after every product would send one network packet per product
+		 ObjectWriter writer = objectMapper.writerFor(Product.class)
+				 .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 		 
-		 List<Product> filteredProduct = new ArrayList<Product>() ;			
+		 try (Stream<Product> products = mongoTemplate.stream(query, Product.class);
+				 JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+			 generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			 
+			 int written = 0;
+			 for(Product product : (Iterable<Product>) products::iterator) {
+				 writer.writeValue(generator, product);
+				 generator.writeRaw('\n');
+				 if(++written % cursorBatchSize == 0) {
+					 generator.flush();
+				 }
+			 }
+		 }
+	 }
+	 
+	 // Implement the search logic based on the provided criteria
+	 // With a projection only the requested fields are read, and the products are returned as documents.
+	 public List<?> searchProducts(ProductSearchCriteria criteria, Integer pageNumber, Integer pageSize,
+			 ProductProjection projection){
 		 
-		 if (categories != null) {
-		        
-	        	for(String cat: categories ) {
-	        		filteredProduct.addAll(productRepository.findByCategories(cat, pageable).getContent());
-	        	} 	
-	        	
-	        }
+		 //Page size is capped like the listing, so a search without paging cannot return the whole collection
+		 int size = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+		 int page = pageNumber == null || pageNumber < 0 ? 0 : pageNumber;
+		 Pageable pageable = PageRequest.of(page, size);
 		 
-	        // Add criteria for each field
-	        if (name != null) {
-	        	filteredProduct.addAll(productRepository.findByName(name,pageable).getContent());
-	        }
-	        
-	        if (attributes != null ) {
-
-	        	System.out.println(attributes.get(0));
-	        	filteredProduct.addAll(productRepository.findByAttributes(attributes.get(0), pageable).getContent());
-	        	List<Product> resultList = new ArrayList<Product>(filteredProduct);
-	        	
-	        	if(!filteredProduct.isEmpty()) {
-	        		for(Product p:resultList) {
-		        			if(!ProductService.isMatch(p.getAttributes(), attributes)) {
-		        				filteredProduct.remove(p);
-		        			};
-		        		}		        	
-		        	}
-
-	        	}
-	        
-	        filteredProduct  = matchAllFilters(filteredProduct,criteria);
-	        
-	       // filteredProduct.addAll(mongoTemplate.find(query, Product.class));
-	        System.out.print("Filtered Product:"+ filteredProduct);
-	        return filteredProduct;
+		 //All the criteria are combined into one query, so the filtering, de-duplication and paging
+		 //is done by the database in a single round trip
+		 Query query = productQueryBuilder.build(criteria, pageable);
+		 if(criteria.getTop() != null) {
+			 query.limit(Math.min(criteria.getTop(), maxPageSize));
+		 }
 		 
+		 //Identical searches are answered from the cache until a product changes
+		 return productSearchCache.get(criteria, page, size, projection, () -> {
+			 List<?> results;
+			 //With the bitmap index the ids of the page are found in memory and read with one _id $in query.
+			 //Text, prefix, range and sorted searches need the indexes of the database.
+			 boolean bitmapIndex = productBitmapIndex.isReady() && criteria.hasOnlyTermCriteria();
+			 if(bitmapIndex) {
+				 List<String> ids = productBitmapIndex.search(criteria, pageable);
+				 results = projection == null ? productBitmapIndex.fetch(ids) : productBitmapIndex.fetch(ids, projection);
+			 } else if(projection == null) {
+				 results = mongoTemplate.find(query, Product.class);
+			 } else {
+				 projection.applyTo(query);
+				 results = mongoTemplate.query(Product.class).as(Document.class).matching(query).all().stream()
+						 .map(projection::toView).toList();
+			 }
+			 productMetrics.recordSearch(bitmapIndex, results.size());
+			 return results;
+		 });
 	 }
 	 
 	 //Saves a single product to database and returns the saved document
 	 public ResponseEntity<String> addProduct(Product product) {
 		 if(product != null) {
+			 product.updateRatingAggregates();
+			 //A product that replaces an existing one continues its versions, so its ETags are not reused
+			 product.setVersion(product.getId() == null ? 1 : currentVersion(product.getId()) + 1);
 			 Product savedprd = productRepository.save(product);
 			 
 			 //return saved record
 			 if(savedprd != null) {
+				 //The ratings are stored in buckets. A product saved with the id of an existing product replaces it
+				 if(product.getRatings() != null) {
+					 productRatingStore.replace(Map.of(savedprd.getId(), product.getRatings()));
+				 }
+				 eventPublisher.publishEvent(ProductChangedEvent.of(savedprd.getId()));
 				 return ResponseEntity.status(HttpStatus.CREATED)
 						 .header("Content-Type","application/json")
 						 .body("Product added successfully! \n" + savedprd);
@@ -162,21 +290,78 @@ public class ProductService {
 	 }
 	 
 	 
-	 //Finds the record using id and updating the record  
-	 public String updateRecord(String id, Product product){
+	 //Version of a stored product, 0 if it does not exist or was written before versions
+	 private long currentVersion(String id) {
+		 Query query = new Query(Criteria.where("_id").is(id));
+		 query.fields().include(ProductVersions.FIELD);
+		 Document stored = mongoTemplate.query(Product.class).as(Document.class).matching(query).firstValue();
+		 return stored == null ? 0 : ((Number) stored.getOrDefault(ProductVersions.FIELD, 0)).longValue();
+	 }
+	 
+	 /*Finds the record using id and updating the record
+	  * With expectedVersions (from If-Match) the product is only updated if it has one of them, and
+	  * OptimisticLockingFailureException is thrown if it exists with another version. Null updates any version.
+	  * The response has the ETag of the new version, so the next conditional update does not need to read the product.
+	  * An update without any field to change writes nothing and keeps the version, so the ETags of the clients stay valid.
+	  */
+	 public ResponseEntity<String> updateRecord(String id, Product product, List<Long> expectedVersions){
 		 
 		 //Collection should not be null
 		 Assert.notNull(id, "ID must not be null");
 		 
 		 //Create query to find document by id
 		 Query query = new Query(Criteria.where("id").is(id));
+		 if(expectedVersions != null) {
+			 query.addCriteria(ProductVersions.hasVersion(expectedVersions));
+		 }
 		 
 		 //Update object to specify the update operation.
+		 Update update;
+		 try {
+			 update = buildUpdate(product);
+		 } catch(IllegalArgumentException e) {
+			 return accepted().body(e.getMessage());
+		 }
+		 boolean changed = !update.getUpdateObject().isEmpty();
+		 
+		 //Send the query , update and entity class to construct a updation query and send it to the mongodb 
+		 //for processing. Only the new version of the updated document is returned.
+		 query.fields().include(ProductVersions.FIELD);
+		 Product updated = changed
+				 ? mongoTemplate.findAndModify(query, ProductVersions.increment(update),
+						 FindAndModifyOptions.options().returnNew(true), Product.class)
+				 : mongoTemplate.findOne(query, Product.class);
+		 if(expectedVersions != null && updated == null && exists(id)) {
+			 throw new OptimisticLockingFailureException("Product " + id + " was changed, its version is not "
+					 + expectedVersions);
+		 }
+		 if(product.getRatings() != null && updated != null) {
+			 productRatingStore.replace(Map.of(id, product.getRatings()));
+		 }
+		 if(changed) {
+			 eventPublisher.publishEvent(ProductChangedEvent.of(id, changesTerms(product)));
+		 }
+		
+		 // return the result object containing the product entity
+		 long matched = updated != null ? 1 : 0;
+		 String message = "Updated Product: " + UpdateResult.acknowledged(matched, changed ? matched : 0, null);
+		 return updated != null ? accepted().eTag(ProductVersions.eTag(updated)).body(message) : accepted().body(message);
+	 }
+	 
+	 private static ResponseEntity.BodyBuilder accepted() {
+		 return ResponseEntity.status(HttpStatus.ACCEPTED).header("Content-Type", "application/json");
+	 }
+	 
+	 /*The update of the fields of the product that are given, shared by single and bulk updates.
+	  * Throws IllegalArgumentException with the message for the client if a value is invalid.
+	  */
+	 static Update buildUpdate(Product product) {
 		 Update update = new Update();
 		 
 		 //If name field is not null, then set the name field in product entity with new name. 
 		 if(product.getName() != null) {
 			 update.set("name", product.getName());
+			 update.set("nameTokens", product.getNameTokens());
 		 }
 		 
 		 //If price field is not null, then set the price field in product entity with new price. 
@@ -198,7 +383,7 @@ public class ProductService {
 			 }
 			 //Else respond invalid value
 			 else if(product.getAvailability().getInStock() && product.getAvailability().getQuantity() < 0) {
-				 return "Invalid value: " + product.getAvailability().getQuantity();
+				 throw new IllegalArgumentException("Invalid value: " + product.getAvailability().getQuantity());
 			 }
 		 }
 		 //If categories field is not null, then set the categories field with new value.
@@ -211,24 +396,208 @@ public class ProductService {
 		 }
 		 //If Attributes field is not null, then set the Attributes field with new value
 		 if(product.getAttributes() != null) {
-			 update.set("attribute", product.getAttributes());
+			 update.set("attributes", product.getAttributes());
 		 }
-		 //If ratings field is not null,then set the ratings field with new value
+		 //If ratings field is not null,then the ratings are replaced with the new value, and the aggregates with theirs
 		 if(product.getRatings() != null) {
-			 update.set("ratings", product.getRatings());
+			 product.updateRatingAggregates();
+			 update.set("ratingCount", product.getRatingCount());
+			 update.set("ratingSum", product.getRatingSum());
+			 update.set("averageRating", product.getAverageRating());
 		 }
+		 return update;
+	 }
+	 
+	 //True if the update of the product changes the fields that the term criteria of a search match
+	 static boolean changesTerms(Product product) {
+		 return product.getName() != null || product.getCategories() != null || product.getAttributes() != null;
+	 }
+	 
+	 /*Fetch many products by id in the order of the ids, with one result per id.
+	  * Products in the cache are served from it, the others are read together with one _id $in query.
+	  */
+	 public List<BulkItemResult> getProducts(List<String> ids) {
+		 checkBulkSize(ids.size());
+		 List<String> validIds = ids.stream().filter(id -> id != null).distinct().toList();
+		 Map<String, Product> products = productCache.getAll(validIds);
 		 
-		 //Send the query , update and entity class to construct a updation query and send it to the mongodb 
-		 //for processing. Returns a result which contains the updated document.
-		 UpdateResult result = mongoTemplate.updateFirst(query, update, Product.class);
-		
-		 // return the result object containing the product entity
-		return "Updated Product: " + result;
+		 List<BulkItemResult> results = new ArrayList<BulkItemResult>(ids.size());
+		 for(String id : ids) {
+			 if(id == null) {
+				 results.add(BulkItemResult.invalid(null, "id is missing"));
+			 } else if(products.containsKey(id)) {
+				 results.add(BulkItemResult.found(id, products.get(id)));
+			 } else {
+				 results.add(BulkItemResult.notFound(id));
+			 }
+		 }
+		 return results;
+	 }
+	 
+	 /*Apply partial updates to many products, with the same rules as updateRecord.
+	  * The products that exist are found with one query, and all the updates are sent in one unordered bulk write.
+	  * A product can only be updated once per request, because the updates of a bulk are not applied in order.
+	  */
+	 public List<BulkItemResult> updateRecords(List<Product> products) {
+		 checkBulkSize(products.size());
+		 Set<String> existing = existingIds(products.stream().map(Product::getId).toList());
+		 
+		 List<BulkItemResult> results = new ArrayList<BulkItemResult>(products.size());
+		 BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, Product.class);
+		 
+		 //Result of each update sent in the bulk, by its index in the bulk
+		 List<BulkItemResult> sent = new ArrayList<BulkItemResult>();
+		 Set<String> seen = new HashSet<String>();
+		 Map<String, List<Ratings>> ratings = new HashMap<String, List<Ratings>>();
+		 boolean termsChanged = false;
+		 for(Product product : products) {
+			 String id = product.getId();
+			 if(id == null) {
+				 results.add(BulkItemResult.invalid(null, "id is missing"));
+				 continue;
+			 }
+			 if(!seen.add(id)) {
+				 results.add(BulkItemResult.invalid(id, "Product is updated more than once"));
+				 continue;
+			 }
+			 if(!existing.contains(id)) {
+				 results.add(BulkItemResult.notFound(id));
+				 continue;
+			 }
+			 Update update;
+			 try {
+				 update = buildUpdate(product);
+			 } catch(IllegalArgumentException e) {
+				 results.add(BulkItemResult.invalid(id, e.getMessage()));
+				 continue;
+			 }
+			 if(update.getUpdateObject().isEmpty()) {
+				 results.add(BulkItemResult.invalid(id, "Nothing to update"));
+				 continue;
+			 }
+			 bulkOperations.updateOne(new Query(Criteria.where("id").is(id)), ProductVersions.increment(update));
+			 BulkItemResult result = BulkItemResult.ok(id);
+			 results.add(result);
+			 sent.add(result);
+			 if(product.getRatings() != null) {
+				 ratings.put(id, product.getRatings());
+			 }
+			 termsChanged |= changesTerms(product);
+		 }
+		 execute(bulkOperations, sent);
+		 
+		 //The ratings of the products that were updated replace their buckets
+		 Set<String> updated = updatedIds(sent);
+		 ratings.keySet().retainAll(updated);
+		 productRatingStore.replace(ratings);
+		 if(!updated.isEmpty()) {
+			 eventPublisher.publishEvent(ProductChangedEvent.of(updated, termsChanged));
+		 }
+		 return results;
+	 }
+	 
+	 /*Add many ratings, with one result per rating.
+	  * The ratings of a product are added to its aggregates with one update, the updates of all the products
+	  * are sent in one bulk write, and the ratings are then pushed to the buckets with one more bulk write.
+	  */
+	 public List<BulkItemResult> rateProducts(List<ProductRating> ratings) {
+		 checkBulkSize(ratings.size());
+		 Set<String> existing = existingIds(ratings.stream().map(ProductRating::getProductId).toList());
+		 
+		 List<BulkItemResult> results = new ArrayList<BulkItemResult>(ratings.size());
+		 Map<String, List<Ratings>> ratingsByProduct = new LinkedHashMap<String, List<Ratings>>();
+		 Map<String, List<BulkItemResult>> resultsByProduct = new HashMap<String, List<BulkItemResult>>();
+		 for(ProductRating rating : ratings) {
+			 String productId = rating.getProductId();
+			 if(productId == null || rating.getUserId() == null) {
+				 results.add(BulkItemResult.invalid(productId, "productId and userId are required"));
+			 } else if(!existing.contains(productId)) {
+				 results.add(BulkItemResult.notFound(productId));
+			 } else {
+				 BulkItemResult result = BulkItemResult.ok(productId);
+				 results.add(result);
+				 ratingsByProduct.computeIfAbsent(productId, id -> new ArrayList<Ratings>()).add(rating.toRatings());
+				 resultsByProduct.computeIfAbsent(productId, id -> new ArrayList<BulkItemResult>()).add(result);
+			 }
+		 }
+		 if(ratingsByProduct.isEmpty()) {
+			 return results;
+		 }
+		 
+		 BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, Product.class);
+		 List<BulkItemResult> sent = new ArrayList<BulkItemResult>();
+		 for(Map.Entry<String, List<Ratings>> entry : ratingsByProduct.entrySet()) {
+			 long sum = entry.getValue().stream().mapToLong(Ratings::getRating).sum();
+			 bulkOperations.updateOne(new Query(Criteria.where("_id").is(entry.getKey())),
+					 RatingUpdates.add(entry.getValue().size(), sum));
+			 sent.add(BulkItemResult.ok(entry.getKey()));
+		 }
+		 execute(bulkOperations, sent);
+		 
+		 //The ratings of a product whose aggregates could not be updated are not stored
+		 for(BulkItemResult product : sent) {
+			 if(product.getStatus() == BulkItemResult.Status.FAILED) {
+				 ratingsByProduct.remove(product.getId());
+				 resultsByProduct.get(product.getId()).forEach(result -> result.fail(product.getMessage()));
+			 }
+		 }
+		 productRatingStore.addAll(ratingsByProduct);
+		 if(!ratingsByProduct.isEmpty()) {
+			 eventPublisher.publishEvent(ProductChangedEvent.of(ratingsByProduct.keySet(), false));
+		 }
+		 return results;
+	 }
+	 
+	 private void checkBulkSize(int size) {
+		 if(size > maxBulkItems) {
+			 throw new IllegalArgumentException("At most " + maxBulkItems + " items can be sent in one request");
+		 }
+	 }
+	 
+	 //The ids of the given ids that are ids of products, read from the _id index only
+	 private Set<String> existingIds(List<String> ids) {
+		 List<String> validIds = ids.stream().filter(id -> id != null).distinct().toList();
+		 if(validIds.isEmpty()) {
+			 return Set.of();
+		 }
+		 Query query = new Query(Criteria.where("id").in(validIds));
+		 query.fields().include("_id");
+		 Set<String> existing = new HashSet<String>();
+		 for(Document product : mongoTemplate.query(Product.class).as(Document.class).matching(query).all()) {
+			 existing.add(product.get("_id").toString());
+		 }
+		 return existing;
+	 }
+	 
+	 //Execute the bulk and mark the results of the writes rejected by the database as failed
+	 private static void execute(BulkOperations bulkOperations, List<BulkItemResult> sent) {
+		 if(sent.isEmpty()) {
+			 return;
+		 }
+		 try {
+			 bulkOperations.execute();
+		 } catch(BulkOperationException e) {
+			 for(BulkWriteError writeError : e.getErrors()) {
+				 sent.get(writeError.getIndex()).fail(writeError.getMessage());
+			 }
+		 }
+	 }
+	 
+	 private static Set<String> updatedIds(List<BulkItemResult> sent) {
+		 Set<String> updated = new HashSet<String>();
+		 for(BulkItemResult result : sent) {
+			 if(result.getStatus() == BulkItemResult.Status.OK) {
+				 updated.add(result.getId());
+			 }
+		 }
+		 return updated;
 	 }
 	 
 	 //Finds the record using id and deletes the product from database
 	 public boolean deleteProduct(String id) {
 		 productRepository.deleteById(id);
+		 productRatingStore.delete(List.of(id));
+		 eventPublisher.publishEvent(ProductChangedEvent.of(id));
 		 
 		 //Search for deleted record
 		 Optional<Product> product = productRepository.findById(id);
@@ -238,7 +607,11 @@ public class ProductService {
 		 
 	 }
 	 
-	 //Adde new rating for the product
+	 /*Adde new rating for the product.
+	  * The aggregates of the product are updated first in one atomic update, which also tells if the product exists.
+	  * The rating is then pushed to the open bucket of the product in the ratings collection. If that fails,
+	  * the rating is taken out of the aggregates again, so they only count ratings that are stored.
+	  */
 	 public Product rateProduct(String productId, Ratings rating) {
 		 /* Query to find the element using id. Criteria.where is used to create search queries.
 		  * The field value which will be used to search for document is provided to 
@@ -247,144 +620,77 @@ public class ProductService {
 		   
 		 Query query = new Query(Criteria.where("_id").is(productId));
 		 
-		 //Adding a new ratings Object to ratings field array
-		 Update update = new Update().push("ratings", rating);
-		 
-		 //Sends the query to the database to execute 
-		 return mongoTemplate.findAndModify(query, update, Product.class);
+		 //Sends the query to the database to execute and returns the product after the update
+		 Product product = mongoTemplate.findAndModify(query, RatingUpdates.add(rating.getRating()),
+				 FindAndModifyOptions.options().returnNew(true), Product.class);
+		 if(product != null) {
+			 try {
+				 productRatingStore.add(productId, rating);
+			 } catch(RuntimeException e) {
+				 //Subtracting the rating keeps the ratings added by other requests meanwhile
+				 mongoTemplate.updateFirst(query, RatingUpdates.add(-1, -rating.getRating()), Product.class);
+				 eventPublisher.publishEvent(ProductChangedEvent.of(productId, false));
+				 throw e;
+			 }
+			 eventPublisher.publishEvent(ProductChangedEvent.of(productId, false));
+		 }
+		 return product;
 	 }
 	 
-	 //Change the rating field of the already present rating object
-	public Product updateRating(String productId,String userId, int newrating) {
-		
-		//Find the Product entity using the productId
-		Product prdEntity = productRepository.findById(productId).orElse(null);
+	 /*Change the rating field of the already present rating object.
+	  * The rating is changed in place in its bucket, which returns the previous rating atomically, and the
+	  * difference is then added to the aggregates of the product. Two users rating the same product at the
+	  * same time cannot lose each other's update.
+	  * Returns null if the product does not exist or the user has not rated it.
+	  */
+	public Product updateRating(String productId,String userId, int newrating, List<Long> expectedVersions) {
 		
-		//If entity is not null
-		if( prdEntity != null ) {
-			//Storing the ratings field array in the ratings list for ease of performing operations  
-			List<Ratings> ratings = prdEntity.getRatings();
-			
-			//Iterates over the list and finds the correct ratings object using userId and
-			//then update the rating with the new rating provided by "newrating" integer
-			for(Ratings rating: ratings) {
-				if(rating.getUserId().equals(userId)) {
-					rating.setRating(newrating);
-					break;
+		Query query = new Query(Criteria.where("_id").is(productId));
+		if(expectedVersions != null) {
+			//With If-Match the product must still have one of the versions, before and after the rating is changed
+			query.addCriteria(ProductVersions.hasVersion(expectedVersions));
+			if(!mongoTemplate.exists(query, Product.class)) {
+				if(exists(productId)) {
+					throw new OptimisticLockingFailureException("Product " + productId + " was changed, its version is not "
+							+ expectedVersions);
 				}
+				return null;
 			}
-			//Set the updated ratings array in the product entity.
-			prdEntity.setRatings(ratings);
-			
-			//Save the product entity
-			productRepository.save(prdEntity);
-			
-		}else {//If there is no product entity of given id
-			
-			ResponseEntity.status(HttpStatus.BAD_REQUEST)
-			.header("Cotnent-Type", "application/json")
-			.body("No such product found with given id");
 		}
 		
+		//Change the rating of the user in its bucket
+		Integer previous = productRatingStore.edit(productId, userId, newrating);
+		if(previous == null) {
+			return null;
+		}
+		
+		Product product = mongoTemplate.findAndModify(query, RatingUpdates.change(newrating - previous),
+				FindAndModifyOptions.options().returnNew(true), Product.class);
+		if(product == null && expectedVersions != null) {
+			//The product was changed since it was checked: the rating of the user is set back and nothing is changed.
+			//If the rating was changed again meanwhile, that change was computed from this one and is kept, so the
+			//aggregates get the difference of this one as well.
+			if(!productRatingStore.revert(productId, userId, newrating, previous)) {
+				mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(productId)),
+						RatingUpdates.change(newrating - previous), Product.class);
+				eventPublisher.publishEvent(ProductChangedEvent.of(productId, false));
+			}
+			throw new OptimisticLockingFailureException("Product " + productId + " was changed, its version is not "
+					+ expectedVersions);
+		}
+		eventPublisher.publishEvent(ProductChangedEvent.of(productId, false));
+		
 		//return the updated product entity to verify the updation
-		return productRepository.findById(productId).orElse(null);
+		return product;
 		}
 	
-	 public List<Product> filterProductList(List<Product> list1, List<Product> list2){
-		 for ( Product p: list2) {
-			 if(!list1.contains(p)) {
-				 list1.remove(p);
-				 System.out.println("Reach here:");
-			 };
-		 }
-			return list1;
-    	
-	 }
-	 
-	 
-     private static boolean isMatch(List<Map<String, String>> largerList, List<Map<String, String>> smallerList) {
-	        
-	    	if (largerList.containsAll(smallerList)) {
-	                return true;
-	            }else 
-	            {
-	            	return false;
-	            }
-	    }
-     
-     //Helper function to combine all the results of each filter and check if each entity satifies the each criteria condition or not
-     //If the entity doesn't satisfy the condition, then remove that entity from the product list.
-     //After iteration through the whole list, return the final modified list. 
-     private static List<Product> matchAllFilters(List<Product> filteredProduct, ProductSearchCriteria criteria) {
-    	 
-    	 String name = criteria.getName();
-		 List<String> categories = criteria.getCategories();
-		 List<Map<String, String>> attributes =criteria.getAttributes();
-		 
-    	 List<Product> resultList = new ArrayList<Product>(filteredProduct);
-	        
-	        //Combining the result of all the filters 
-    	 
-	        for(Product p: resultList) {
-	        	System.out.println("filter"+ filteredProduct.size());
-	        	
-	        	//If name criteria is not null
-	        	if( name != null) {
-	        		//Check whether an entity contains name criteria in their name fields 
-	        		if(!p.getName().equals(name)) {
-	        				filteredProduct.remove(p);
-	        			}
-	        		}
-	        	//If attributes criteria is not null
-	        	if( attributes != null) {
-	        		//Check whether an entity contains attributes criteria in their attributes field
-	        		//It should satisfy all the attribute values, then only it will keep the entity.Otherwise remove it.
-	        		if(!p.getAttributes().containsAll(attributes)) {
-	        			filteredProduct.remove(p);
-	        		}
-	        	}
-	        	//If categories criteria is not null
-	        	if(categories !=null) {
-	        		boolean flag = true;
-	        		//Check whether an entity contains categories criteria in their categories field
-	        		//If atleast one category value is present, then keep the entity. Else remove that entity.
-	        		for(String i: categories) {
-	        			if(!p.getCategories().contains(i)) {
-	        				flag = false;
-	        			}
-	        			else {
-	        				flag = true;
-	        			}
-	        		}
-	        		if(!flag) {//If flag is false for all the categories then remove that entity
-	        			filteredProduct.remove(p);
-	        		}
-	        	}
-
-	        }
-	        
-	        //Removing duplicate values and returning the list
-			return removeDuplicates(filteredProduct);
-	       
-     }
-     
-     //This methods takes product list as input, iterates over it,
-     //and each unique element to a 'HashSet' (which automatically removes the duplicates.
-     private static List<Product> removeDuplicates(List<Product> list){
-    	 // Create a set to store unique elements
-    	 Set<Product> set = new HashSet<>();
-    	 
-    	 //Iterate over the original list and add each element to the set
-    	 for(Product element : list) {
-    		 set.add(element);
-    	 }
-    	 
-    	 //Clear the original list
-    	 list.clear();
-    	 
-    	 //Add all the elements from the set back to the original list
-    	 list.addAll(set);
-    	 
-    	 return list;
-     }
-}
\ No newline at end of file
+	private boolean exists(String id) {
+		return mongoTemplate.exists(new Query(Criteria.where("_id").is(id)), Product.class);
+	}
+	
+	//One page of the ratings of a product, oldest first
+	public List<Ratings> getRatings(String productId, Integer pageNumber, Integer pageSize) {
+		int size = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+		return productRatingStore.page(productId, pageNumber == null ? 0 : pageNumber, size);
+	}
+}
@@ -0,0 +1,94 @@
+package com.leadtorev.product.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.leadtorev.product.entity.Product;
+
+/**The version of a product and the HTTP validators built from it.
+ * 1.Every write of a product by ProductService increments its version field in the same update, so two
+ *   reads of a product with the same version return the same product.
+ * 2.The ETag of a product is its quoted version, and the ETag of a page of products is a hash of the
+ *   request (fields, sort and cursor) and of the ids and versions of the products of the page. Spring answers
+ *   a GET whose If-None-Match has the ETag of the response with 304 Not Modified, without writing the body.
+ * 3.An update with If-Match is only applied to the product if it still has one of the given versions;
+ *   the version is part of the filter of the update, so the check and the write are one atomic operation.
+ * Products written before the version existed have no version field and are read as version 0.
+ */
+public final class ProductVersions {
+
+	public static final String FIELD = "version";
+
+	private ProductVersions() {
+	}
+
+	//Add the increment of the version to an update of the fields of a product
+	static Update increment(Update update) {
+		return update.inc(FIELD, 1);
+	}
+
+	//The same increment as a stage of an update pipeline
+	static Document incrementStage() {
+		return new Document("$set", new Document(FIELD,
+				new Document("$add", List.of(new Document("$ifNull", List.of("$" + FIELD, 0)), 1))));
+	}
+
+	//Condition on the version for the versions of an If-Match header. Version 0 also matches products without a version.
+	static Criteria hasVersion(List<Long> versions) {
+		List<Object> values = new ArrayList<Object>(versions);
+		if(versions.contains(0L)) {
+			values.add(null);
+		}
+		return Criteria.where(FIELD).in(values);
+	}
+
+	public static String eTag(Product product) {
+		return "\"" + product.getVersion() + "\"";
+	}
+
+	//ETag of a page from the request and the "id:version" of each of its products, in page order
+	public static String eTag(String request, List<String> idVersions) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(request.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+			for(String idVersion : idVersions) {
+				digest.update(idVersion.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			return "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/*The versions of an If-Match header, e.g. "3" or "3", "4". Returns null without a header or for *, which
+	 * means any version. If-Match uses the strong comparison, so weak tags (W/"3") and tags that are not
+	 * versions match no version, and an update with only such tags always fails.
+	 */
+	public static List<Long> parseIfMatch(String ifMatch) {
+		if(ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+			return null;
+		}
+		List<Long> versions = new ArrayList<Long>();
+		for(String tag : ifMatch.split(",")) {
+			String trimmed = tag.trim();
+			if(trimmed.length() > 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+				try {
+					versions.add(Long.parseLong(trimmed.substring(1, trimmed.length() - 1)));
+				} catch(NumberFormatException e) {
+					//Not the ETag of a product
+				}
+			}
+		}
+		return versions;
+	}
+}
@@ -0,0 +1,65 @@
+package com.leadtorev.product.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.entity.Product;
+import com.mongodb.MongoException;
+
+/**Computes ratingCount, ratingSum and averageRating for the products written before these fields existed.
+ * Runs once when the application starts (products.ratings.backfill-on-startup) as a single update of all
+ * the products without a ratingCount, evaluated on the server. Products that already have the fields
+ * are not touched, so running it again is cheap.
+ */
+@Component
+public class RatingAggregatesBackfill {
+
+	private static final Logger log = LoggerFactory.getLogger(RatingAggregatesBackfill.class);
+
+	private final MongoTemplate mongoTemplate;
+	private final ApplicationEventPublisher eventPublisher;
+	private final boolean enabled;
+
+	public RatingAggregatesBackfill(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher,
+			@Value("${products.ratings.backfill-on-startup:true}") boolean enabled) {
+		this.mongoTemplate = mongoTemplate;
+		this.eventPublisher = eventPublisher;
+		this.enabled = enabled;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if(!enabled) {
+			return;
+		}
+		try {
+			long updated = backfill();
+			if(updated > 0) {
+				log.info("Computed the rating aggregates of {} products", updated);
+			}
+		} catch(DataAccessException | MongoException e) {
+			//The aggregates are also computed by the next rating of each product
+			log.warn("Could not backfill the rating aggregates: {}", e.getMessage());
+		}
+	}
+
+	//Returns the number of products that were updated
+	public long backfill() {
+		long updated = mongoTemplate.updateMulti(new Query(Criteria.where("ratingCount").exists(false)),
+				RatingUpdates.recompute(), Product.class).getModifiedCount();
+		if(updated > 0) {
+			//Only the ratings changed
+			eventPublisher.publishEvent(ProductChangedEvent.allProducts(false));
+		}
+		return updated;
+	}
+}
@@ -0,0 +1,97 @@
+package com.leadtorev.product.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.config.ProductIndexes;
+import com.leadtorev.product.entity.Ratings;
+import com.mongodb.MongoException;
+
+/**Moves the ratings arrays of the product documents written before ProductRatingStore existed into rating buckets.
+ * Runs when the application starts (products.ratings.migrate-on-startup). For every product that still has
+ * a ratings array, the ratings are stored in buckets marked as migrated, the aggregates are set from all
+ * the buckets of the product, and the array is removed from the product in the same update.
+ * A product that was only partly migrated when the application stopped is migrated again: its migrated
+ * buckets are replaced, and ratings added in the meantime are kept.
+ */
+@Component
+public class RatingBucketMigration {
+
+	private static final Logger log = LoggerFactory.getLogger(RatingBucketMigration.class);
+
+	private final MongoTemplate mongoTemplate;
+	private final ProductRatingStore productRatingStore;
+	private final ApplicationEventPublisher eventPublisher;
+	private final boolean enabled;
+
+	public RatingBucketMigration(MongoTemplate mongoTemplate, ProductRatingStore productRatingStore,
+			ApplicationEventPublisher eventPublisher,
+			@Value("${products.ratings.migrate-on-startup:true}") boolean enabled) {
+		this.mongoTemplate = mongoTemplate;
+		this.productRatingStore = productRatingStore;
+		this.eventPublisher = eventPublisher;
+		this.enabled = enabled;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if(!enabled) {
+			return;
+		}
+		try {
+			long migrated = migrate();
+			if(migrated > 0) {
+				log.info("Moved the ratings of {} products to the {} collection", migrated, ProductIndexes.RATINGS_COLLECTION);
+			}
+		} catch(DataAccessException | MongoException e) {
+			//Products that were not migrated keep their ratings array and are migrated on the next start
+			log.warn("Could not move the ratings of the products to buckets: {}", e.getMessage());
+		}
+	}
+
+	//Returns the number of products that were migrated
+	public long migrate() {
+		Query query = new Query(Criteria.where("ratings").exists(true));
+		query.fields().include("ratings");
+
+		long migrated = 0;
+		try (Stream<Document> products = mongoTemplate.stream(query, Document.class, ProductIndexes.COLLECTION)) {
+			for(Document product : (Iterable<Document>) products::iterator) {
+				Object id = product.get("_id");
+				String productId = id.toString();
+
+				List<Ratings> ratings = new ArrayList<Ratings>();
+				for(Object rating : product.getList("ratings", Object.class, List.of())) {
+					if(rating instanceof Document) {
+						ratings.add(mongoTemplate.getConverter().read(Ratings.class, (Document) rating));
+					}
+				}
+				productRatingStore.replaceMigrated(productId, ratings);
+
+				long[] totals = productRatingStore.totals(productId);
+				mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id)),
+						RatingUpdates.totals(totals[0], totals[1]).unset("ratings"), ProductIndexes.COLLECTION);
+				migrated++;
+			}
+		}
+		if(migrated > 0) {
+			//Only the ratings changed
+			eventPublisher.publishEvent(ProductChangedEvent.allProducts(false));
+		}
+		return migrated;
+	}
+}
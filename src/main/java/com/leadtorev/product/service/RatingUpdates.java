@@ -0,0 +1,85 @@
+package com.leadtorev.product.service;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**Updates of the rating aggregates of a product: ratingCount, ratingSum and averageRating.
+ * The ratings themselves are stored by ProductRatingStore. Each update changes the three fields in one
+ * atomic update pipeline on the server, so concurrent ratings of the same product cannot overwrite each other.
+ */
+final class RatingUpdates {
+
+	private RatingUpdates() {
+	}
+
+	/*Add a rating to the aggregates. Products whose aggregates were not computed yet start from the
+	 * ratings array that is still in their document, see RatingBucketMigration.
+	 */
+	static AggregationUpdate add(int rating) {
+		return add(1, rating);
+	}
+
+	//Add count ratings with the given sum to the aggregates, used to apply all the ratings of a bulk request at once
+	static AggregationUpdate add(int count, long sum) {
+		return pipeline(
+				new Document("$set", new Document("ratingCount", new Document("$add", List.of(ratingCount(), count)))
+						.append("ratingSum", new Document("$add", List.of(ratingSum(), sum)))),
+				averageStage());
+	}
+
+	/*Change the sum by the difference between the new and the previous rating of a user. The ratings array of a
+	 * product that was not backfilled yet still has the previous rating, so its sum plus the difference is the new sum.
+	 */
+	static AggregationUpdate change(int difference) {
+		return pipeline(
+				new Document("$set", new Document("ratingCount", ratingCount())
+						.append("ratingSum", new Document("$add", List.of(ratingSum(), difference)))),
+				averageStage());
+	}
+
+	//The stored aggregates, or for a product whose aggregates were not computed yet, the aggregates of its ratings array
+	private static Document ratingCount() {
+		return new Document("$ifNull", List.of("$ratingCount",
+				new Document("$size", new Document("$ifNull", List.of("$ratings", List.of())))));
+	}
+
+	private static Document ratingSum() {
+		return new Document("$ifNull", List.of("$ratingSum", new Document("$sum", "$ratings.rating")));
+	}
+
+	//Compute the aggregates from the ratings array, used to backfill products written before the aggregates existed
+	static AggregationUpdate recompute() {
+		return pipeline(
+				new Document("$set", new Document("ratingCount",
+						new Document("$size", new Document("$ifNull", List.of("$ratings", List.of()))))
+						.append("ratingSum", new Document("$sum", "$ratings.rating"))),
+				averageStage());
+	}
+
+	//Set the aggregates to totals computed from the stored ratings
+	static Update totals(long count, long sum) {
+		return ProductVersions.increment(new Update()
+				.set("ratingCount", count)
+				.set("ratingSum", sum)
+				.set("averageRating", count > 0 ? (double) sum / count : 0));
+	}
+
+	private static Document averageStage() {
+		return new Document("$set", new Document("averageRating", new Document("$cond", List.of(
+				new Document("$gt", List.of("$ratingCount", 0)),
+				new Document("$divide", List.of("$ratingSum", "$ratingCount")),
+				0))));
+	}
+
+	//Every rating write is a new version of the product
+	private static AggregationUpdate pipeline(Document... stages) {
+		return AggregationUpdate.from(Stream.concat(Stream.of(stages), Stream.of(ProductVersions.incrementStage()))
+				.map(stage -> (AggregationOperation) context -> stage)
+				.toList());
+	}
+}
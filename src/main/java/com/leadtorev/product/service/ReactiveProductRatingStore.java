@@ -0,0 +1,74 @@
+package com.leadtorev.product.service;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.leadtorev.product.config.ProductIndexes;
+import com.leadtorev.product.entity.RatingBucket;
+import com.leadtorev.product.entity.Ratings;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**Non-blocking ProductRatingStore for the reactive profile.
+ * It runs the same queries and updates on the same buckets, see ProductRatingStore.
+ */
+@Component
+@Profile("reactive")
+public class ReactiveProductRatingStore {
+
+	private final ReactiveMongoTemplate reactiveMongoTemplate;
+	private final int bucketSize;
+
+	public ReactiveProductRatingStore(ReactiveMongoTemplate reactiveMongoTemplate,
+			@Value("${products.ratings.bucket-size:100}") int bucketSize) {
+		this.reactiveMongoTemplate = reactiveMongoTemplate;
+		this.bucketSize = bucketSize;
+	}
+
+	//Append a rating to the open bucket of the product
+	public Mono<Void> add(String productId, Ratings rating) {
+		return reactiveMongoTemplate.upsert(ProductRatingStore.openBucket(productId, bucketSize),
+				ProductRatingStore.push(rating), RatingBucket.class).then();
+	}
+
+	//Change the rating of the user and emit the rating it had before, or nothing if the user has not rated the product
+	public Mono<Integer> edit(String productId, String userId, int rating) {
+		return reactiveMongoTemplate.findAndModify(ProductRatingStore.ratingOf(productId, userId),
+				ProductRatingStore.setRating(rating), FindAndModifyOptions.options().returnNew(false),
+				Document.class, ProductIndexes.RATINGS_COLLECTION)
+				.map(ProductRatingStore::ratingIn);
+	}
+
+	//One page of the ratings of a product, in the order they were added
+	public Flux<Ratings> page(String productId, int pageNumber, int pageSize) {
+		return reactiveMongoTemplate.find(ProductRatingStore.bucketCounts(productId), Document.class,
+				ProductIndexes.RATINGS_COLLECTION)
+				.collectList()
+				.map(counts -> ProductRatingStore.Slice.of(counts, pageNumber, pageSize))
+				.filter(slice -> !slice.bucketIds().isEmpty())
+				.flatMapMany(slice -> reactiveMongoTemplate.find(slice.bucketsQuery(), RatingBucket.class)
+						.collectList()
+						.flatMapIterable(buckets -> slice.page(buckets, pageSize)));
+	}
+
+	//Replace all the ratings of a product, used when a product is written whole
+	public Mono<Void> replace(String productId, List<Ratings> ratings) {
+		List<RatingBucket> buckets = ProductRatingStore.buckets(productId, ratings, false, bucketSize);
+		return delete(productId)
+				.then(buckets.isEmpty() ? Mono.empty() : reactiveMongoTemplate.insertAll(buckets).then());
+	}
+
+	public Mono<Void> delete(String productId) {
+		return reactiveMongoTemplate.remove(new Query(Criteria.where("productId").is(productId)), RatingBucket.class)
+				.then();
+	}
+}
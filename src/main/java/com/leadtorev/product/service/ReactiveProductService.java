@@ -0,0 +1,234 @@
+package com.leadtorev.product.service;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.ImportResult;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.leadtorev.product.entity.Ratings;
+import com.leadtorev.product.repository.ReactiveProductRepository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**Non-blocking ProductService for the reactive profile, on ReactiveMongoTemplate and ReactiveProductRepository.
+ * It reads and writes the products and the rating buckets exactly like ProductService, with the same
+ * queries (ProductCursor, ProductQueryBuilder, ProductProjection) and updates (buildUpdate, RatingUpdates).
+ * 1.Listings can be streamed: products are emitted as the driver reads them, and the driver only asks the
+ *   database for the next batch when the client has taken the previous one.
+ * 2.Imports reuse the blocking ProductImporter on the bounded elastic scheduler, so the event loop never blocks.
+ * The caches and the bitmap index of the servlet stack are not used.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveProductService {
+
+	private final ReactiveProductRepository reactiveProductRepository;
+	private final ReactiveMongoTemplate reactiveMongoTemplate;
+	private final ProductQueryBuilder productQueryBuilder;
+	private final ProductImporter productImporter;
+	private final ReactiveProductRatingStore reactiveProductRatingStore;
+	private final Path spoolDirectory;
+
+	@Value("${products.listing.default-page-size:50}")
+	private int defaultPageSize;
+
+	@Value("${products.listing.max-page-size:500}")
+	private int maxPageSize;
+
+	public ReactiveProductService(ReactiveProductRepository reactiveProductRepository,
+			ReactiveMongoTemplate reactiveMongoTemplate, ProductQueryBuilder productQueryBuilder,
+			ProductImporter productImporter, ReactiveProductRatingStore reactiveProductRatingStore,
+			@Value("${products.import.spool-dir:${java.io.tmpdir}/product-imports}") String spoolDirectory) {
+		this.reactiveProductRepository = reactiveProductRepository;
+		this.reactiveMongoTemplate = reactiveMongoTemplate;
+		this.productQueryBuilder = productQueryBuilder;
+		this.productImporter = productImporter;
+		this.reactiveProductRatingStore = reactiveProductRatingStore;
+		this.spoolDirectory = Paths.get(spoolDirectory);
+	}
+
+	//The product with the given id
+	public Mono<Product> getProduct(String id) {
+		return reactiveProductRepository.findById(id);
+	}
+
+	/*One page of the products, with the cursor of the next page in the X-Next-Cursor header.
+	 * Same paging as ProductService.getAllProducts.
+	 */
+	public Mono<ResponseEntity<List<?>>> getAllProducts(String cursor, Integer pageNumber, Integer pageSize, String sort,
+			ProductProjection projection) {
+		int size = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+		ProductCursor position = cursor != null ? ProductCursor.decode(cursor) : ProductCursor.start(sort);
+
+		Query query = new Query(position.toCriteria())
+				.with(position.toSort())
+				.limit(size + 1);
+		if(cursor == null && pageNumber != null) {
+			query.skip((long) pageNumber * size);
+		}
+
+		if(projection != null) {
+			projection.applyTo(query, position.getField());
+			return reactiveMongoTemplate.query(Product.class).as(Document.class).matching(query).all()
+					.collectList()
+					.map(documents -> page(documents, size, position::after, projection::toView));
+		}
+		return reactiveMongoTemplate.find(query, Product.class)
+				.collectList()
+				.map(products -> page(products, size, position::after, Function.identity()));
+	}
+
+	//If there is one more product than the page size, there is a next page
+	private static <T> ResponseEntity<List<?>> page(List<T> products, int size, Function<T, ProductCursor> after,
+			Function<T, ?> view) {
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+		if(products.size() > size) {
+			products = products.subList(0, size);
+			response.header(ProductService.NEXT_CURSOR_HEADER, after.apply(products.get(size - 1)).encode());
+		}
+		return response.body(products.stream().map(view).toList());
+	}
+
+	/*Stream the products after the cursor in sort order, or all of them without a cursor.
+	 * The products are read batchSize at a time, and a batch is only read when the client has taken the previous one.
+	 */
+	public Flux<?> streamProducts(String cursor, String sort, ProductProjection projection, int batchSize) {
+		ProductCursor position = cursor != null ? ProductCursor.decode(cursor) : ProductCursor.start(sort);
+		Query query = new Query(position.toCriteria())
+				.with(position.toSort())
+				.cursorBatchSize(Math.max(1, Math.min(batchSize, ProductService.MAX_EXPORT_BATCH_SIZE)));
+
+		if(projection != null) {
+			projection.applyTo(query);
+			return reactiveMongoTemplate.query(Product.class).as(Document.class).matching(query).all()
+					.map(projection::toView);
+		}
+		return reactiveMongoTemplate.find(query, Product.class);
+	}
+
+	//Same query as ProductService.searchProducts
+	public Flux<?> searchProducts(ProductSearchCriteria criteria, Integer pageNumber, Integer pageSize,
+			ProductProjection projection) {
+		int size = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+		Pageable pageable = PageRequest.of(pageNumber == null || pageNumber < 0 ? 0 : pageNumber, size);
+		Query query = productQueryBuilder.build(criteria, pageable);
+		if(criteria.getTop() != null) {
+			query.limit(Math.min(criteria.getTop(), maxPageSize));
+		}
+
+		if(projection != null) {
+			projection.applyTo(query);
+			return reactiveMongoTemplate.query(Product.class).as(Document.class).matching(query).all()
+					.map(projection::toView);
+		}
+		return reactiveMongoTemplate.find(query, Product.class);
+	}
+
+	//Save a product and its ratings, and emit the message of ProductService.addProduct
+	public Mono<String> addProduct(Product product) {
+		product.updateRatingAggregates();
+		return currentVersion(product.getId())
+				.flatMap(version -> {
+					product.setVersion(version + 1);
+					return reactiveProductRepository.save(product);
+				})
+				.flatMap(saved -> (product.getRatings() != null
+						? reactiveProductRatingStore.replace(saved.getId(), product.getRatings())
+						: Mono.<Void>empty())
+						.thenReturn("Product added successfully! \n" + saved));
+	}
+
+	//Version of a stored product, 0 if there is no id, the product does not exist or was written before versions
+	private Mono<Long> currentVersion(String id) {
+		if(id == null) {
+			return Mono.just(0L);
+		}
+		Query query = new Query(Criteria.where("_id").is(id));
+		query.fields().include(ProductVersions.FIELD);
+		return reactiveMongoTemplate.query(Product.class).as(Document.class).matching(query).first()
+				.map(stored -> ((Number) stored.getOrDefault(ProductVersions.FIELD, 0)).longValue())
+				.defaultIfEmpty(0L);
+	}
+
+	//Update the given fields of the product, with the rules of ProductService.updateRecord
+	public Mono<String> updateRecord(String id, Product product) {
+		Update update;
+		try {
+			update = ProductVersions.increment(ProductService.buildUpdate(product));
+		} catch(IllegalArgumentException e) {
+			return Mono.just(e.getMessage());
+		}
+		return reactiveMongoTemplate.updateFirst(new Query(Criteria.where("id").is(id)), update, Product.class)
+				.flatMap(result -> (product.getRatings() != null && result.getMatchedCount() > 0
+						? reactiveProductRatingStore.replace(id, product.getRatings())
+						: Mono.<Void>empty())
+						.thenReturn("Updated Product: " + result));
+	}
+
+	//Delete the product and its ratings, and emit whether the product existed
+	public Mono<Boolean> deleteProduct(String id) {
+		return reactiveMongoTemplate.remove(new Query(Criteria.where("id").is(id)), Product.class)
+				.flatMap(result -> reactiveProductRatingStore.delete(id).thenReturn(result.getDeletedCount() > 0));
+	}
+
+	//Add a rating to the aggregates of the product and to its buckets, and emit the product after the update
+	public Mono<Product> rateProduct(String productId, Ratings rating) {
+		return reactiveMongoTemplate.findAndModify(new Query(Criteria.where("_id").is(productId)),
+				RatingUpdates.add(rating.getRating()), FindAndModifyOptions.options().returnNew(true), Product.class)
+				.flatMap(product -> reactiveProductRatingStore.add(productId, rating).thenReturn(product));
+	}
+
+	//Change the rating of the user, emits nothing if the product does not exist or the user has not rated it
+	public Mono<Product> updateRating(String productId, String userId, int newrating) {
+		return reactiveProductRatingStore.edit(productId, userId, newrating)
+				.flatMap(previous -> reactiveMongoTemplate.findAndModify(new Query(Criteria.where("_id").is(productId)),
+						RatingUpdates.change(newrating - previous), FindAndModifyOptions.options().returnNew(true),
+						Product.class));
+	}
+
+	//One page of the ratings of a product, oldest first
+	public Flux<Ratings> getRatings(String productId, Integer pageNumber, Integer pageSize) {
+		int size = pageSize == null || pageSize <= 0 ? defaultPageSize : Math.min(pageSize, maxPageSize);
+		return reactiveProductRatingStore.page(productId, pageNumber == null ? 0 : pageNumber, size);
+	}
+
+	/*Import a json file of products. The upload is written to a spool file without blocking, and the file is
+	 * then imported by ProductImporter on the bounded elastic scheduler.
+	 */
+	public Mono<ImportResult> importProducts(FilePart file, ImportMode mode, boolean deleteMissing) {
+		return Mono.using(
+				() -> {
+					Files.createDirectories(spoolDirectory);
+					return Files.createTempFile(spoolDirectory, "import-", ".json");
+				},
+				spool -> file.transferTo(spool).then(Mono.fromCallable(() -> {
+					try (InputStream inputStream = Files.newInputStream(spool)) {
+						return productImporter.importProducts(inputStream, mode, deleteMissing);
+					}
+				}).subscribeOn(Schedulers.boundedElastic())),
+				spool -> spool.toFile().delete())
+				.subscribeOn(Schedulers.boundedElastic());
+	}
+}
@@ -0,0 +1,30 @@
+package com.leadtorev.product.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+
+class MongoCommandMetricsTests {
+
+	@Test
+	void collectionIsReadFromTheCommand() {
+		assertEquals("products", MongoCommandMetrics.collectionOf("find",
+				BsonDocument.parse("{find: 'products', filter: {}}")));
+		assertEquals("products", MongoCommandMetrics.collectionOf("getMore",
+				BsonDocument.parse("{getMore: {$numberLong: '1'}, collection: 'products'}")));
+		assertNull(MongoCommandMetrics.collectionOf("ping", BsonDocument.parse("{ping: 1}")));
+	}
+
+	@Test
+	void documentsAreCountedFromTheReply() {
+		assertEquals(2L, MongoCommandMetrics.documentCount("find",
+				BsonDocument.parse("{cursor: {firstBatch: [{}, {}], id: {$numberLong: '0'}}, ok: 1}")));
+		assertEquals(1L, MongoCommandMetrics.documentCount("getMore",
+				BsonDocument.parse("{cursor: {nextBatch: [{}], id: {$numberLong: '0'}}, ok: 1}")));
+		assertEquals(3L, MongoCommandMetrics.documentCount("update", BsonDocument.parse("{n: 3, nModified: 2, ok: 1}")));
+		assertEquals(0L, MongoCommandMetrics.documentCount("findAndModify", BsonDocument.parse("{value: null, ok: 1}")));
+		assertNull(MongoCommandMetrics.documentCount("ping", BsonDocument.parse("{ok: 1}")));
+	}
+}
@@ -0,0 +1,55 @@
+package com.leadtorev.product.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductAttribute;
+
+class MongoConversionsConfigTests {
+
+	private static MappingMongoConverter converter() {
+		MongoCustomConversions conversions = new MongoConversionsConfig().mongoCustomConversions();
+		MongoMappingContext mappingContext = new MongoMappingContext();
+		mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+		MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+		converter.setCustomConversions(conversions);
+		converter.afterPropertiesSet();
+		return converter;
+	}
+
+	@Test
+	void attributesAreWrittenAsPairsAndReadInBothForms() {
+		MappingMongoConverter converter = converter();
+		Product product = new Product();
+		product.setAttributes(new ArrayList<ProductAttribute>(List.of(new ProductAttribute("size", "Small"))));
+
+		Document document = new Document();
+		converter.write(product, document);
+		assertEquals(List.of(new Document("k", "size").append("v", "Small")), document.get("attributes"));
+
+		Document stored = new Document("attributes", List.of(new Document("k", "size").append("v", "Small"),
+				new Document("color", "Red")));
+		assertEquals(List.of(new ProductAttribute("size", "Small"), new ProductAttribute("color", "Red")),
+				converter.read(Product.class, stored).getAttributes());
+	}
+
+	@Test
+	void attributesKeepTheirJsonForm() throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		Product product = objectMapper.readValue("{\"attributes\": [{\"size\": \"Small\"}]}", Product.class);
+
+		assertEquals(List.of(new ProductAttribute("size", "Small")), product.getAttributes());
+		assertEquals("[{\"size\":\"Small\"}]", objectMapper.writeValueAsString(product.getAttributes()));
+	}
+}
@@ -0,0 +1,42 @@
+package com.leadtorev.product.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+/*Needs a running MongoDB at spring.data.mongodb.uri, so it only runs when MONGODB_IT=true.
+ * Fails when any query shape issued by the application is served by a collection scan.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@EnabledIfEnvironmentVariable(named = "MONGODB_IT", matches = "true")
+class ProductIndexUsageTests {
+
+	@Autowired
+	private ProductIndexManager indexManager;
+
+	@Autowired
+	private ProductIndexVerifier indexVerifier;
+
+	@Test
+	void everyQueryShapeUsesAnIndex() {
+		indexManager.reconcile();
+
+		List<String> collectionScans = indexVerifier.findCollectionScans();
+
+		assertEquals(List.of(), collectionScans, "Query shapes served by a collection scan");
+	}
+
+	@Test
+	void reconcileIsIdempotent() {
+		indexManager.reconcile();
+
+		assertEquals(List.of(), indexManager.reconcile());
+	}
+}
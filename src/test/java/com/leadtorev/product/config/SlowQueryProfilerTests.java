@@ -0,0 +1,30 @@
+package com.leadtorev.product.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class SlowQueryProfilerTests {
+
+	@Test
+	void shapeReplacesValuesAndKeepsTheSort() {
+		BsonDocument command = BsonDocument.parse("{find: 'products', filter: {categories: {$all: ['A', 'B']}, "
+				+ "$or: [{price: {$lt: 10}}, {name: 'Product 1'}]}, sort: {price: 1, _id: 1}, limit: 51, "
+				+ "lsid: {id: 1}, $db: 'products'}");
+
+		BsonDocument shape = SlowQueryProfiler.shapeOf(SlowQueryProfiler.explainable("find", command));
+
+		assertEquals(BsonDocument.parse("{find: 'products', filter: {categories: {$all: '?'}, "
+				+ "$or: [{price: {$lt: '?'}}, {name: '?'}]}, sort: {price: 1, _id: 1}, limit: '?'}"), shape);
+	}
+
+	@Test
+	void planSummaryListsTheStagesOfTheWinningPlan() {
+		Document explain = Document.parse("{queryPlanner: {winningPlan: {stage: 'LIMIT', inputStage: {stage: 'FETCH', "
+				+ "inputStage: {stage: 'IXSCAN', indexName: 'price_1__id_1'}}}}, executionStats: {nReturned: 51}}");
+
+		assertEquals("LIMIT < FETCH < IXSCAN price_1__id_1", SlowQueryProfiler.planSummary(explain));
+	}
+}
@@ -0,0 +1,144 @@
+package com.leadtorev.product.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.repository.ProductRepository;
+import com.leadtorev.product.service.ProductBitmapIndex;
+import com.leadtorev.product.service.ProductCache;
+import com.leadtorev.product.service.ProductImporter;
+import com.leadtorev.product.service.ProductMetrics;
+import com.leadtorev.product.service.ProductQueryBuilder;
+import com.leadtorev.product.service.ProductRatingStore;
+import com.leadtorev.product.service.ProductSearchCache;
+import com.leadtorev.product.service.ProductService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProductExportTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private ProductController productController;
+	private final List<Query> queries = new ArrayList<Query>();
+
+	@BeforeEach
+	void setUp() {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		when(mongoTemplate.stream(any(Query.class), eq(Product.class))).thenAnswer(invocation -> {
+			queries.add(invocation.getArgument(0));
+			return Stream.of(product("p1"), product("p2"), product("p3"), product("p4"), product("p5"));
+		});
+		ProductService productService = new ProductService(mock(ProductRepository.class), mongoTemplate,
+				mock(ProductQueryBuilder.class), mock(ProductImporter.class), objectMapper, mock(ProductCache.class),
+				mock(ProductSearchCache.class), mock(ProductBitmapIndex.class), mock(ProductRatingStore.class),
+				event -> {}, new ProductMetrics(new SimpleMeterRegistry()));
+		productController = new ProductController();
+		ReflectionTestUtils.setField(productController, "productService", productService);
+	}
+
+	@Test
+	void writesOneProductPerLineAndFlushesEveryBatch() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = productController.exportProducts(2, false);
+		FlushRecorder output = new FlushRecorder();
+		response.getBody().writeTo(output);
+
+		assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(2, queries.get(0).getMeta().getCursorBatchSize());
+		assertEquals(List.of("p1", "p2", "p3", "p4", "p5"), ids(new ByteArrayInputStream(output.toByteArray()), 5));
+		//The client has the first batch, and only the first batch, as soon as it is read
+		assertEquals(List.of("p1", "p2"), ids(new ByteArrayInputStream(output.flushed.get(0)), 2));
+		assertEquals(List.of("p1", "p2", "p3", "p4"), ids(new ByteArrayInputStream(output.flushed.get(1)), 4));
+	}
+
+	@Test
+	void gzipOutputIsFlushedEveryBatch() throws IOException {
+		ResponseEntity<StreamingResponseBody> response = productController.exportProducts(2, true);
+		FlushRecorder output = new FlushRecorder();
+		response.getBody().writeTo(output);
+
+		assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(List.of("p1", "p2", "p3", "p4", "p5"),
+				ids(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())), 5));
+		//Without syncFlush the first batch would still be in the compressor and could not be read
+		assertEquals(List.of("p1", "p2"), ids(new ByteArrayInputStream(inflate(output.flushed.get(0))), 2));
+	}
+
+	private static Product product(String id) {
+		Product product = new Product();
+		product.setId(id);
+		product.setName("Product " + id);
+		product.setPrice(9.99);
+		return product;
+	}
+
+	//The ids of the first lines of the output, each of them parsed as a product
+	private List<String> ids(InputStream input, int lines) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		List<String> ids = new ArrayList<String>();
+		for(int i = 0; i < lines; i++) {
+			ids.add(objectMapper.readValue(reader.readLine(), Product.class).getId());
+		}
+		assertNull(reader.readLine());
+		return ids;
+	}
+
+	//Decompress the start of a gzip stream, which has no trailer yet, as far as it goes
+	private static byte[] inflate(byte[] gzipStart) {
+		//Deflate data after the 10 byte gzip header
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(gzipStart, 10, gzipStart.length - 10);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		try {
+			int inflated;
+			while((inflated = inflater.inflate(buffer)) > 0) {
+				output.write(buffer, 0, inflated);
+			}
+		} catch(DataFormatException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			inflater.end();
+		}
+		return output.toByteArray();
+	}
+
+	//Keeps a copy of the output at every flush
+	private static class FlushRecorder extends ByteArrayOutputStream {
+
+		final List<byte[]> flushed = new ArrayList<byte[]>();
+
+		@Override
+		public void flush() {
+			flushed.add(toByteArray());
+		}
+	}
+}
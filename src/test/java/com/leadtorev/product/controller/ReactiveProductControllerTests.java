@@ -0,0 +1,41 @@
+package com.leadtorev.product.controller;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+@SpringBootTest
+@AutoConfigureWebTestClient
+@ActiveProfiles({"test", "reactive"})
+class ReactiveProductControllerTests {
+
+	@Autowired
+	private ApplicationContext context;
+
+	@Autowired
+	private WebTestClient webTestClient;
+
+	@Test
+	void reactiveProfileReplacesTheServletControllers() {
+		assertTrue(context.getBeansOfType(ProductController.class).isEmpty());
+		assertTrue(context.getBeansOfType(ImportJobController.class).isEmpty());
+		assertTrue(context.getBean(ReactiveProductController.class) != null);
+	}
+
+	@Test
+	void invalidSortIsRejectedForPagesAndStreams() {
+		webTestClient.get().uri("/products/all-products?sort=color").accept(MediaType.APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isBadRequest();
+		webTestClient.get().uri("/products/all-products?view=compact").accept(MediaType.parseMediaType("application/x-ndjson"))
+				.exchange()
+				.expectStatus().isBadRequest();
+	}
+}
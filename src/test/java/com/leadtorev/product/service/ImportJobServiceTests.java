@@ -0,0 +1,344 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leadtorev.product.entity.ImportJob;
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.repository.ImportJobRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ImportJobServiceTests {
+
+	private static final String ID_SEED = "0102030405060708";
+
+	@TempDir
+	Path spoolDirectory;
+
+	private ImportJobRepository importJobRepository;
+	private ProductImporter productImporter;
+	private ImportJobService importJobService;
+
+	//Checkpoints saved by the jobs, and the saved checkpoints that cover a batch that was not written yet
+	private final List<Integer> checkpoints = new ArrayList<Integer>();
+	private final List<Integer> checkpointsAheadOfWrites = new ArrayList<Integer>();
+	private final Set<Integer> writtenBatches = new HashSet<Integer>();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		importJobRepository = mock(ImportJobRepository.class);
+		when(importJobRepository.save(any(ImportJob.class))).thenAnswer(invocation -> {
+			ImportJob job = invocation.getArgument(0);
+			synchronized(writtenBatches) {
+				for(int index = 0; index < job.getCommittedBatches(); index++) {
+					if(!writtenBatches.contains(index)) {
+						checkpointsAheadOfWrites.add(job.getCommittedBatches());
+						break;
+					}
+				}
+				checkpoints.add(job.getCommittedBatches());
+			}
+			return job;
+		});
+
+		//The file is read by a real importer, the writes are given by each test
+		ProductImporter reader = new ProductImporter(mock(MongoTemplate.class), new ObjectMapper(), event -> {},
+				mock(ProductRatingStore.class), new ProductMetrics(new SimpleMeterRegistry()), 2, "name", false);
+		productImporter = mock(ProductImporter.class);
+		when(productImporter.getBatchSize()).thenReturn(2);
+		when(productImporter.readBatches(any(InputStream.class), anyInt(), anyInt(), any())).thenAnswer(invocation ->
+				reader.readBatches(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2),
+						invocation.getArgument(3)));
+	}
+
+	@AfterEach
+	void tearDown() {
+		importJobService.shutdown();
+		assertEquals(List.of(), checkpointsAheadOfWrites);
+	}
+
+	@Test
+	void checkpointOnlyCoversLeadingWrittenBatches() throws Exception {
+		start(4);
+		CountDownLatch laterBatchesWritten = new CountDownLatch(2);
+		AtomicInteger checkpointWhenFirstWritten = new AtomicInteger(-1);
+		ImportJob job = failedJob(6, 0);
+		onWrite(batch -> {
+			if(batch.index == 0) {
+				//The first batch finishes last
+				assertTrue(laterBatchesWritten.await(5, TimeUnit.SECONDS));
+				synchronized(job) {
+					checkpointWhenFirstWritten.set(job.getCommittedBatches());
+				}
+			} else {
+				laterBatchesWritten.countDown();
+			}
+		});
+
+		importJobService.resume(job.getId());
+		awaitStopped(job);
+
+		assertEquals(0, checkpointWhenFirstWritten.get());
+		assertEquals(ImportJob.Status.COMPLETED, job.getStatus());
+		assertEquals(3, job.getCommittedBatches());
+		assertEquals(6, job.getReceived());
+		assertEquals(3, checkpoints.get(checkpoints.size() - 1));
+	}
+
+	@Test
+	void failedBatchStopsTheCheckpointBeforeIt() throws Exception {
+		start(1);
+		ImportJob job = failedJob(6, 0);
+		onWrite(batch -> {
+			if(batch.index == 1) {
+				throw new DataAccessResourceFailureException("connection lost");
+			}
+		});
+
+		importJobService.resume(job.getId());
+		awaitStopped(job);
+
+		assertEquals(ImportJob.Status.FAILED, job.getStatus());
+		assertEquals("connection lost", job.getMessage());
+		assertEquals(1, job.getCommittedBatches());
+		assertEquals(2, job.getReceived());
+		//The file is kept so that the job can be resumed
+		assertTrue(Files.exists(Path.of(job.getSpoolPath())));
+	}
+
+	@Test
+	void resumedJobSkipsCommittedBatchesAndReusesIds() throws Exception {
+		start(4);
+		//The products stored by the writes, by id, and the number of products written
+		Set<String> stored = new HashSet<String>();
+		AtomicInteger written = new AtomicInteger();
+		AtomicBoolean firstRun = new AtomicBoolean(true);
+		CountDownLatch secondBatchWritten = new CountDownLatch(1);
+		ImportJob job = failedJob(6, 0);
+		onWrite(batch -> {
+			if(batch.index == 0 && firstRun.get()) {
+				//The second batch is written, then the first fails, so the checkpoint stays before both
+				assertTrue(secondBatchWritten.await(5, TimeUnit.SECONDS));
+				throw new DataAccessResourceFailureException("connection lost");
+			}
+			synchronized(stored) {
+				for(Product product : batch.products) {
+					stored.add(product.getId());
+					written.incrementAndGet();
+				}
+			}
+			if(batch.index == 1) {
+				secondBatchWritten.countDown();
+			}
+		});
+
+		importJobService.resume(job.getId());
+		awaitStopped(job);
+		assertEquals(ImportJob.Status.FAILED, job.getStatus());
+		assertEquals(0, job.getCommittedBatches());
+
+		//Resumed by the next start of the application
+		firstRun.set(false);
+		importJobService.shutdown();
+		start(4);
+		importJobService.resume(job.getId());
+		awaitStopped(job);
+
+		assertEquals(ImportJob.Status.COMPLETED, job.getStatus());
+		assertEquals(6, job.getReceived());
+		//The second batch was written by both runs with the same ids
+		assertTrue(written.get() > 6);
+		assertEquals(6, stored.size());
+		for(int ordinal = 0; ordinal < 6; ordinal++) {
+			assertTrue(stored.contains(ImportJobService.objectId(ID_SEED, ordinal).toHexString()));
+		}
+	}
+
+	@Test
+	void resumeReadsFromTheCheckpoint() throws Exception {
+		start(4);
+		List<Integer> batches = new ArrayList<Integer>();
+		List<String> ids = new ArrayList<String>();
+		ImportJob job = failedJob(6, 2);
+		onWrite(batch -> {
+			synchronized(batches) {
+				batches.add(batch.index);
+				for(Product product : batch.products) {
+					ids.add(product.getId());
+				}
+			}
+		});
+
+		importJobService.resume(job.getId());
+		awaitStopped(job);
+
+		assertEquals(List.of(2), batches);
+		assertEquals(List.of(ImportJobService.objectId(ID_SEED, 4).toHexString(),
+				ImportJobService.objectId(ID_SEED, 5).toHexString()), ids);
+		assertEquals(3, job.getCommittedBatches());
+		assertEquals(2, job.getReceived());
+	}
+
+	@Test
+	void readerWaitsWhileTwoBatchesPerWorkerAreWritten() throws Exception {
+		start(1);
+		AtomicInteger submitted = new AtomicInteger();
+		AtomicInteger finished = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		Thread[] reader = new Thread[1];
+		CountDownLatch release = new CountDownLatch(1);
+		ImportJob job = failedJob(10, 0);
+		when(productImporter.readBatches(any(InputStream.class), anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+			ProductImporter.BatchHandler handler = invocation.getArgument(3);
+			reader[0] = Thread.currentThread();
+			for(int index = 0; index < 5; index++) {
+				ImportBatch batch = new ImportBatch(index, index * 2L, 2);
+				batch.received = 2;
+				handler.handle(batch);
+				maxInFlight.accumulateAndGet(submitted.incrementAndGet() - finished.get(), Math::max);
+			}
+			return null;
+		});
+		onWrite(batch -> {
+			assertTrue(release.await(5, TimeUnit.SECONDS));
+			finished.incrementAndGet();
+		});
+
+		importJobService.resume(job.getId());
+		//With one worker the reader blocks on the third batch until a write finishes
+		long deadline = System.currentTimeMillis() + 5000;
+		while(reader[0] == null || reader[0].getState() != Thread.State.WAITING || submitted.get() < 2) {
+			assertTrue(System.currentTimeMillis() < deadline, "the reader did not wait");
+			Thread.sleep(5);
+		}
+		assertEquals(2, submitted.get());
+		release.countDown();
+		awaitStopped(job);
+
+		assertEquals(ImportJob.Status.COMPLETED, job.getStatus());
+		assertEquals(5, job.getCommittedBatches());
+		assertTrue(maxInFlight.get() <= 2);
+	}
+
+	@Test
+	void duplicatesAreOnlyIgnoredWhenTheJobRunsAgain() throws Exception {
+		start(1);
+		List<Boolean> ignoreDuplicates = new ArrayList<Boolean>();
+		List<Boolean> daemonThreads = new ArrayList<Boolean>();
+		doAnswer(invocation -> {
+			ImportBatch batch = invocation.getArgument(0);
+			synchronized(writtenBatches) {
+				ignoreDuplicates.add(invocation.getArgument(2));
+				daemonThreads.add(Thread.currentThread().isDaemon());
+				writtenBatches.add(batch.index);
+			}
+			return null;
+		}).when(productImporter).writeBatch(any(ImportBatch.class), any(ImportMode.class), anyBoolean());
+
+		//A job that never ran: products with the ids of the file clash with existing products
+		ImportJob job = failedJob(4, 0);
+		job.setStartedAt(null);
+		importJobService.resume(job.getId());
+		awaitStopped(job);
+		assertEquals(List.of(false, false), ignoreDuplicates);
+
+		//A job that ran before: the batches after the checkpoint may have been written by that run
+		ignoreDuplicates.clear();
+		importJobService.shutdown();
+		start(1);
+		ImportJob resumed = failedJob(4, 0);
+		importJobService.resume(resumed.getId());
+		awaitStopped(resumed);
+		assertEquals(List.of(true, true), ignoreDuplicates);
+		assertTrue(daemonThreads.stream().allMatch(daemon -> daemon));
+	}
+
+	interface Write {
+		void write(ImportBatch batch) throws Exception;
+	}
+
+	private void start(int workers) {
+		importJobService = new ImportJobService(importJobRepository, productImporter, spoolDirectory.toString(),
+				workers, 1, false, false);
+	}
+
+	private void onWrite(Write write) {
+		doAnswer(invocation -> {
+			ImportBatch batch = invocation.getArgument(0);
+			write.write(batch);
+			synchronized(writtenBatches) {
+				writtenBatches.add(batch.index);
+			}
+			return null;
+		}).when(productImporter).writeBatch(any(ImportBatch.class), any(ImportMode.class), anyBoolean());
+	}
+
+	//A failed INSERT job of a file with the given number of records, stored with the given checkpoint
+	private ImportJob failedJob(int records, int committedBatches) throws IOException {
+		StringBuilder json = new StringBuilder("[");
+		for(int i = 0; i < records; i++) {
+			json.append(i > 0 ? "," : "").append("{\"name\":\"Product ").append(i).append("\"}");
+		}
+		Path spool = Files.writeString(spoolDirectory.resolve("import.json"), json.append("]"));
+
+		ImportJob job = new ImportJob();
+		job.setId("job1");
+		job.setStatus(ImportJob.Status.FAILED);
+		job.setMode(ImportMode.INSERT);
+		job.setBatchSize(2);
+		job.setSpoolPath(spool.toString());
+		job.setIdSeed(ID_SEED);
+		job.setStartedAt(Instant.now());
+		for(int i = 0; i < committedBatches; i++) {
+			job.addCommitted(0, 0, 0, 0, 0, List.of());
+			writtenBatches.add(i);
+		}
+		when(importJobRepository.findById("job1")).thenReturn(Optional.of(job));
+		return job;
+	}
+
+	//Wait until the run of the job has saved its final status
+	private static void awaitStopped(ImportJob job) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(true) {
+			synchronized(job) {
+				if(job.getStatus() != ImportJob.Status.QUEUED && job.getStatus() != ImportJob.Status.RUNNING) {
+					return;
+				}
+			}
+			assertTrue(System.currentTimeMillis() < deadline, "the job did not stop");
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductAttribute;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+
+class ProductBitmapIndexTests {
+
+	private ProductBitmapIndex index;
+
+	@BeforeEach
+	void setUp() {
+		index = new ProductBitmapIndex(mock(MongoTemplate.class), true);
+		index.add(product("000000000000000000000001", "Product 1", List.of("Category A"), Map.of("size", "Small")));
+		index.add(product("000000000000000000000002", "Product 2", List.of("Category B"), Map.of("size", "Small")));
+		index.add(product("000000000000000000000003", "Product 3", List.of("Category A", "Category C"), Map.of("size", "Large")));
+	}
+
+	@Test
+	void combinesCategoriesWithOrAndAttributesWithAnd() {
+		assertEquals(List.of("000000000000000000000001", "000000000000000000000002"), index.search(
+				new ProductSearchCriteria(null, List.of("Category A", "Category B"), List.of(Map.of("size", "Small"))),
+				Pageable.unpaged()));
+		assertEquals(List.of("000000000000000000000003"), index.search(
+				new ProductSearchCriteria("Product 3", List.of("Category C"), null), Pageable.unpaged()));
+		assertEquals(List.of(), index.search(
+				new ProductSearchCriteria(null, null, List.of(Map.of("size", "Small"), Map.of("size", "Large"))),
+				Pageable.unpaged()));
+	}
+
+	@Test
+	void followsChangesAndKeepsPagesInIdOrder() {
+		//Inserted out of id order, so pages have to be sorted
+		index.add(product("000000000000000000000000", "Product 0", List.of("Category A"), Map.of("size", "Small")));
+		index.remove("000000000000000000000003");
+		index.add(product("000000000000000000000002", "Product 2", List.of("Category A"), Map.of("size", "Small")));
+
+		ProductSearchCriteria categoryA = new ProductSearchCriteria(null, List.of("Category A"), null);
+		assertEquals(List.of("000000000000000000000000", "000000000000000000000001"),
+				index.search(categoryA, PageRequest.of(0, 2)));
+		assertEquals(List.of("000000000000000000000002"), index.search(categoryA, PageRequest.of(1, 2)));
+		assertEquals(List.of(), index.search(new ProductSearchCriteria(null, List.of("Category B"), null),
+				Pageable.unpaged()));
+	}
+
+	@Test
+	void rebuildsInIdOrderOffThePublishingThread() throws Exception {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		List<Query> queries = new ArrayList<Query>();
+		CountDownLatch read = new CountDownLatch(1);
+		when(mongoTemplate.stream(any(Query.class), eq(Product.class))).thenAnswer(invocation -> {
+			queries.add(invocation.getArgument(0));
+			assertTrue(read.await(5, TimeUnit.SECONDS));
+			return Stream.of(product("000000000000000000000001", "Product 1", List.of("Category A"), Map.of("size", "Small")));
+		});
+		ProductBitmapIndex rebuilt = new ProductBitmapIndex(mongoTemplate, true);
+		try {
+			//Returns while the collection is still being read
+			rebuilt.onProductChanged(ProductChangedEvent.allProducts());
+			assertFalse(rebuilt.isReady());
+			read.countDown();
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while(!rebuilt.isReady()) {
+				assertTrue(System.currentTimeMillis() < deadline, "the index was not rebuilt");
+				Thread.sleep(5);
+			}
+			assertEquals(new Document("_id", 1), queries.get(0).getSortObject());
+			assertEquals(1, rebuilt.size());
+		} finally {
+			rebuilt.shutdown();
+		}
+	}
+
+	@Test
+	void writesDuringARebuildAreNotBlockedAndReadAfterIt() throws Exception {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch read = new CountDownLatch(1);
+		when(mongoTemplate.stream(any(Query.class), eq(Product.class))).thenAnswer(invocation -> {
+			reading.countDown();
+			assertTrue(read.await(5, TimeUnit.SECONDS));
+			return Stream.of(product("000000000000000000000001", "Product 1", List.of("Category A"), Map.of("size", "Small")));
+		});
+		when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(
+				List.of(product("000000000000000000000002", "Product 2", List.of("Category A"), Map.of("size", "Small"))));
+		ProductBitmapIndex rebuilt = new ProductBitmapIndex(mongoTemplate, true);
+		try {
+			rebuilt.onProductChanged(ProductChangedEvent.allProducts());
+			assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+			//Returns while the collection is still being read, the product is read once the rebuild is done
+			rebuilt.onProductChanged(ProductChangedEvent.of("000000000000000000000002"));
+			//A rating does not change the terms, so the product is not read
+			rebuilt.onProductChanged(ProductChangedEvent.of("000000000000000000000001", false));
+			verify(mongoTemplate, never()).find(any(Query.class), eq(Product.class));
+			read.countDown();
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while(!rebuilt.isReady()) {
+				assertTrue(System.currentTimeMillis() < deadline, "the index was not rebuilt");
+				Thread.sleep(5);
+			}
+			verify(mongoTemplate, times(1)).find(any(Query.class), eq(Product.class));
+			assertEquals(List.of("000000000000000000000001", "000000000000000000000002"), rebuilt.search(
+					new ProductSearchCriteria(null, List.of("Category A"), null), Pageable.unpaged()));
+		} finally {
+			rebuilt.shutdown();
+		}
+	}
+
+	private static Product product(String id, String name, List<String> categories, Map<String, String> attribute) {
+		Product product = new Product();
+		product.setId(id);
+		product.setName(name);
+		product.setCategories(new ArrayList<String>(categories));
+		product.setAttributes(new ArrayList<ProductAttribute>(List.of(ProductAttribute.of(attribute))));
+		return product;
+	}
+}
@@ -0,0 +1,101 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.repository.ProductRepository;
+
+class ProductCacheTests {
+
+	private ProductRepository productRepository;
+	private ProductCache productCache;
+
+	@BeforeEach
+	void setUp() {
+		productRepository = mock(ProductRepository.class);
+		Product product = new Product();
+		product.setId("p1");
+		when(productRepository.findById("p1")).thenReturn(Optional.of(product));
+		productCache = new ProductCache(productRepository, 100, Duration.ofMinutes(10));
+	}
+
+	@Test
+	void servesRepeatedReadsFromMemory() {
+		productCache.get("p1");
+		productCache.get("p1");
+
+		verify(productRepository, times(1)).findById("p1");
+		assertEquals(1, productCache.stats().hitCount());
+		assertEquals(1, productCache.stats().missCount());
+	}
+
+	@Test
+	void reloadsChangedProducts() {
+		productCache.get("p1");
+		productCache.onProductChanged(ProductChangedEvent.of("p1"));
+		productCache.get("p1");
+		productCache.onProductChanged(ProductChangedEvent.of(Set.of()));
+		productCache.get("p1");
+		productCache.onProductChanged(ProductChangedEvent.allProducts());
+		productCache.get("p1");
+
+		verify(productRepository, times(3)).findById("p1");
+	}
+
+	@Test
+	void doesNotCacheMissingProducts() {
+		when(productRepository.findById("none")).thenReturn(Optional.empty());
+
+		assertTrue(productCache.get("none").isEmpty());
+		productCache.get("none");
+
+		verify(productRepository, times(2)).findById("none");
+	}
+
+	@Test
+	void bulkLoadDoesNotCacheProductsChangedDuringTheRead() {
+		Product old = new Product();
+		old.setId("p2");
+		old.setName("Old name");
+		when(productRepository.findAllById(List.of("p2"))).thenAnswer(invocation -> {
+			//p2 is written and invalidated after it was read
+			productCache.onProductChanged(ProductChangedEvent.of("p2"));
+			return List.of(old);
+		});
+		when(productRepository.findById("p2")).thenReturn(Optional.of(new Product()));
+
+		assertEquals(Map.of("p2", old), productCache.getAll(List.of("p2")));
+		productCache.get("p2");
+
+		verify(productRepository, times(1)).findById("p2");
+	}
+
+	@Test
+	void bulkLoadCachesTheMissingProducts() {
+		Product p2 = new Product();
+		p2.setId("p2");
+		when(productRepository.findAllById(List.of("p2", "p3"))).thenReturn(List.of(p2));
+		productCache.get("p1");
+
+		assertEquals(Set.of("p1", "p2"), productCache.getAll(List.of("p1", "p2", "p3")).keySet());
+		productCache.get("p2");
+
+		verify(productRepository, never()).findById("p2");
+		verify(productRepository, times(1)).findById("p1");
+	}
+}
@@ -0,0 +1,148 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.leadtorev.product.entity.Product;
+
+class ProductCursorTests {
+
+	@Test
+	void startOfListingHasNoCondition() {
+		ProductCursor cursor = ProductCursor.start(null);
+
+		assertTrue(cursor.toCriteria().getCriteriaObject().isEmpty());
+		assertEquals(new Document("_id", 1), new Query().with(cursor.toSort()).getSortObject());
+	}
+
+	@Test
+	void tokenKeepsPositionAndSortOrder() {
+		ObjectId id = new ObjectId();
+		ProductCursor cursor = ProductCursor.start("-price").after(product(id, 19.99));
+
+		ProductCursor decoded = ProductCursor.decode(cursor.encode());
+
+		assertEquals(cursor.toCriteria().getCriteriaObject(), decoded.toCriteria().getCriteriaObject());
+		assertEquals(new Document("price", -1).append("_id", -1), new Query().with(decoded.toSort()).getSortObject());
+	}
+
+	@Test
+	void nextPageIsARangeOnTheSortField() {
+		ObjectId id = new ObjectId();
+		ProductCursor cursor = ProductCursor.start("price").after(product(id, 19.99));
+
+		Document expected = new Document("price", new Document("$gte", 19.99))
+				.append("$nor", List.of(new Document("price", 19.99).append("_id", new Document("$lte", id))));
+		assertEquals(expected, cursor.toCriteria().getCriteriaObject());
+	}
+
+	@Test
+	void productsWithoutTheSortFieldAreListedInPlace() {
+		ObjectId first = new ObjectId("000000000000000000000001");
+		ObjectId second = new ObjectId("000000000000000000000002");
+		ObjectId third = new ObjectId("000000000000000000000003");
+		ObjectId fourth = new ObjectId("000000000000000000000004");
+		ObjectId fifth = new ObjectId("000000000000000000000005");
+		List<Document> products = List.of(new Document("_id", first).append("name", "Product B"),
+				new Document("_id", second), new Document("_id", third).append("name", "Product A"),
+				new Document("_id", fourth).append("name", null), new Document("_id", fifth).append("name", "Product C"));
+
+		//Missing and null names sort first, by _id
+		assertEquals(List.of(second, fourth, third, first, fifth), list(products, "name"));
+		assertEquals(List.of(fifth, first, third, fourth, second), list(products, "-name"));
+	}
+
+	@Test
+	void rejectsUnknownSortFieldsAndInvalidTokens() {
+		assertThrows(IllegalArgumentException.class, () -> ProductCursor.start("description"));
+		assertThrows(IllegalArgumentException.class, () -> ProductCursor.decode("not a cursor"));
+	}
+
+	//The ids of a listing read one product per page, with the sort and the conditions evaluated like MongoDB does
+	private static List<Object> list(List<Document> products, String sort) {
+		List<Object> listed = new ArrayList<Object>();
+		ProductCursor cursor = ProductCursor.start(sort);
+		Comparator<Document> order = Comparator.comparing((Document product) -> (String) product.get("name"),
+				Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+				.thenComparing(product -> product.getObjectId("_id"));
+		if(sort.startsWith("-")) {
+			order = order.reversed();
+		}
+		while(listed.size() <= products.size()) {
+			Document criteria = cursor.toCriteria().getCriteriaObject();
+			Document next = products.stream().filter(product -> matches(product, criteria)).sorted(order)
+					.findFirst().orElse(null);
+			if(next == null) {
+				return listed;
+			}
+			listed.add(next.get("_id"));
+			cursor = cursor.after(next);
+		}
+		throw new AssertionError("The listing does not end: " + listed);
+	}
+
+	//The operators of the cursor conditions. A comparison with a value only matches values of the same type.
+	@SuppressWarnings("unchecked")
+	private static boolean matches(Document product, Document criteria) {
+		for(Map.Entry<String, Object> condition : criteria.entrySet()) {
+			boolean matched;
+			switch(condition.getKey()) {
+				case "$or":
+					matched = ((List<Document>) condition.getValue()).stream().anyMatch(branch -> matches(product, branch));
+					break;
+				case "$nor":
+					matched = ((List<Document>) condition.getValue()).stream().noneMatch(branch -> matches(product, branch));
+					break;
+				default:
+					Object value = product.get(condition.getKey());
+					if(!(condition.getValue() instanceof Document)) {
+						matched = Objects.equals(value, condition.getValue());
+						break;
+					}
+					matched = true;
+					for(Map.Entry<String, Object> operator : ((Document) condition.getValue()).entrySet()) {
+						Object operand = operator.getValue();
+						if(operator.getKey().equals("$ne")) {
+							matched &= !Objects.equals(value, operand);
+							continue;
+						}
+						if(value == null || operand == null || value.getClass() != operand.getClass()) {
+							matched &= value == operand && !operator.getKey().equals("$gt") && !operator.getKey().equals("$lt");
+							continue;
+						}
+						int compared = ((Comparable<Object>) value).compareTo(operand);
+						switch(operator.getKey()) {
+							case "$gt" -> matched &= compared > 0;
+							case "$gte" -> matched &= compared >= 0;
+							case "$lt" -> matched &= compared < 0;
+							case "$lte" -> matched &= compared <= 0;
+							default -> throw new IllegalArgumentException(operator.getKey());
+						}
+					}
+			}
+			if(!matched) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Product product(ObjectId id, double price) {
+		Product product = new Product();
+		product.setId(id.toHexString());
+		product.setPrice(price);
+		return product;
+	}
+}
@@ -0,0 +1,56 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+
+class ProductFacetsTests {
+
+	@Test
+	void criteriaAreMatchedFirstAndFacetsShareOneStage() {
+		List<Document> stages = ProductFacets.pipeline(TextCriteria.forDefaultLanguage().matching("phone"),
+				Criteria.where("categories").in(List.of("Category A")),
+				new Document("score", new Document("$meta", "textScore")).append("_id", 1), 10, 5, null,
+				List.of("categories", "price"), List.of(0.0, 50.0), 20);
+
+		assertEquals(4, stages.size());
+		assertEquals(new Document("$match", new Document("$text", new Document("$search", "phone"))), stages.get(0));
+		assertEquals(new Document("$match", new Document("categories", new Document("$in", List.of("Category A")))),
+				stages.get(2));
+		Document facet = stages.get(3).get("$facet", Document.class);
+		assertEquals(List.of("results", "total", "categories", "price"), List.copyOf(facet.keySet()));
+		assertEquals(List.of(new Document("$sort", new Document("score", -1).append("_id", 1)),
+				new Document("$skip", 10L), new Document("$limit", 5)), facet.get("results"));
+		Document bucket = facet.getList("price", Document.class).get(0).get("$bucket", Document.class);
+		assertEquals(List.of(0.0, 50.0, Double.POSITIVE_INFINITY), bucket.get("boundaries"));
+	}
+
+	@Test
+	void priceRangesWithoutProductsAreCountedAsZero() {
+		Document result = new Document("price", List.of(
+				new Document("_id", 50.0).append("count", 3),
+				new Document("_id", "other").append("count", 1)));
+
+		Map<String, Object> facets = ProductFacets.toFacets(result, List.of("price"), List.of(0.0, 25.0, 50.0));
+
+		assertEquals(List.of(range(null, 0.0, 1), range(0.0, 25.0, 0), range(25.0, 50.0, 0), range(50.0, null, 3)),
+				facets.get("price"));
+		assertThrows(IllegalArgumentException.class, () -> ProductFacets.parseBoundaries("0,50,25"));
+	}
+
+	private static Map<String, Object> range(Double from, Double to, long count) {
+		Map<String, Object> range = new LinkedHashMap<String, Object>();
+		range.put("from", from);
+		range.put("to", to);
+		range.put("count", count);
+		return range;
+	}
+}
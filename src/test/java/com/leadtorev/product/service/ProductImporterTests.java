@@ -0,0 +1,179 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leadtorev.product.entity.ImportMode;
+import com.leadtorev.product.entity.ImportResult;
+import com.leadtorev.product.entity.Product;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProductImporterTests {
+
+	private MongoTemplate mongoTemplate;
+	private BulkOperations bulkOperations;
+	private ProductImporter importer;
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		bulkOperations = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(Product.class))).thenReturn(bulkOperations);
+		when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+		when(mongoTemplate.getConverter()).thenReturn(
+				new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+		when(mongoTemplate.getCollectionName(Product.class)).thenReturn("products");
+		importer = new ProductImporter(mongoTemplate, new ObjectMapper(), event -> {},
+				mock(ProductRatingStore.class), new ProductMetrics(new SimpleMeterRegistry()), 2, "name", false);
+	}
+
+	@Test
+	void writesFixedSizeBatches() throws IOException {
+		ImportResult result = run(ImportMode.INSERT,
+				"[{\"name\":\"a\"},{\"name\":\"b\"},{\"name\":\"c\"},{\"name\":\"d\"},{\"name\":\"e\"}]");
+
+		assertTrue(result.isComplete());
+		assertEquals(5, result.getReceived());
+		assertEquals(5, result.getInserted());
+		assertEquals(3, result.getBatches());
+		verify(bulkOperations, times(3)).execute();
+	}
+
+	@Test
+	void skipsRecordsThatAreNotProducts() throws IOException {
+		ImportResult result = run(ImportMode.INSERT,
+				"[{\"name\":\"a\"},{\"price\":{\"wrong\":true}},{\"name\":\"c\"}]");
+
+		assertTrue(result.isComplete());
+		assertEquals(3, result.getReceived());
+		assertEquals(2, result.getInserted());
+		assertEquals(1, result.getFailed());
+		assertEquals(1, result.getErrors().size());
+	}
+
+	@Test
+	void keepsRecordsReadBeforeMalformedJson() throws IOException {
+		ImportResult result = run(ImportMode.INSERT, "[{\"name\":\"a\"},{\"name\":");
+
+		assertFalse(result.isComplete());
+		assertEquals(1, result.getInserted());
+		verify(mongoTemplate, times(1)).bulkOps(any(BulkMode.class), eq(Product.class));
+	}
+
+	@Test
+	void rejectsInputThatIsNotAnArray() throws IOException {
+		ImportResult result = run(ImportMode.INSERT, "{\"name\":\"a\"}");
+
+		assertFalse(result.isComplete());
+		assertEquals(0, result.getReceived());
+	}
+
+	@Test
+	void deltaImportOnlyWritesNewAndChangedProducts() throws IOException {
+		Product unchanged = new Product();
+		unchanged.setName("a");
+		unchanged.setPrice(1);
+		Document stored = new Document("name", "a").append("contentHash",
+				ProductImporter.contentHash(toDocument(unchanged)));
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("products"))).thenReturn(List.of(stored));
+		when(bulkOperations.execute()).thenReturn(BulkWriteResult.acknowledged(0, 0, 0, 0,
+				List.of(new BulkWriteUpsert(0, new BsonString("b"))), List.of()));
+
+		ImportResult result = run(ImportMode.DELTA,
+				"[{\"name\":\"a\",\"price\":1},{\"name\":\"b\",\"price\":2}]");
+
+		assertEquals(1, result.getUnchanged());
+		assertEquals(1, result.getInserted());
+		verify(bulkOperations, times(1)).upsert(any(Query.class), any(Update.class));
+		verify(bulkOperations, never()).insert(anyList());
+	}
+
+	@Test
+	void keyInTwoConcurrentDeltaBatchesIsInsertedOnce() throws Exception {
+		//The products collection without a unique index: a key is stored by every bulk write that upserts it
+		Set<Object> stored = ConcurrentHashMap.newKeySet();
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("products"))).thenAnswer(invocation ->
+				stored.contains("a") ? List.of(new Document("_id", "p1").append("name", "a")) : List.of());
+		when(bulkOperations.execute()).thenAnswer(invocation -> {
+			//An upsert that finds no product inserts one. The write takes long enough for the other batch
+			//to look the key up, and to upsert it, before this one has stored it
+			boolean exists = stored.contains("a");
+			Thread.sleep(50);
+			stored.add("a");
+			return !exists
+					? BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(new BulkWriteUpsert(0, new BsonString("a"))), List.of())
+					: BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of());
+		});
+		ImportBatch first = deltaBatch(0, "{\"name\":\"a\",\"price\":1}");
+		ImportBatch second = deltaBatch(1, "{\"name\":\"a\",\"price\":2}");
+
+		ExecutorService workers = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> firstWrite = workers.submit(() -> importer.writeBatch(first, ImportMode.DELTA, true));
+			Future<?> secondWrite = workers.submit(() -> importer.writeBatch(second, ImportMode.DELTA, true));
+			firstWrite.get(5, TimeUnit.SECONDS);
+			secondWrite.get(5, TimeUnit.SECONDS);
+		} finally {
+			workers.shutdown();
+		}
+
+		assertEquals(1, first.inserted + second.inserted);
+		assertEquals(1, first.updated + second.updated);
+	}
+
+	private ImportBatch deltaBatch(int index, String json) throws IOException {
+		ImportBatch batch = new ImportBatch(index, index, 2);
+		batch.products.add(new ObjectMapper().readValue(json, Product.class));
+		batch.received = 1;
+		return batch;
+	}
+
+	private Document toDocument(Product product) {
+		Document document = new Document();
+		mongoTemplate.getConverter().write(product, document);
+		return document;
+	}
+
+	private ImportResult run(ImportMode mode, String json) throws IOException {
+		InputStream inputStream = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+		return importer.importProducts(inputStream, mode, false);
+	}
+}
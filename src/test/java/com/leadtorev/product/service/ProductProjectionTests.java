@@ -0,0 +1,46 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+class ProductProjectionTests {
+
+	@Test
+	void summaryViewReadsOnlyItsFields() {
+		ProductProjection projection = ProductProjection.parse(null, "summary");
+
+		Query query = projection.applyTo(new Query(), "price");
+
+		assertEquals(Set.copyOf(ProductProjection.SUMMARY), projection.getFields());
+		assertEquals(new Document("_id", 1).append("availability", 1).append("averageRating", 1)
+				.append("name", 1).append("price", 1), query.getFieldsObject());
+		assertNull(ProductProjection.parse(null, "full"));
+		assertNull(ProductProjection.parse(null, null));
+	}
+
+	@Test
+	void unknownFieldOrViewIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> ProductProjection.parse("name,ratings", null));
+		assertThrows(IllegalArgumentException.class, () -> ProductProjection.parse(null, "compact"));
+	}
+
+	@Test
+	void viewRenamesIdAndDropsFieldsNotRequested() {
+		ObjectId id = new ObjectId();
+		Document stored = new Document("_id", id).append("name", "Product 1").append("price", 19.99)
+				.append("categories", List.of("Category A"));
+
+		Document view = ProductProjection.parse("id, name", null).toView(stored);
+
+		assertEquals(new Document("id", id.toHexString()).append("name", "Product 1"), view);
+	}
+}
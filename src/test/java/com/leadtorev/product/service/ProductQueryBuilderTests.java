@@ -0,0 +1,104 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.leadtorev.product.entity.ProductSearchCriteria;
+
+class ProductQueryBuilderTests {
+
+	private final ProductQueryBuilder builder = new ProductQueryBuilder();
+
+	@Test
+	void emptyCriteriaMatchesEverything() {
+		Query query = builder.build(new ProductSearchCriteria(null, null, null), Pageable.unpaged());
+
+		assertTrue(query.getQueryObject().isEmpty());
+		assertEquals(new Document("_id", 1), query.getSortObject());
+	}
+
+	@Test
+	void singleCriteriaIsNotWrapped() {
+		Query query = builder.build(new ProductSearchCriteria(null, List.of("Category A", "Category B"), null),
+				Pageable.unpaged());
+
+		assertEquals(new Document("categories", new Document("$in", List.of("Category A", "Category B"))),
+				query.getQueryObject());
+	}
+
+	@Test
+	void allCriteriaAreCombinedAndPagedServerSide() {
+		ProductSearchCriteria criteria = new ProductSearchCriteria("Product 4", List.of("Category B"),
+				List.of(Map.of("size", "Medium"), Map.of("color", "Black")));
+
+		Query query = builder.build(criteria, PageRequest.of(2, 5));
+
+		List<?> and = query.getQueryObject().getList("$and", Object.class);
+		assertEquals(3, and.size());
+		assertEquals(new Document("name", "Product 4"), and.get(0));
+		assertEquals(new Document("categories", new Document("$in", List.of("Category B"))), and.get(1));
+		assertEquals(new Document("attributes", new Document("$all", List.of(
+				new Document("$elemMatch", new Document("k", "size").append("v", "Medium")),
+				new Document("$elemMatch", new Document("k", "color").append("v", "Black"))))), and.get(2));
+		assertEquals(10, query.getSkip());
+		assertEquals(5, query.getLimit());
+	}
+
+	@Test
+	void textSearchIsCombinedWithFiltersAndSortedByRelevance() {
+		ProductSearchCriteria criteria = new ProductSearchCriteria(null, List.of("Category B"), null);
+		criteria.setText("wireless phone");
+
+		Query query = builder.build(criteria, PageRequest.of(0, 5));
+
+		assertEquals(new Document("$text", new Document("$search", "wireless phone"))
+				.append("categories", new Document("$in", List.of("Category B"))), query.getQueryObject());
+		assertEquals(new Document("score", new Document("$meta", "textScore")).append("_id", 1), query.getSortObject());
+		assertEquals(new Document("score", new Document("$meta", "textScore")), query.getFieldsObject());
+	}
+
+	@Test
+	void prefixMatchesCompleteWordsAndStartOfLastWord() {
+		List<Criteria> typing = ProductQueryBuilder.prefixFilters("Smart-ph");
+		List<Criteria> typed = ProductQueryBuilder.prefixFilters("Smart Phone ");
+
+		assertEquals(2, typing.size());
+		assertEquals(new Document("nameTokens", new Document("$all", List.of("smart"))), typing.get(0).getCriteriaObject());
+		assertEquals("^ph", ((Pattern) typing.get(1).getCriteriaObject().get("nameTokens")).pattern());
+		assertEquals(List.of(new Document("nameTokens", new Document("$all", List.of("smart", "phone")))),
+				typed.stream().map(Criteria::getCriteriaObject).toList());
+		assertTrue(ProductQueryBuilder.prefixFilters(" - ").isEmpty());
+	}
+
+	@Test
+	void topCheapestInStockIsOneLimitedIndexRange() {
+		ProductSearchCriteria criteria = new ProductSearchCriteria(null, List.of("Category A"), null);
+		criteria.setInStock(true);
+		criteria.setMinPrice(10.0);
+		criteria.setMaxPrice(50.0);
+		criteria.setSort("price,-averageRating");
+		criteria.setTop(10);
+
+		Query query = builder.build(criteria, PageRequest.of(3, 5));
+
+		List<?> and = query.getQueryObject().getList("$and", Object.class);
+		assertEquals(new Document("price", new Document("$gte", 10.0).append("$lte", 50.0)), and.get(1));
+		assertEquals(new Document("availability.inStock", true), and.get(2));
+		assertEquals(new Document("price", 1).append("averageRating", -1).append("_id", -1), query.getSortObject());
+		assertEquals(0, query.getSkip());
+		assertEquals(10, query.getLimit());
+		assertThrows(IllegalArgumentException.class, () -> ProductQueryBuilder.sortOf("description"));
+	}
+}
@@ -0,0 +1,66 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.leadtorev.product.entity.RatingBucket;
+import com.leadtorev.product.entity.Ratings;
+
+class ProductRatingStoreTests {
+
+	private MongoTemplate mongoTemplate;
+	private ProductRatingStore store;
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		store = new ProductRatingStore(mongoTemplate, 3);
+
+		//Two full buckets and one with a single rating: users 0-2, 3-5 and 6
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("product_ratings"))).thenReturn(List.of(
+				new Document("_id", "b1").append("count", 3),
+				new Document("_id", "b2").append("count", 3),
+				new Document("_id", "b3").append("count", 1)));
+	}
+
+	@Test
+	void pageSpansBuckets() {
+		when(mongoTemplate.find(any(Query.class), eq(RatingBucket.class)))
+				.thenReturn(List.of(bucket(3, 3), bucket(6, 1)));
+
+		List<Ratings> page = store.page("p1", 1, 4);
+
+		assertEquals(List.of("user4", "user5", "user6"), page.stream().map(Ratings::getUserId).toList());
+	}
+
+	@Test
+	void pageAfterTheLastRatingIsEmpty() {
+		assertEquals(List.of(), store.page("p1", 2, 4));
+	}
+
+	private static RatingBucket bucket(int firstUser, int count) {
+		RatingBucket bucket = new RatingBucket();
+		List<Ratings> ratings = new ArrayList<Ratings>();
+		for(int i = firstUser; i < firstUser + count; i++) {
+			Ratings rating = new Ratings();
+			rating.setUserId("user" + i);
+			rating.setRating(5);
+			ratings.add(rating);
+		}
+		bucket.setRatings(ratings);
+		bucket.setCount(count);
+		return bucket;
+	}
+}
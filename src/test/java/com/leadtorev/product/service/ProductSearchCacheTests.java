@@ -0,0 +1,43 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.leadtorev.product.entity.ProductSearchCriteria;
+
+class ProductSearchCacheTests {
+
+	@Test
+	void keyIgnoresTheOrderOfCategoriesAndAttributes() {
+		ProductSearchCriteria first = new ProductSearchCriteria("Product 1", List.of("Category A", "Category B"),
+				List.of(Map.of("size", "Small"), Map.of("color", "Red")));
+		ProductSearchCriteria second = new ProductSearchCriteria("Product 1", List.of("Category B", "Category A", "Category B"),
+				List.of(Map.of("color", "Red"), Map.of("size", "Small")));
+
+		assertEquals(ProductSearchCache.key(0, first, 1, 10, null), ProductSearchCache.key(0, second, 1, 10, null));
+		assertNotEquals(ProductSearchCache.key(0, first, 1, 10, null), ProductSearchCache.key(0, first, 2, 10, null));
+		assertEquals(ProductSearchCache.key(0, first, null, 10, null), ProductSearchCache.key(0, first, 3, null, null));
+	}
+
+	@Test
+	void searchesAgainAfterAWrite() {
+		ProductSearchCache cache = new ProductSearchCache(100, Duration.ofMinutes(1));
+		ProductSearchCriteria criteria = new ProductSearchCriteria(null, List.of("Category A"), null);
+		AtomicInteger searches = new AtomicInteger();
+
+		cache.get(criteria, 0, 10, null, () -> { searches.incrementAndGet(); return List.of(); });
+		cache.get(criteria, 0, 10, null, () -> { searches.incrementAndGet(); return List.of(); });
+		assertEquals(1, searches.get());
+
+		cache.onProductChanged(ProductChangedEvent.of("p1"));
+		cache.get(criteria, 0, 10, null, () -> { searches.incrementAndGet(); return List.of(); });
+		assertEquals(2, searches.get());
+	}
+}
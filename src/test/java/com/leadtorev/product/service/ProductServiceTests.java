@@ -0,0 +1,173 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.leadtorev.product.entity.Availability;
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.ProductAttribute;
+import com.leadtorev.product.entity.ProductSearchCriteria;
+import com.leadtorev.product.entity.Ratings;
+import com.leadtorev.product.repository.ProductRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProductServiceTests {
+
+	@Test
+	void updateSetsOnlyTheGivenFields() {
+		Product product = new Product();
+		product.setName("Product 1");
+		product.setAttributes(new ArrayList<ProductAttribute>(List.of(new ProductAttribute("size", "Small"))));
+
+		Document update = ProductService.buildUpdate(product).getUpdateObject();
+
+		assertEquals(new Document("$set", new Document("name", "Product 1")
+				.append("nameTokens", List.of("product", "1"))
+				.append("attributes", List.of(new ProductAttribute("size", "Small")))), update);
+	}
+
+	@Test
+	void negativeQuantityIsRejected() {
+		Availability availability = new Availability();
+		availability.setInStock(true);
+		availability.setQuantity(-1);
+		Product product = new Product();
+		product.setAvailability(availability);
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> ProductService.buildUpdate(product));
+		assertEquals("Invalid value: -1", e.getMessage());
+	}
+
+	@Test
+	void conditionalUpdateReturnsTheNewETag() {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		Product updated = new Product();
+		updated.setVersion(8);
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+				eq(Product.class))).thenReturn(updated);
+		Product product = new Product();
+		product.setPrice(9.99);
+
+		ResponseEntity<String> response = service(mongoTemplate, mock(ProductRatingStore.class))
+				.updateRecord("p1", product, List.of(7L));
+
+		assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+		assertEquals("\"8\"", response.getHeaders().getETag());
+	}
+
+	@Test
+	void updateWithoutFieldsKeepsTheVersion() {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		Product current = new Product();
+		current.setVersion(7);
+		when(mongoTemplate.findOne(any(Query.class), eq(Product.class))).thenReturn(current);
+
+		ResponseEntity<String> response = service(mongoTemplate, mock(ProductRatingStore.class))
+				.updateRecord("p1", new Product(), List.of(7L));
+
+		verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class),
+				any(FindAndModifyOptions.class), eq(Product.class));
+		assertEquals("\"7\"", response.getHeaders().getETag());
+	}
+
+	@Test
+	void ratingThatCannotBeStoredIsTakenOutOfTheAggregates() {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		ProductRatingStore productRatingStore = mock(ProductRatingStore.class);
+		when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+				eq(Product.class))).thenReturn(new Product());
+		Ratings rating = new Ratings();
+		rating.setUserId("user1");
+		rating.setRating(4);
+		doThrow(new DataAccessResourceFailureException("connection lost")).when(productRatingStore).add("p1", rating);
+
+		assertThrows(DataAccessResourceFailureException.class,
+				() -> service(mongoTemplate, productRatingStore).rateProduct("p1", rating));
+
+		ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+		verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(Product.class));
+		assertEquals(RatingUpdates.add(-1, -4).getUpdateObject(), update.getValue().getUpdateObject());
+	}
+
+	@Test
+	void failedConditionalRatingKeepsALaterChangeOfTheRating() {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		ProductRatingStore productRatingStore = mock(ProductRatingStore.class);
+		when(mongoTemplate.exists(any(Query.class), eq(Product.class))).thenReturn(true);
+		when(productRatingStore.edit("p1", "user1", 5)).thenReturn(2);
+		//The product changes between the check and the update, and the rating is changed again by another request
+		when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+				eq(Product.class))).thenReturn(null);
+		when(productRatingStore.revert("p1", "user1", 5, 2)).thenReturn(false);
+
+		assertThrows(OptimisticLockingFailureException.class, () -> service(mongoTemplate, productRatingStore)
+				.updateRating("p1", "user1", 5, List.of(7L)));
+
+		verify(productRatingStore, never()).edit("p1", "user1", 2);
+		//The later change was computed from this one, so the aggregates get its difference
+		ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+		verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(Product.class));
+		assertEquals(RatingUpdates.change(3).getUpdateObject(), update.getValue().getUpdateObject());
+	}
+
+	@Test
+	void searchWithoutPagingReadsOneCappedPage() {
+		ProductQueryBuilder productQueryBuilder = mock(ProductQueryBuilder.class);
+		Query query = new Query();
+		when(productQueryBuilder.build(any(ProductSearchCriteria.class), any(Pageable.class))).thenReturn(query);
+		ProductService productService = new ProductService(mock(ProductRepository.class), mock(MongoTemplate.class),
+				productQueryBuilder, mock(ProductImporter.class), new ObjectMapper(), mock(ProductCache.class),
+				mock(ProductSearchCache.class), mock(ProductBitmapIndex.class), mock(ProductRatingStore.class),
+				event -> {}, new ProductMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(productService, "defaultPageSize", 50);
+		ReflectionTestUtils.setField(productService, "maxPageSize", 500);
+		ProductSearchCriteria criteria = new ProductSearchCriteria(null, List.of("Category A"), null);
+
+		productService.searchProducts(criteria, null, null, null);
+		criteria.setTop(100000);
+		productService.searchProducts(criteria, 2, 100000, null);
+
+		ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+		verify(productQueryBuilder, times(2)).build(eq(criteria), pageable.capture());
+		assertEquals(List.of(PageRequest.of(0, 50), PageRequest.of(2, 500)), pageable.getAllValues());
+		assertEquals(500, query.getLimit());
+	}
+
+	private static ProductService service(MongoTemplate mongoTemplate, ProductRatingStore productRatingStore) {
+		return new ProductService(mock(ProductRepository.class), mongoTemplate, mock(ProductQueryBuilder.class),
+				mock(ProductImporter.class), new ObjectMapper(), mock(ProductCache.class), mock(ProductSearchCache.class),
+				mock(ProductBitmapIndex.class), productRatingStore, event -> {},
+				new ProductMetrics(new SimpleMeterRegistry()));
+	}
+}
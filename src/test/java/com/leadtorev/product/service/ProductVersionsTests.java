@@ -0,0 +1,38 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class ProductVersionsTests {
+
+	@Test
+	void ifMatchIsParsedWithStrongComparison() {
+		assertNull(ProductVersions.parseIfMatch(null));
+		assertNull(ProductVersions.parseIfMatch("*"));
+		assertEquals(List.of(3L, 4L), ProductVersions.parseIfMatch("\"3\", \"4\""));
+		assertEquals(List.of(), ProductVersions.parseIfMatch("W/\"3\", \"abc\""));
+
+		//Products written before versions have no version field and match version 0
+		assertEquals(new Document("version", new Document("$in", Arrays.asList(0L, null))),
+				ProductVersions.hasVersion(List.of(0L)).getCriteriaObject());
+	}
+
+	@Test
+	void pageETagChangesWithAnyVersionAndTheRequest() {
+		String page = ProductVersions.eTag("fields=&sort=price", List.of("p1:1", "p2:5"));
+
+		assertEquals(page, ProductVersions.eTag("fields=&sort=price", List.of("p1:1", "p2:5")));
+		assertNotEquals(page, ProductVersions.eTag("fields=&sort=price", List.of("p1:1", "p2:6")));
+		assertNotEquals(page, ProductVersions.eTag("fields=&sort=price", List.of("p2:5", "p1:1")));
+		//The same products with other fields are another body
+		assertNotEquals(page, ProductVersions.eTag("fields=id,name&sort=price", List.of("p1:1", "p2:5")));
+		assertEquals(34, page.length());
+	}
+}
@@ -0,0 +1,58 @@
+package com.leadtorev.product.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+
+import com.leadtorev.product.entity.Product;
+import com.leadtorev.product.entity.Ratings;
+
+class RatingUpdatesTests {
+
+	@Test
+	void ratingWritesOnlyTouchTheAggregates() {
+		List<Document> add = RatingUpdates.add(4).toPipeline(Aggregation.DEFAULT_CONTEXT);
+		List<Document> change = RatingUpdates.change(-2).toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+		assertEquals(Set.of("ratingCount", "ratingSum"), add.get(0).get("$set", Document.class).keySet());
+		assertEquals(Set.of("ratingCount", "ratingSum"), change.get(0).get("$set", Document.class).keySet());
+		assertEquals(Set.of("averageRating"), change.get(1).get("$set", Document.class).keySet());
+	}
+
+	@Test
+	void changeStartsFromTheRatingsArrayWithoutAggregates() {
+		Document set = RatingUpdates.change(-2).toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$set", Document.class);
+
+		assertEquals(new Document("$add", List.of(
+				new Document("$ifNull", List.of("$ratingSum", new Document("$sum", "$ratings.rating"))), -2)),
+				set.get("ratingSum"));
+		assertEquals(new Document("$ifNull", List.of("$ratingCount",
+				new Document("$size", new Document("$ifNull", List.of("$ratings", List.of()))))),
+				set.get("ratingCount"));
+	}
+
+	@Test
+	void aggregatesOfAProductWrittenWhole() {
+		Product product = new Product();
+		product.updateRatingAggregates();
+		assertEquals(0, product.getAverageRating());
+
+		product.setRatings(List.of(rating(4), rating(5)));
+		product.updateRatingAggregates();
+		assertEquals(2, product.getRatingCount());
+		assertEquals(9, product.getRatingSum());
+		assertEquals(4.5, product.getAverageRating());
+	}
+
+	private static Ratings rating(int value) {
+		Ratings rating = new Ratings();
+		rating.setUserId("user" + value);
+		rating.setRating(value);
+		return rating;
+	}
+}